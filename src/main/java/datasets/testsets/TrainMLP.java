@@ -1,7 +1,5 @@
 package datasets.testsets;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
@@ -10,13 +8,11 @@ import java.util.concurrent.ExecutionException;
 
 import datasets.DatasetCreator;
 import datasets.InputParameter;
+import prediction_tool.DatasetLoader;
 import weka.classifiers.functions.MultilayerPerceptron;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Utils;
-import weka.core.converters.AbstractFileLoader;
-import weka.core.converters.ArffLoader;
-import weka.core.converters.CSVLoader;
 
 /**
  * Created by Vanessa Ackermann on 16.06.18.
@@ -59,29 +55,7 @@ public class TrainMLP extends DatasetCreator {
   }
 
   static Instances loadDatasetFromFilepath(String filepath) {
-    File file = new File(filepath);
-    AbstractFileLoader loader;
-    if (filepath.endsWith(".csv")) {
-      loader = new CSVLoader();
-    }
-    else if (filepath.endsWith(".arff")) {
-      loader = new ArffLoader();
-    }
-    else {
-      System.out.println("Wrong file type :(");
-      return null;
-    }
-    try {
-      Instances dataset;
-      loader.setFile(file);
-      dataset = loader.getDataSet();
-      dataset.setClassIndex(dataset.numAttributes() - 1);
-      return dataset;
-    }
-    catch (IOException e) {
-      e.printStackTrace();
-    }
-    return null;
+    return DatasetLoader.load(filepath);
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,256 @@
+package prediction_tool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import weka.core.Instances;
+
+/**
+ * BatchCharacteristics calculates all data set characteristics of DatasetCharacteristics (size, number of input
+ * parameters, range and coefficient of variance of the target attribute, highest and lowest correlation, R^2 of the
+ * linear regression) at once. The attribute values are copied to primitive column arrays (one task per attribute);
+ * then every block of rows is reduced to its means, co-moments, minimum and maximum in one pass over its columns (one
+ * task per block). The block results are merged in block order, so the result does not depend on the parallelism.
+ *
+ * Data sets with nominal input parameters or missing values are passed to the Weka-based DatasetCharacteristics,
+ * which binarizes nominal attributes.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class BatchCharacteristics {
+
+  static final int BLOCK_ROWS = 16 * 1024;
+
+  /**
+   * Calculates the characteristics of the data set on the common fork-join pool, in the order of
+   * CharacteristicsAccumulator.getMetaFeatures().
+   *
+   * @param dataset
+   *
+   * @return meta-features
+   */
+  public static double[] compute(Instances dataset) {
+    return compute(dataset, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Calculates the characteristics of the data set on the given pool, in the order of
+   * CharacteristicsAccumulator.getMetaFeatures().
+   *
+   * @param dataset
+   * @param pool
+   *
+   * @return meta-features
+   */
+  public static double[] compute(Instances dataset, ForkJoinPool pool) {
+    return compute(DatasetView.of(dataset), pool);
+  }
+
+  /**
+   * Calculates the characteristics of the rows of the view on the given pool, in the order of
+   * CharacteristicsAccumulator.getMetaFeatures().
+   *
+   * @param view
+   * @param pool
+   *
+   * @return meta-features
+   */
+  public static double[] compute(final DatasetView view, ForkJoinPool pool) {
+    Instances header = view.getHeader();
+    if (!isNumeric(header)) {
+      return computeWithWeka(view.toInstances());
+    }
+    final int numAttributes = header.numAttributes();
+    final int classIndex = header.classIndex();
+    final double[][] columns = new double[numAttributes][];
+    List<ForkJoinTask<?>> extractions = new ArrayList<ForkJoinTask<?>>();
+    for (int i = 0; i < numAttributes; i++) {
+      final int attribute = i;
+      // The target attribute is stored as last column.
+      final int column = attribute == classIndex ? numAttributes - 1
+          : attribute < classIndex ? attribute : attribute - 1;
+      extractions.add(pool.submit(new Runnable() {
+        @Override
+        public void run() {
+          columns[column] = view.attributeToDoubleArray(attribute);
+        }
+      }));
+    }
+    for (ForkJoinTask<?> extraction : extractions) {
+      extraction.join();
+    }
+    double[] metaFeatures = compute(columns, view.size(), pool);
+    return metaFeatures == null ? computeWithWeka(view.toInstances()) : metaFeatures;
+  }
+
+  /**
+   * Calculates the characteristics of the first numRows values of the columns; the last column holds the target
+   * attribute.
+   *
+   * @param columns
+   * @param numRows
+   * @param pool
+   *
+   * @return meta-features, or null if a value is missing (NaN)
+   */
+  static double[] compute(final double[][] columns, int numRows, ForkJoinPool pool) {
+    List<ForkJoinTask<BlockMoments>> tasks = new ArrayList<ForkJoinTask<BlockMoments>>();
+    for (int start = 0; start < numRows; start += BLOCK_ROWS) {
+      final int blockStart = start;
+      final int blockEnd = Math.min(numRows, start + BLOCK_ROWS);
+      tasks.add(pool.submit(new Callable<BlockMoments>() {
+        @Override
+        public BlockMoments call() {
+          return BlockMoments.of(columns, blockStart, blockEnd);
+        }
+      }));
+    }
+    BlockMoments moments = new BlockMoments(columns.length);
+    try {
+      for (ForkJoinTask<BlockMoments> task : tasks) {
+        BlockMoments block = task.get();
+        if (block == null) {
+          return null;
+        }
+        moments.merge(block);
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+    catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+    return new CharacteristicsAccumulator(moments.count, moments.means, moments.comoments, moments.min,
+        moments.max).getMetaFeatures();
+  }
+
+  /**
+   * Returns true if all attributes are numeric.
+   *
+   * @param dataset
+   *
+   * @return true if the fused calculation can be used
+   */
+  private static boolean isNumeric(Instances dataset) {
+    for (int i = 0; i < dataset.numAttributes(); i++) {
+      if (!dataset.attribute(i).isNumeric()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Calculates the characteristics with the Weka-based DatasetCharacteristics.
+   *
+   * @param dataset
+   *
+   * @return meta-features
+   */
+  static double[] computeWithWeka(Instances dataset) {
+    return new double[] {DatasetCharacteristics.getSize(dataset),
+        DatasetCharacteristics.getNumberOfInputParameters(dataset),
+        DatasetCharacteristics.getRangeOfClassAttribute(dataset), DatasetCharacteristics.getCVOfClassAttribute(dataset),
+        DatasetCharacteristics.getHighestCorrelation(dataset), DatasetCharacteristics.getLowestCorrelation(dataset),
+        DatasetCharacteristics.getR2ForLinReg(dataset)};
+  }
+
+  /**
+   * Count, means, lower triangle of the co-moment matrix and range of the target attribute (last column) of a block of
+   * rows.
+   */
+  private static class BlockMoments {
+
+    long count = 0;
+    final double[] means;
+    final double[][] comoments;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+
+    BlockMoments(int numColumns) {
+      this.means = new double[numColumns];
+      this.comoments = new double[numColumns][numColumns];
+    }
+
+    /**
+     * Reduces the rows [start, end) of the columns. The block is small enough to stay in the cache, so the means are
+     * calculated first and the co-moments are then summed column pair by column pair.
+     *
+     * @param columns
+     * @param start
+     * @param end
+     *
+     * @return BlockMoments, or null if a value is missing (NaN)
+     */
+    static BlockMoments of(double[][] columns, int start, int end) {
+      int numColumns = columns.length;
+      int target = numColumns - 1;
+      BlockMoments block = new BlockMoments(numColumns);
+      block.count = end - start;
+      for (int i = 0; i < numColumns; i++) {
+        double[] column = columns[i];
+        double sum = 0;
+        for (int row = start; row < end; row++) {
+          sum += column[row];
+        }
+        if (Double.isNaN(sum)) {
+          return null;
+        }
+        block.means[i] = sum / block.count;
+      }
+      double[] targetColumn = columns[target];
+      for (int row = start; row < end; row++) {
+        block.min = Math.min(block.min, targetColumn[row]);
+        block.max = Math.max(block.max, targetColumn[row]);
+      }
+      for (int i = 0; i < numColumns; i++) {
+        double[] first = columns[i];
+        double firstMean = block.means[i];
+        for (int j = 0; j <= i; j++) {
+          double[] second = columns[j];
+          double secondMean = block.means[j];
+          double sum = 0;
+          for (int row = start; row < end; row++) {
+            sum += (first[row] - firstMean) * (second[row] - secondMean);
+          }
+          block.comoments[i][j] = sum;
+        }
+      }
+      return block;
+    }
+
+    /**
+     * Merges the moments of another block into this one (pairwise update of Chan et al.).
+     *
+     * @param other
+     */
+    void merge(BlockMoments other) {
+      if (other.count == 0) {
+        return;
+      }
+      long total = count + other.count;
+      double weight = (double) count * other.count / total;
+      int numColumns = means.length;
+      double[] deltas = new double[numColumns];
+      for (int i = 0; i < numColumns; i++) {
+        deltas[i] = other.means[i] - means[i];
+      }
+      for (int i = 0; i < numColumns; i++) {
+        for (int j = 0; j <= i; j++) {
+          comoments[i][j] += other.comoments[i][j] + deltas[i] * deltas[j] * weight;
+        }
+        means[i] += deltas[i] * other.count / total;
+      }
+      count = total;
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+    }
+  }
+}
@@ -0,0 +1,397 @@
+package prediction_tool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * BulkPrediction predicts all lines of a CSV file of input parameter values with one fixed ModelSnapshot. The input
+ * file is memory-mapped window by window and parsed in place; the predictions (one integer per line, like in
+ * RuntimePrediction.predictAllInFile) are written to a channel through a bounded buffer. Memory usage is therefore
+ * independent of the file size.
+ *
+ * In parallel mode, every mapped window is split on line boundaries into chunks that are predicted on a fork-join pool.
+ * The chunk outputs are written in input order.
+ *
+ * A BulkPrediction object holds the reusable buffers for one thread.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class BulkPrediction {
+
+  static final int MAP_WINDOW_BYTES = 64 * 1024 * 1024;
+  static final int BATCH_ROWS = 1024;
+  static final int OUTPUT_BUFFER_BYTES = 64 * 1024;
+  static final int CHUNKS_PER_THREAD = 4;
+
+  private final ModelSnapshot snapshot;
+  private final CsvRowParser csvParser;
+  private final int numInputs;
+  private final double[][] batch;
+  private final int[] lineRows = new int[BATCH_ROWS];
+  private final double[] predictions = new double[BATCH_ROWS];
+  private int numLines = 0;
+  private int numRows = 0;
+  private long numPredictedLines = 0;
+
+  /**
+   * Creates BulkPrediction for the given snapshot. Lines are parsed with the given parser and must contain numInputs
+   * values.
+   *
+   * @param snapshot
+   * @param csvParser
+   * @param numInputs
+   */
+  BulkPrediction(ModelSnapshot snapshot, CsvRowParser csvParser, int numInputs) {
+    this.snapshot = snapshot;
+    this.csvParser = csvParser;
+    this.numInputs = numInputs;
+    this.batch = new double[BATCH_ROWS][numInputs];
+  }
+
+  /**
+   * Predicts all lines in the input file and writes one prediction per line to the output channel.
+   *
+   * @param snapshot
+   * @param csvParser
+   * @param numInputs
+   * @param input
+   * @param output
+   *
+   * @return number of predicted lines
+   *
+   * @throws IOException
+   */
+  static long predictAll(ModelSnapshot snapshot, CsvRowParser csvParser, int numInputs, Path input,
+      WritableByteChannel output) throws IOException {
+    BulkPrediction bulkPrediction = new BulkPrediction(snapshot, csvParser, numInputs);
+    PredictionWriter writer = new PredictionWriter(output, OUTPUT_BUFFER_BYTES);
+    try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+      long fileSize = channel.size();
+      long position = 0;
+      while (position < fileSize) {
+        int windowSize = (int) Math.min(MAP_WINDOW_BYTES, fileSize - position);
+        MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+        boolean endOfInput = position + windowSize == fileSize;
+        int consumed = bulkPrediction.predictLines(window, 0, windowSize, endOfInput, writer);
+        if (consumed == 0) {
+          throw new IOException("Line at byte " + position + " is longer than " + MAP_WINDOW_BYTES + " bytes.");
+        }
+        position += consumed;
+      }
+    }
+    bulkPrediction.flush(writer);
+    writer.flush();
+    return bulkPrediction.numPredictedLines;
+  }
+
+  /**
+   * Predicts all lines in the input file in parallel on the given pool and writes one prediction per line to the output
+   * channel, in the order of the input lines. Every worker thread predicts with its own replica of the snapshot.
+   *
+   * @param snapshot
+   * @param csvParser
+   * @param numInputs
+   * @param input
+   * @param output
+   * @param pool
+   *
+   * @return number of predicted lines
+   *
+   * @throws IOException
+   */
+  static long predictAllParallel(final ModelSnapshot snapshot, final CsvRowParser csvParser, final int numInputs,
+      Path input, WritableByteChannel output, ForkJoinPool pool) throws IOException {
+    long numPredictedLines = 0;
+    int numChunks = Math.max(1, pool.getParallelism() * CHUNKS_PER_THREAD);
+    try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+      long fileSize = channel.size();
+      long position = 0;
+      while (position < fileSize) {
+        int windowSize = (int) Math.min(MAP_WINDOW_BYTES, fileSize - position);
+        final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+        final boolean endOfInput = position + windowSize == fileSize;
+        int windowEnd = endOfInput ? windowSize : lastLineEnd(window, windowSize);
+        if (windowEnd == 0) {
+          throw new IOException("Line at byte " + position + " is longer than " + MAP_WINDOW_BYTES + " bytes.");
+        }
+
+        List<ForkJoinTask<ChunkResult>> tasks = new ArrayList<ForkJoinTask<ChunkResult>>();
+        int chunkStart = 0;
+        for (int chunk = 1; chunk <= numChunks && chunkStart < windowEnd; chunk++) {
+          final int start = chunkStart;
+          int chunkTarget = Math.max(start, (int) ((long) windowEnd * chunk / numChunks));
+          final int end = chunk == numChunks ? windowEnd : nextLineStart(window, chunkTarget, windowEnd);
+          tasks.add(pool.submit(new Callable<ChunkResult>() {
+            @Override
+            public ChunkResult call() throws IOException {
+              return predictChunk(snapshot, csvParser, numInputs, window, start, end, endOfInput);
+            }
+          }));
+          chunkStart = end;
+        }
+        for (ForkJoinTask<ChunkResult> task : tasks) {
+          ChunkResult result = joinChunk(task);
+          result.output.writeTo(Channels.newOutputStream(output));
+          numPredictedLines += result.numPredictedLines;
+        }
+        position += windowEnd;
+      }
+    }
+    return numPredictedLines;
+  }
+
+  /**
+   * Predicts all lines in window[start, end) and returns the predictions as ASCII lines.
+   *
+   * @param snapshot
+   * @param csvParser
+   * @param numInputs
+   * @param window
+   * @param start
+   * @param end
+   * @param endOfInput
+   *
+   * @return ChunkResult
+   *
+   * @throws IOException
+   */
+  private static ChunkResult predictChunk(ModelSnapshot snapshot, CsvRowParser csvParser, int numInputs,
+      ByteBuffer window, int start, int end, boolean endOfInput) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    PredictionWriter writer = new PredictionWriter(Channels.newChannel(output), OUTPUT_BUFFER_BYTES);
+    BulkPrediction bulkPrediction = new BulkPrediction(snapshot, csvParser, numInputs);
+    bulkPrediction.predictLines(window, start, end, endOfInput, writer);
+    bulkPrediction.flush(writer);
+    writer.flush();
+    return new ChunkResult(output, bulkPrediction.numPredictedLines);
+  }
+
+  /**
+   * Waits for the chunk task and returns its result.
+   *
+   * @param task
+   *
+   * @return ChunkResult
+   *
+   * @throws IOException
+   */
+  private static ChunkResult joinChunk(ForkJoinTask<ChunkResult> task) throws IOException {
+    try {
+      return task.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while predicting file chunks.", e);
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Failed to predict file chunk.", e.getCause());
+    }
+  }
+
+  /**
+   * Returns the index after the last line break in buffer[0, end), or 0 if there is none.
+   *
+   * @param buffer
+   * @param end
+   *
+   * @return end of last complete line
+   */
+  private static int lastLineEnd(ByteBuffer buffer, int end) {
+    for (int i = end - 1; i >= 0; i--) {
+      if (buffer.get(i) == '\n') {
+        return i + 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the index after the first line break in buffer[from, end), or end if there is none.
+   *
+   * @param buffer
+   * @param from
+   * @param end
+   *
+   * @return start of next line
+   */
+  private static int nextLineStart(ByteBuffer buffer, int from, int end) {
+    for (int i = from; i < end; i++) {
+      if (buffer.get(i) == '\n') {
+        return i + 1;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Predicts all complete lines in buffer[start, end). If endOfInput is true, a last line without line break is
+   * predicted as well.
+   *
+   * @param buffer
+   * @param start
+   * @param end
+   * @param endOfInput
+   * @param writer
+   *
+   * @return number of consumed bytes (up to the start of the first incomplete line)
+   *
+   * @throws IOException
+   */
+  int predictLines(ByteBuffer buffer, int start, int end, boolean endOfInput, PredictionWriter writer)
+      throws IOException {
+    int lineStart = start;
+    for (int i = start; i < end; i++) {
+      if (buffer.get(i) == '\n') {
+        addLine(buffer, lineStart, i, writer);
+        lineStart = i + 1;
+      }
+    }
+    if (endOfInput && lineStart < end) {
+      addLine(buffer, lineStart, end, writer);
+      lineStart = end;
+    }
+    return lineStart - start;
+  }
+
+  /**
+   * Parses line buffer[start, end) into the current batch. Predicts the batch if it is full.
+   *
+   * @param buffer
+   * @param start
+   * @param end
+   * @param writer
+   *
+   * @throws IOException
+   */
+  private void addLine(ByteBuffer buffer, int start, int end, PredictionWriter writer) throws IOException {
+    if (end > start && buffer.get(end - 1) == '\r') {
+      end--;
+    }
+    if (csvParser.parse(buffer, start, end - start, batch[numRows], numInputs)) {
+      lineRows[numLines] = numRows++;
+    }
+    else {
+      lineRows[numLines] = -1;
+    }
+    numLines++;
+    if (numLines == BATCH_ROWS) {
+      flush(writer);
+    }
+  }
+
+  /**
+   * Predicts the current batch and writes its predictions in line order. Lines that could not be parsed get the
+   * prediction -1.
+   *
+   * @param writer
+   *
+   * @throws IOException
+   */
+  void flush(PredictionWriter writer) throws IOException {
+    if (snapshot != null) {
+      snapshot.classifyRows(batch, numRows, predictions);
+    }
+    for (int line = 0; line < numLines; line++) {
+      int row = lineRows[line];
+      writer.writePrediction(row < 0 || snapshot == null ? -1 : (int) predictions[row]);
+    }
+    numPredictedLines += numLines;
+    numLines = 0;
+    numRows = 0;
+  }
+
+  /**
+   * Get number of lines predicted so far.
+   *
+   * @return number of predicted lines
+   */
+  long getNumPredictedLines() {
+    return numPredictedLines;
+  }
+
+  /**
+   * Predictions of one chunk as ASCII lines.
+   */
+  private static class ChunkResult {
+
+    final ByteArrayOutputStream output;
+    final long numPredictedLines;
+
+    ChunkResult(ByteArrayOutputStream output, long numPredictedLines) {
+      this.output = output;
+      this.numPredictedLines = numPredictedLines;
+    }
+  }
+
+  /**
+   * Writes predictions as ASCII lines to a channel through a bounded buffer.
+   */
+  static class PredictionWriter {
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] digits = new byte[11];
+
+    PredictionWriter(WritableByteChannel channel, int bufferSize) {
+      this.channel = channel;
+      this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Writes the prediction followed by a line break.
+     *
+     * @param prediction
+     *
+     * @throws IOException
+     */
+    void writePrediction(int prediction) throws IOException {
+      if (buffer.remaining() < digits.length + 2) {
+        flush();
+      }
+      long value = prediction;
+      if (value < 0) {
+        buffer.put((byte) '-');
+        value = -value;
+      }
+      int numDigits = 0;
+      do {
+        digits[numDigits++] = (byte) ('0' + value % 10);
+        value /= 10;
+      } while (value > 0);
+      while (numDigits > 0) {
+        buffer.put(digits[--numDigits]);
+      }
+      buffer.put((byte) '\n');
+    }
+
+    /**
+     * Writes all buffered bytes to the channel.
+     *
+     * @throws IOException
+     */
+    void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+  }
+}
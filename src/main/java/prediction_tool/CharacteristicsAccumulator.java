@@ -0,0 +1,424 @@
+package prediction_tool;
+
+/**
+ * CharacteristicsAccumulator keeps the data set characteristics used by the MetaClassifier up to date while instances
+ * are added to and removed from a training set, so that they can be read without touching the data. Every update
+ * costs O(p^2) for p attributes; reading the characteristics costs at most O(p^3) for solving the linear regression,
+ * independent of the number of instances.
+ *
+ * The accumulator keeps Welford means and the centered co-moment matrix of all attributes (input parameters and target
+ * attribute), from which variance, Pearson correlations and the coefficient of determination of the least-square
+ * linear regression are derived. Minimum and maximum of the target attribute are kept in monotonic queues. Instances
+ * must be removed in the order they were added (oldest first), like the evictions of a TrainingStore.
+ *
+ * Removing an instance reverses the Welford update, which cancels large terms and accumulates rounding errors, e.g.
+ * after the values dropped by orders of magnitude. The owner of the instances therefore recomputes the means and
+ * co-moments from the remaining instances whenever needsRecompute() is true: after RECOMPUTE_REMOVALS removals, or
+ * earlier once more instances were removed than remain. The amortized cost per removal stays O(p^2).
+ *
+ * The values equal those of DatasetCharacteristics up to rounding (the correlation and regression of Weka treat
+ * colinear input parameters slightly differently).
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class CharacteristicsAccumulator {
+
+  static final int NUM_META_FEATURES = 7;
+  // Relative ridge on the diagonal, which keeps the normal equations solvable for colinear input parameters.
+  private static final double RIDGE = 1e-8;
+  static final int RECOMPUTE_REMOVALS = 64 * 1024;
+
+  private final int numAttributes;
+  private final int classIndex;
+  private long count = 0;
+  private final double[] means;
+  private final double[][] comoments;
+  private final double[] deltas;
+  private final MonotonicQueue minima = new MonotonicQueue(false);
+  private final MonotonicQueue maxima = new MonotonicQueue(true);
+  private long added = 0;
+  private long removed = 0;
+  private long removedSinceRecompute = 0;
+  private final boolean removable;
+
+  /**
+   * Creates empty accumulator for instances with numAttributes attributes; the last attribute is the target attribute.
+   *
+   * @param numAttributes
+   */
+  public CharacteristicsAccumulator(int numAttributes) {
+    this.numAttributes = numAttributes;
+    this.classIndex = numAttributes - 1;
+    this.means = new double[numAttributes];
+    this.comoments = new double[numAttributes][numAttributes];
+    this.deltas = new double[numAttributes];
+    this.removable = true;
+  }
+
+  /**
+   * Creates accumulator from already calculated moments of a data set, e.g. merged by BatchCharacteristics. The
+   * co-moment matrix must hold (at least) its lower triangle. Instances can be added, but not removed.
+   *
+   * @param count
+   * @param means
+   * @param comoments
+   * @param classMin
+   * @param classMax
+   */
+  CharacteristicsAccumulator(long count, double[] means, double[][] comoments, double classMin, double classMax) {
+    this.numAttributes = means.length;
+    this.classIndex = numAttributes - 1;
+    this.count = count;
+    this.means = means.clone();
+    this.comoments = new double[numAttributes][];
+    for (int i = 0; i < numAttributes; i++) {
+      this.comoments[i] = comoments[i].clone();
+    }
+    this.deltas = new double[numAttributes];
+    this.removable = false;
+    if (count > 0) {
+      minima.add(added, classMin);
+      maxima.add(added, classMax);
+      added = count;
+    }
+  }
+
+  /**
+   * Adds the instance with the given attribute values.
+   *
+   * @param values
+   */
+  public void add(double[] values) {
+    count++;
+    for (int i = 0; i < numAttributes; i++) {
+      deltas[i] = values[i] - means[i];
+      means[i] += deltas[i] / count;
+    }
+    for (int i = 0; i < numAttributes; i++) {
+      for (int j = 0; j <= i; j++) {
+        comoments[i][j] += deltas[i] * (values[j] - means[j]);
+      }
+    }
+    minima.add(added, values[classIndex]);
+    maxima.add(added, values[classIndex]);
+    added++;
+  }
+
+  /**
+   * Removes the oldest instance, which must have the given attribute values.
+   *
+   * @param values
+   */
+  public void removeOldest(double[] values) {
+    if (count == 0 || !removable) {
+      throw new IllegalStateException("No instance to remove.");
+    }
+    minima.removeOldest(removed);
+    maxima.removeOldest(removed);
+    removed++;
+    count--;
+    if (count == 0) {
+      clearMoments();
+      removedSinceRecompute = 0;
+      return;
+    }
+    removedSinceRecompute++;
+    // Reverses add(double[]): the old means follow from the current means and the removed values.
+    for (int i = 0; i < numAttributes; i++) {
+      double oldMean = (means[i] * (count + 1) - values[i]) / count;
+      deltas[i] = values[i] - oldMean;
+      for (int j = 0; j <= i; j++) {
+        comoments[i][j] -= deltas[i] * (values[j] - means[j]);
+      }
+    }
+    for (int i = 0; i < numAttributes; i++) {
+      means[i] = values[i] - deltas[i];
+    }
+  }
+
+  /**
+   * Returns true if the means and co-moments should be recomputed with recomputeMoments, because they were updated by
+   * RECOMPUTE_REMOVALS removals or by more removals than instances remain.
+   *
+   * @return true if a recomputation is due
+   */
+  public boolean needsRecompute() {
+    return removedSinceRecompute > 0 && removedSinceRecompute >= Math.min(count, RECOMPUTE_REMOVALS);
+  }
+
+  /**
+   * Recomputes the means and co-moments exactly (in two passes) from the current instances, which are given as ring
+   * buffer: instance i (oldest first) is rows[(head + i) % rows.length]. Minimum and maximum are not affected.
+   *
+   * @param rows
+   * @param head
+   */
+  public void recomputeMoments(double[][] rows, int head) {
+    clearMoments();
+    for (int row = 0; row < count; row++) {
+      double[] values = rows[(head + row) % rows.length];
+      for (int i = 0; i < numAttributes; i++) {
+        means[i] += values[i];
+      }
+    }
+    for (int i = 0; i < numAttributes; i++) {
+      means[i] /= count;
+    }
+    for (int row = 0; row < count; row++) {
+      double[] values = rows[(head + row) % rows.length];
+      for (int i = 0; i < numAttributes; i++) {
+        deltas[i] = values[i] - means[i];
+      }
+      for (int i = 0; i < numAttributes; i++) {
+        for (int j = 0; j <= i; j++) {
+          comoments[i][j] += deltas[i] * deltas[j];
+        }
+      }
+    }
+    removedSinceRecompute = 0;
+  }
+
+  private void clearMoments() {
+    for (int i = 0; i < numAttributes; i++) {
+      means[i] = 0;
+      for (int j = 0; j < numAttributes; j++) {
+        comoments[i][j] = 0;
+      }
+    }
+  }
+
+  /**
+   * Returns the co-moment of the attributes i and j (sum of the products of the deviations from the means).
+   *
+   * @param i
+   * @param j
+   *
+   * @return co-moment
+   */
+  private double comoment(int i, int j) {
+    return i >= j ? comoments[i][j] : comoments[j][i];
+  }
+
+  /**
+   * Get number of instances, a.k.a. data set size.
+   *
+   * @return size
+   */
+  public double getSize() {
+    return count;
+  }
+
+  public double getNumberOfInputParameters() {
+    return numAttributes - 1;
+  }
+
+  /**
+   * Returns range of target attribute.
+   *
+   * @return range, or NaN if empty
+   */
+  public double getRangeOfClassAttribute() {
+    return count == 0 ? Double.NaN : maxima.peek() - minima.peek();
+  }
+
+  /**
+   * Returns mean value of target attribute.
+   *
+   * @return target attribute mean
+   */
+  public double getMeanOfClassAttribute() {
+    return count == 0 ? Double.NaN : means[classIndex];
+  }
+
+  /**
+   * Returns coefficient of variance of target attribute (sample standard deviation divided by mean).
+   *
+   * @return coefficient of variance, or NaN if there are less than two instances
+   */
+  public double getCVOfClassAttribute() {
+    if (count < 2) {
+      return Double.NaN;
+    }
+    return Math.sqrt(Math.max(0, comoments[classIndex][classIndex]) / (count - 1)) / means[classIndex];
+  }
+
+  /**
+   * Returns Pearson's correlation coefficient between input parameter i and the target attribute.
+   *
+   * @param i
+   *
+   * @return correlation (between -1 and 1), 0 if one of the attributes is constant
+   */
+  public double getCorrelation(int i) {
+    double variances = comoments[i][i] * comoments[classIndex][classIndex];
+    if (variances <= 0) {
+      return 0;
+    }
+    return Math.max(-1, Math.min(1, comoment(classIndex, i) / Math.sqrt(variances)));
+  }
+
+  /**
+   * Returns highest correlation between an input parameter and the target attribute.
+   *
+   * @return highest correlation value (between -1 and 1).
+   */
+  public double getHighestCorrelation() {
+    double currentMax = -1;
+    for (int i = 0; i < classIndex; i++) {
+      currentMax = Math.max(currentMax, getCorrelation(i));
+    }
+    return currentMax;
+  }
+
+  /**
+   * Returns lowest correlation between an input parameter and the target attribute.
+   *
+   * @return lowest correlation value (between -1 and 1).
+   */
+  public double getLowestCorrelation() {
+    double currentMin = 1;
+    for (int i = 0; i < classIndex; i++) {
+      currentMin = Math.min(currentMin, getCorrelation(i));
+    }
+    return currentMin;
+  }
+
+  /**
+   * Returns coefficient of determination R^2 of the least-square linear regression model. Solves the centered normal
+   * equations Cxx b = Cxy; R^2 is the explained share b'Cxy / Cyy of the target attribute's co-moment.
+   *
+   * @return R^2, or NaN if the target attribute is constant
+   */
+  public double getR2ForLinReg() {
+    double total = comoments[classIndex][classIndex];
+    if (count < 2 || total <= 0) {
+      return Double.NaN;
+    }
+    int p = classIndex;
+    double[][] system = new double[p][p + 1];
+    for (int i = 0; i < p; i++) {
+      for (int j = 0; j < p; j++) {
+        system[i][j] = comoment(i, j);
+      }
+      system[i][i] = system[i][i] == 0 ? 1 : system[i][i] * (1 + RIDGE);
+      system[i][p] = comoment(i, classIndex);
+    }
+    double[] coefficients = solve(system);
+    double explained = 0;
+    for (int i = 0; i < p; i++) {
+      explained += coefficients[i] * comoment(i, classIndex);
+    }
+    return Math.max(0, Math.min(1, explained / total));
+  }
+
+  /**
+   * Solves the linear system given as augmented matrix by Gaussian elimination with partial pivoting. Overwrites the
+   * matrix.
+   *
+   * @param system
+   *
+   * @return solution
+   */
+  private static double[] solve(double[][] system) {
+    int p = system.length;
+    for (int column = 0; column < p; column++) {
+      int pivot = column;
+      for (int row = column + 1; row < p; row++) {
+        if (Math.abs(system[row][column]) > Math.abs(system[pivot][column])) {
+          pivot = row;
+        }
+      }
+      double[] swap = system[column];
+      system[column] = system[pivot];
+      system[pivot] = swap;
+      if (system[column][column] == 0) {
+        continue;
+      }
+      for (int row = column + 1; row < p; row++) {
+        double factor = system[row][column] / system[column][column];
+        for (int k = column; k <= p; k++) {
+          system[row][k] -= factor * system[column][k];
+        }
+      }
+    }
+    double[] solution = new double[p];
+    for (int row = p - 1; row >= 0; row--) {
+      double sum = system[row][p];
+      for (int k = row + 1; k < p; k++) {
+        sum -= system[row][k] * solution[k];
+      }
+      solution[row] = system[row][row] == 0 ? 0 : sum / system[row][row];
+    }
+    return solution;
+  }
+
+  /**
+   * Returns the characteristics in the attribute order of the MetaClassifier training set: size, number of input
+   * parameters, range and coefficient of variance of the target attribute, highest and lowest correlation and R^2 of
+   * the linear regression.
+   *
+   * @return meta-features
+   */
+  public double[] getMetaFeatures() {
+    return new double[] {getSize(), getNumberOfInputParameters(), getRangeOfClassAttribute(), getCVOfClassAttribute(),
+        getHighestCorrelation(), getLowestCorrelation(), getR2ForLinReg()};
+  }
+
+  /**
+   * Queue of the candidates for the minimum (or maximum) of the target attribute among the instances not yet removed.
+   * Every candidate is smaller (larger) than all candidates added before it, so the front is the minimum (maximum).
+   */
+  private static class MonotonicQueue {
+
+    private final boolean maximum;
+    private long[] sequenceNumbers = new long[16];
+    private double[] values = new double[16];
+    private int head = 0;
+    private int size = 0;
+
+    MonotonicQueue(boolean maximum) {
+      this.maximum = maximum;
+    }
+
+    void add(long sequenceNumber, double value) {
+      while (size > 0) {
+        double last = values[(head + size - 1) & (values.length - 1)];
+        if (maximum ? last > value : last < value) {
+          break;
+        }
+        size--;
+      }
+      if (size == values.length) {
+        grow();
+      }
+      int index = (head + size) & (values.length - 1);
+      sequenceNumbers[index] = sequenceNumber;
+      values[index] = value;
+      size++;
+    }
+
+    void removeOldest(long sequenceNumber) {
+      if (size > 0 && sequenceNumbers[head] == sequenceNumber) {
+        head = (head + 1) & (values.length - 1);
+        size--;
+      }
+    }
+
+    double peek() {
+      return values[head];
+    }
+
+    private void grow() {
+      long[] newSequenceNumbers = new long[sequenceNumbers.length * 2];
+      double[] newValues = new double[values.length * 2];
+      for (int i = 0; i < size; i++) {
+        newSequenceNumbers[i] = sequenceNumbers[(head + i) & (values.length - 1)];
+        newValues[i] = values[(head + i) & (values.length - 1)];
+      }
+      sequenceNumbers = newSequenceNumbers;
+      values = newValues;
+      head = 0;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package prediction_tool;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * Compares the runtime of the per-metric, Weka-based DatasetCharacteristics with the fused BatchCharacteristics on a
+ * synthetic data set and prints the speedup and the largest relative difference of the results.
+ *
+ * Usage: CharacteristicsBenchmark [numRows [numParameters [iterations]]] (default: 100000 4 10)
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class CharacteristicsBenchmark {
+
+  static final String[] META_FEATURE_NAMES =
+      {"Size", "NumParam", "RuntimeRange", "RuntimeCV", "HighestCorrelation", "LowestCorrelation", "R2LinReg"};
+
+  public static void main(String[] args) {
+    int numRows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int numParameters = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    Instances dataset = createDataset(numRows, numParameters, new Random(0));
+
+    double[] expected = BatchCharacteristics.computeWithWeka(dataset);
+    double[] actual = BatchCharacteristics.compute(dataset);
+    long wekaNanos = Long.MAX_VALUE;
+    long batchNanos = Long.MAX_VALUE;
+    for (int i = 0; i < iterations; i++) {
+      long startTime = System.nanoTime();
+      BatchCharacteristics.computeWithWeka(dataset);
+      wekaNanos = Math.min(wekaNanos, System.nanoTime() - startTime);
+      startTime = System.nanoTime();
+      BatchCharacteristics.compute(dataset);
+      batchNanos = Math.min(batchNanos, System.nanoTime() - startTime);
+    }
+
+    double maxDifference = 0;
+    for (int i = 0; i < expected.length; i++) {
+      double difference = Math.abs(expected[i] - actual[i]) / Math.max(Math.abs(expected[i]), 1e-12);
+      maxDifference = Math.max(maxDifference, difference);
+      System.out.println(META_FEATURE_NAMES[i] + ": " + expected[i] + " (DatasetCharacteristics), " + actual[i]
+          + " (BatchCharacteristics)");
+    }
+    System.out.println("Rows: " + numRows + ", input parameters: " + numParameters);
+    System.out.println("DatasetCharacteristics: " + wekaNanos / 1000 + " us");
+    System.out.println("BatchCharacteristics:   " + batchNanos / 1000 + " us");
+    System.out.println("Speedup: " + String.format("%.1f", (double) wekaNanos / batchNanos) + "x");
+    System.out.println("Largest relative difference: " + maxDifference);
+  }
+
+  /**
+   * Creates data set with numParameters uniformly distributed input parameters and a noisy runtime that depends
+   * linearly on the first, quadratically on the second parameter and not at all on the others.
+   *
+   * @param numRows
+   * @param numParameters
+   * @param random
+   *
+   * @return data set
+   */
+  static Instances createDataset(int numRows, int numParameters, Random random) {
+    ArrayList<Attribute> attributeList = new ArrayList<Attribute>();
+    for (int i = 0; i < numParameters; i++) {
+      attributeList.add(new Attribute("InputParam_" + i));
+    }
+    attributeList.add(new Attribute("Runtime(ns)"));
+    Instances dataset = new Instances("Benchmark", attributeList, numRows);
+    dataset.setClassIndex(numParameters);
+    for (int row = 0; row < numRows; row++) {
+      double[] values = new double[numParameters + 1];
+      for (int i = 0; i < numParameters; i++) {
+        values[i] = random.nextInt(10000);
+      }
+      double runtime = 1e6 + random.nextGaussian() * 1e4;
+      if (numParameters > 0) {
+        runtime += 300 * values[0];
+      }
+      if (numParameters > 1) {
+        runtime += 0.05 * values[1] * values[1];
+      }
+      values[numParameters] = runtime;
+      dataset.add(new DenseInstance(1.0, values));
+    }
+    return dataset;
+  }
+}
@@ -0,0 +1,400 @@
+package prediction_tool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * ColumnarDataset is a runtime data set in a compact binary, column-oriented file format (file extension .columnar),
+ * which can be loaded without parsing text. The file is memory-mapped: the values of every attribute are exposed as a
+ * read-only DoubleBuffer view on the mapping, so reading a data set costs (almost) no heap. Weka Instances are only
+ * created when they are requested, e.g. for training a predictor.
+ *
+ * File format (big-endian):
+ * <pre>
+ * int     MAGIC
+ * int     FORMAT_VERSION
+ * int     flags (FLAG_COMPRESSED)
+ * int     number of rows
+ * int     class index
+ * string  relation name
+ * int     number of attributes
+ *         per attribute: string name, byte type (numeric or nominal), for nominal attributes int number of values and
+ *         the values as strings
+ *         padding to a multiple of 8 bytes
+ *         per attribute: number of rows doubles (uncompressed), or int length and the deflated doubles (compressed)
+ * </pre>
+ * Strings are stored as int length and UTF-8 bytes. Nominal values are stored as value index, missing values as NaN
+ * (like in Weka). Compressed columns are inflated into direct buffers outside the heap when the file is opened.
+ *
+ * The main method converts csv and arff files: ColumnarDataset input [outputDirectory] [-compress], where input is a
+ * file or a directory (default output directory: ./data/columnar).
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class ColumnarDataset {
+
+  static final String FILE_EXTENSION = ".columnar";
+  static final int MAGIC = 0x52544344;
+  static final int FORMAT_VERSION = 1;
+  static final int FLAG_COMPRESSED = 1;
+  private static final byte TYPE_NUMERIC = 0;
+  private static final byte TYPE_NOMINAL = 1;
+
+  private final Instances header;
+  private final int numRows;
+  private final DoubleBuffer[] columns;
+
+  private ColumnarDataset(Instances header, int numRows, DoubleBuffer[] columns) {
+    this.header = header;
+    this.numRows = numRows;
+    this.columns = columns;
+  }
+
+  /**
+   * Memory-maps the file and reads its header.
+   *
+   * @param file
+   *
+   * @return ColumnarDataset
+   *
+   * @throws IOException
+   */
+  public static ColumnarDataset open(Path file) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buffer.getInt() != MAGIC) {
+      throw new IOException(file + " is not a columnar data set.");
+    }
+    int version = buffer.getInt();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported format version " + version + " of " + file + ".");
+    }
+    boolean compressed = (buffer.getInt() & FLAG_COMPRESSED) != 0;
+    int numRows = buffer.getInt();
+    int classIndex = buffer.getInt();
+    String relationName = readString(buffer);
+    int numAttributes = buffer.getInt();
+    ArrayList<Attribute> attributeList = new ArrayList<Attribute>(numAttributes);
+    for (int i = 0; i < numAttributes; i++) {
+      String name = readString(buffer);
+      if (buffer.get() == TYPE_NOMINAL) {
+        int numValues = buffer.getInt();
+        List<String> values = new ArrayList<String>(numValues);
+        for (int j = 0; j < numValues; j++) {
+          values.add(readString(buffer));
+        }
+        attributeList.add(new Attribute(name, values));
+      }
+      else {
+        attributeList.add(new Attribute(name));
+      }
+    }
+    Instances header = new Instances(relationName, attributeList, 0);
+    header.setClassIndex(classIndex);
+    buffer.position(align(buffer.position()));
+
+    DoubleBuffer[] columns = new DoubleBuffer[numAttributes];
+    long columnBytes = (long) numRows * Double.BYTES;
+    for (int i = 0; i < numAttributes; i++) {
+      if (compressed) {
+        int length = buffer.getInt();
+        ByteBuffer deflated = buffer.slice();
+        deflated.limit(length);
+        columns[i] = inflate(deflated, columnBytes);
+        buffer.position(buffer.position() + length);
+      }
+      else {
+        ByteBuffer column = buffer.slice();
+        column.limit((int) columnBytes);
+        columns[i] = column.asDoubleBuffer();
+        buffer.position(buffer.position() + (int) columnBytes);
+      }
+    }
+    return new ColumnarDataset(header, numRows, columns);
+  }
+
+  /**
+   * Inflates a compressed column into a direct buffer.
+   *
+   * @param deflated
+   * @param columnBytes
+   *
+   * @return column values
+   *
+   * @throws IOException
+   */
+  private static DoubleBuffer inflate(ByteBuffer deflated, long columnBytes) throws IOException {
+    byte[] input = new byte[deflated.remaining()];
+    deflated.get(input);
+    ByteBuffer column = ByteBuffer.allocateDirect((int) columnBytes);
+    Inflater inflater = new Inflater();
+    byte[] output = new byte[64 * 1024];
+    try {
+      inflater.setInput(input);
+      while (!inflater.finished()) {
+        int length = inflater.inflate(output);
+        if (length == 0 && inflater.needsInput()) {
+          throw new IOException("Compressed column is truncated.");
+        }
+        column.put(output, 0, length);
+      }
+    }
+    catch (DataFormatException e) {
+      throw new IOException(e);
+    }
+    finally {
+      inflater.end();
+    }
+    column.flip();
+    return column.asDoubleBuffer();
+  }
+
+  /**
+   * Writes the data set in the columnar format. The file is written to a temporary file first and then moved, so an
+   * existing file is replaced atomically.
+   *
+   * @param dataset
+   * @param file
+   * @param compress
+   *
+   * @throws IOException
+   */
+  public static void write(Instances dataset, Path file, boolean compress) throws IOException {
+    ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(headerBytes);
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    out.writeInt(compress ? FLAG_COMPRESSED : 0);
+    out.writeInt(dataset.numInstances());
+    out.writeInt(dataset.classIndex());
+    writeString(out, dataset.relationName());
+    out.writeInt(dataset.numAttributes());
+    for (int i = 0; i < dataset.numAttributes(); i++) {
+      Attribute attribute = dataset.attribute(i);
+      writeString(out, attribute.name());
+      if (attribute.isNominal()) {
+        out.writeByte(TYPE_NOMINAL);
+        out.writeInt(attribute.numValues());
+        for (int j = 0; j < attribute.numValues(); j++) {
+          writeString(out, attribute.value(j));
+        }
+      }
+      else if (attribute.isNumeric()) {
+        out.writeByte(TYPE_NUMERIC);
+      }
+      else {
+        throw new IllegalArgumentException("Attribute " + attribute.name() + " is neither numeric nor nominal.");
+      }
+    }
+    while (headerBytes.size() % Double.BYTES != 0) {
+      out.writeByte(0);
+    }
+    out.flush();
+
+    Path directory = file.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+    Path temporaryFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+        writeFully(channel, ByteBuffer.wrap(headerBytes.toByteArray()));
+        for (int i = 0; i < dataset.numAttributes(); i++) {
+          ByteBuffer column = ByteBuffer.allocate(dataset.numInstances() * Double.BYTES);
+          column.asDoubleBuffer().put(dataset.attributeToDoubleArray(i));
+          if (compress) {
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try (DeflaterOutputStream deflaterStream = new DeflaterOutputStream(deflated, deflater)) {
+              deflaterStream.write(column.array());
+            }
+            finally {
+              deflater.end();
+            }
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            length.putInt(0, deflated.size());
+            writeFully(channel, length);
+            writeFully(channel, ByteBuffer.wrap(deflated.toByteArray()));
+          }
+          else {
+            writeFully(channel, column);
+          }
+        }
+        channel.force(false);
+      }
+      Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally {
+      Files.deleteIfExists(temporaryFile);
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String string) throws IOException {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int align(int position) {
+    return (position + Double.BYTES - 1) / Double.BYTES * Double.BYTES;
+  }
+
+  /**
+   * Get the attribute structure (data set without instances).
+   *
+   * @return header
+   */
+  public Instances getHeader() {
+    return new Instances(header, 0);
+  }
+
+  public int numRows() {
+    return numRows;
+  }
+
+  public int numAttributes() {
+    return columns.length;
+  }
+
+  /**
+   * Returns a read-only view of the values of the attribute. The view has its own position, so it can be used by one
+   * thread without affecting others.
+   *
+   * @param attribute
+   *
+   * @return column values
+   */
+  public DoubleBuffer getColumn(int attribute) {
+    return columns[attribute].asReadOnlyBuffer();
+  }
+
+  /**
+   * Returns the value of the attribute in the given row.
+   *
+   * @param row
+   * @param attribute
+   *
+   * @return value (NaN if missing)
+   */
+  public double value(int row, int attribute) {
+    return columns[attribute].get(row);
+  }
+
+  /**
+   * Creates Weka instance of the given row, which belongs to a data set with the attribute structure of this one.
+   *
+   * @param row
+   *
+   * @return Instance
+   */
+  public Instance instance(int row) {
+    double[] values = new double[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      values[i] = columns[i].get(row);
+    }
+    return new DenseInstance(1.0, values);
+  }
+
+  /**
+   * Creates Weka data set with all rows.
+   *
+   * @return data set in Weka's Instances format
+   */
+  public Instances toInstances() {
+    return toInstances(0, numRows);
+  }
+
+  /**
+   * Creates Weka data set with the rows [from, to). Only these rows are read from the file.
+   *
+   * @param from
+   * @param to
+   *
+   * @return data set in Weka's Instances format
+   */
+  public Instances toInstances(int from, int to) {
+    Instances dataset = new Instances(header, to - from);
+    for (int row = from; row < to; row++) {
+      dataset.add(instance(row));
+    }
+    return dataset;
+  }
+
+  /**
+   * Converts the csv and arff files given as first argument (file or directory) to columnar files in the directory
+   * given as second argument.
+   *
+   * @param args
+   */
+  public static void main(String[] args) {
+    if (args.length == 0) {
+      System.out.println("Usage: ColumnarDataset input [outputDirectory] [-compress]");
+      return;
+    }
+    File input = new File(args[0]);
+    Path outputDirectory = Paths.get(args.length > 1 && !args[1].equals("-compress") ? args[1] : "./data/columnar");
+    boolean compress = args[args.length - 1].equals("-compress");
+    File[] files = input.isDirectory() ? input.listFiles() : new File[] {input};
+    if (files == null) {
+      System.out.println("Can not read " + input);
+      return;
+    }
+    for (File file : files) {
+      String name = file.getName();
+      if (!name.endsWith(".csv") && !name.endsWith(".arff")) {
+        continue;
+      }
+      Instances dataset = DatasetLoader.load(file.getPath());
+      if (dataset == null) {
+        continue;
+      }
+      Path output = outputDirectory.resolve(name.substring(0, name.lastIndexOf('.')) + FILE_EXTENSION);
+      try {
+        long startTime = System.nanoTime();
+        write(dataset, output, compress);
+        long stopTime = System.nanoTime();
+        System.out.println(name + " -> " + output + " (" + dataset.numInstances() + " rows, "
+            + (stopTime - startTime) / 1000000 + " ms)");
+      }
+      catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+}
@@ -0,0 +1,325 @@
+package prediction_tool;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.functions.LinearRegression;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * CostModel predicts the build time and the inference latency of a single prediction for every prediction technique as
+ * a function of the data set characteristics. It is trained from the evaluation csv files written by
+ * StepwiseEvaluation (eval_[seed]_total.csv): for every technique, one least-squares linear regression on the
+ * logarithmized costs (columns Time and LatencyMean, in microseconds) per cost. The features are the logarithmized
+ * size and runtime range, the number of input parameters, the coefficient of variance, the highest and lowest
+ * correlation and R^2 of the linear regression.
+ *
+ * The predicted costs refer to the machine the evaluation ran on.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class CostModel {
+
+  static final String EVALUATION_DIRECTORY = "./evaluation";
+  static final String EVALUATION_FILE_PREFIX = "eval_";
+  static final String BUILD_TIME_COLUMN = "Time";
+  static final String LATENCY_COLUMN = "LatencyMean";
+  static final String[] FEATURE_COLUMNS =
+      {"Size", "NumParam", "RuntimeRange", "RuntimeCV", "HighestCorrelation", "LowestCorrelation", "R2LinReg"};
+  static final String MODEL_OPTIONS = "-S 1 -R 1.0E-8";
+
+  private static volatile CostModel instance;
+
+  private final Instances header;
+  private final Map<String, Classifier> buildTimeModels;
+  private final Map<String, Classifier> latencyModels;
+
+  private CostModel(Instances header, Map<String, Classifier> buildTimeModels,
+      Map<String, Classifier> latencyModels) {
+    this.header = header;
+    this.buildTimeModels = buildTimeModels;
+    this.latencyModels = latencyModels;
+  }
+
+  /**
+   * Returns the process-wide CostModel. On first call, it is trained from the evaluation csv files in ./evaluation.
+   *
+   * @return CostModel (without models if there are no evaluation files)
+   */
+  public static CostModel getInstance() {
+    CostModel result = instance;
+    if (result == null) {
+      synchronized (CostModel.class) {
+        result = instance;
+        if (result == null) {
+          result = trainFromDirectory(new File(EVALUATION_DIRECTORY));
+          instance = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Trains the cost models from all evaluation csv files in the directory.
+   *
+   * @param directory
+   *
+   * @return CostModel
+   */
+  public static CostModel trainFromDirectory(File directory) {
+    List<Instances> evaluationDatasets = new ArrayList<Instances>();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        if (name.startsWith(EVALUATION_FILE_PREFIX) && name.endsWith(".csv")) {
+          Instances evaluationDataset = DatasetLoader.load(file.getPath());
+          if (evaluationDataset != null) {
+            evaluationDatasets.add(evaluationDataset);
+          }
+        }
+      }
+    }
+    return train(evaluationDatasets);
+  }
+
+  /**
+   * Trains the cost models from the evaluation data sets. Rows with missing costs are skipped; evaluation data sets
+   * without latency column only contribute to the build time models.
+   *
+   * @param evaluationDatasets
+   *
+   * @return CostModel
+   */
+  public static CostModel train(List<Instances> evaluationDatasets) {
+    Instances header = createHeader();
+    Map<String, Instances> buildTimeSets = new HashMap<String, Instances>();
+    Map<String, Instances> latencySets = new HashMap<String, Instances>();
+    for (Instances evaluationDataset : evaluationDatasets) {
+      Attribute predictor = evaluationDataset.attribute("Predictor");
+      Attribute buildTime = evaluationDataset.attribute(BUILD_TIME_COLUMN);
+      Attribute latency = evaluationDataset.attribute(LATENCY_COLUMN);
+      Attribute[] features = new Attribute[FEATURE_COLUMNS.length];
+      for (int i = 0; i < features.length; i++) {
+        features[i] = evaluationDataset.attribute(FEATURE_COLUMNS[i]);
+      }
+      if (predictor == null || buildTime == null || hasMissingAttribute(features)) {
+        continue;
+      }
+      for (Instance row : evaluationDataset) {
+        double[] metaFeatures = new double[features.length];
+        for (int i = 0; i < features.length; i++) {
+          metaFeatures[i] = row.value(features[i]);
+        }
+        String predictorName = row.stringValue(predictor.index());
+        addCost(buildTimeSets, header, predictorName, metaFeatures, row.value(buildTime));
+        if (latency != null) {
+          addCost(latencySets, header, predictorName, metaFeatures, row.value(latency));
+        }
+      }
+    }
+    return new CostModel(header, buildModels(buildTimeSets), buildModels(latencySets));
+  }
+
+  private static boolean hasMissingAttribute(Attribute[] attributes) {
+    for (Attribute attribute : attributes) {
+      if (attribute == null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Adds the logarithmized cost to the training set of the predictor.
+   *
+   * @param trainingSets
+   * @param header
+   * @param predictorName
+   * @param metaFeatures
+   * @param cost
+   */
+  private static void addCost(Map<String, Instances> trainingSets, Instances header, String predictorName,
+      double[] metaFeatures, double cost) {
+    if (Utils.isMissingValue(cost) || cost < 0) {
+      return;
+    }
+    Instances trainingSet = trainingSets.get(predictorName);
+    if (trainingSet == null) {
+      trainingSet = new Instances(header, 0);
+      trainingSets.put(predictorName, trainingSet);
+    }
+    double[] values = makeFeatures(metaFeatures);
+    values[values.length - 1] = Math.log10(cost + 1);
+    trainingSet.add(new DenseInstance(1.0, values));
+  }
+
+  /**
+   * Fits one linear regression per predictor.
+   *
+   * @param trainingSets
+   *
+   * @return models by predictor name
+   */
+  private static Map<String, Classifier> buildModels(Map<String, Instances> trainingSets) {
+    Map<String, Classifier> models = new HashMap<String, Classifier>();
+    for (Map.Entry<String, Instances> entry : trainingSets.entrySet()) {
+      if (entry.getValue().size() < FEATURE_COLUMNS.length + 1) {
+        continue;
+      }
+      try {
+        LinearRegression model = new LinearRegression();
+        model.setOptions(Utils.splitOptions(MODEL_OPTIONS));
+        model.buildClassifier(entry.getValue());
+        models.put(entry.getKey(), model);
+      }
+      catch (Exception e) {
+        e.printStackTrace();
+      }
+    }
+    return models;
+  }
+
+  private static Instances createHeader() {
+    ArrayList<Attribute> attributeList = new ArrayList<Attribute>();
+    attributeList.add(new Attribute("LogSize"));
+    attributeList.add(new Attribute("NumParam"));
+    attributeList.add(new Attribute("LogRuntimeRange"));
+    attributeList.add(new Attribute("RuntimeCV"));
+    attributeList.add(new Attribute("HighestCorrelation"));
+    attributeList.add(new Attribute("LowestCorrelation"));
+    attributeList.add(new Attribute("R2LinReg"));
+    attributeList.add(new Attribute("LogCost"));
+    Instances header = new Instances("cost", attributeList, 0);
+    header.setClassIndex(attributeList.size() - 1);
+    return header;
+  }
+
+  /**
+   * Transforms the meta-features (in the order of CharacteristicsAccumulator.getMetaFeatures()) to the features of the
+   * cost models; the last value is left for the cost.
+   *
+   * @param metaFeatures
+   *
+   * @return feature values
+   */
+  private static double[] makeFeatures(double[] metaFeatures) {
+    double[] values = new double[FEATURE_COLUMNS.length + 1];
+    values[0] = Math.log10(Math.max(1, metaFeatures[0]));
+    values[1] = metaFeatures[1];
+    values[2] = Math.log10(Math.max(0, metaFeatures[2]) + 1);
+    for (int i = 3; i < FEATURE_COLUMNS.length; i++) {
+      values[i] = metaFeatures[i];
+    }
+    return values;
+  }
+
+  /**
+   * Predicts the cost with the model.
+   *
+   * @param model
+   * @param metaFeatures
+   *
+   * @return cost in microseconds, NaN if there is no model
+   */
+  private double predict(Classifier model, double[] metaFeatures) {
+    if (model == null) {
+      return Double.NaN;
+    }
+    Instance instance = new DenseInstance(1.0, makeFeatures(metaFeatures));
+    instance.setDataset(header);
+    instance.setMissing(header.classIndex());
+    try {
+      return Math.max(0, Math.pow(10, model.classifyInstance(instance)) - 1);
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+    }
+    return Double.NaN;
+  }
+
+  /**
+   * Predicts the time for building the predictor on a data set with the given characteristics.
+   *
+   * @param predictorName
+   * @param metaFeatures
+   *
+   * @return build time in microseconds, NaN if there is no evaluation data for the predictor
+   */
+  public double predictBuildTime(String predictorName, double[] metaFeatures) {
+    return predict(buildTimeModels.get(predictorName), metaFeatures);
+  }
+
+  /**
+   * Predicts the mean time of a single prediction of the predictor built on a data set with the given
+   * characteristics.
+   *
+   * @param predictorName
+   * @param metaFeatures
+   *
+   * @return latency in microseconds, NaN if there is no evaluation data for the predictor
+   */
+  public double predictLatency(String predictorName, double[] metaFeatures) {
+    return predict(latencyModels.get(predictorName), metaFeatures);
+  }
+
+  /**
+   * Returns true if the predicted build time and latency of the predictor are within the budgets (-1 for no budget).
+   * A predictor without cost data does not fit a budget.
+   *
+   * @param predictorName
+   * @param metaFeatures
+   * @param maxBuildTime in microseconds
+   * @param maxLatency in microseconds
+   *
+   * @return true if the predictor fits the budgets
+   */
+  public boolean fits(String predictorName, double[] metaFeatures, double maxBuildTime, double maxLatency) {
+    // NaN (no cost data) fails both comparisons.
+    return (maxBuildTime < 0 || predictBuildTime(predictorName, metaFeatures) <= maxBuildTime)
+        && (maxLatency < 0 || predictLatency(predictorName, metaFeatures) <= maxLatency);
+  }
+
+  /**
+   * Returns the first of the ranked predictors whose predicted build time and latency are within the budgets (-1 for
+   * no budget). Predictors without cost data do not fit a budget. If no predictor fits, the one with the lowest
+   * predicted build time (or, without a build time budget, latency) is returned.
+   *
+   * @param rankedPredictorNames most accurate first
+   * @param metaFeatures
+   * @param maxBuildTime in microseconds
+   * @param maxLatency in microseconds
+   *
+   * @return predictor name, or null if there are no predictors
+   */
+  public String selectPredictor(List<String> rankedPredictorNames, double[] metaFeatures, double maxBuildTime,
+      double maxLatency) {
+    String cheapestName = null;
+    double cheapestCost = Double.POSITIVE_INFINITY;
+    for (String predictorName : rankedPredictorNames) {
+      if (fits(predictorName, metaFeatures, maxBuildTime, maxLatency)) {
+        return predictorName;
+      }
+      double cost = maxBuildTime < 0 ? predictLatency(predictorName, metaFeatures)
+          : predictBuildTime(predictorName, metaFeatures);
+      if (cost < cheapestCost) {
+        cheapestCost = cost;
+        cheapestName = predictorName;
+      }
+    }
+    if (cheapestName == null && !rankedPredictorNames.isEmpty()) {
+      cheapestName = rankedPredictorNames.get(0);
+    }
+    return cheapestName;
+  }
+}
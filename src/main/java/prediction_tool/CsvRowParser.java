@@ -0,0 +1,344 @@
+package prediction_tool;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CsvRowParser parses comma-separated, numeric monitoring data records directly into a primitive row array. Records can
+ * be given as CharSequence, byte array or ByteBuffer (ASCII); no objects are created while parsing ordinary decimal
+ * numbers. Like String.split(",") with Double.parseDouble, trailing commas are ignored and every value format accepted
+ * by Double.parseDouble (e.g., "NaN" or "Infinity") is accepted. Malformed records are not reported on the console but
+ * counted.
+ *
+ * A parser can be shared by multiple threads.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class CsvRowParser {
+
+  // Powers of ten that are exactly representable as double.
+  private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+      1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+  private static final int MAX_MANTISSA_DIGITS = 18;
+
+  private final LongAdder parsedRecords = new LongAdder();
+  private final LongAdder nonNumericRecords = new LongAdder();
+  private final LongAdder wrongLengthRecords = new LongAdder();
+  private final ThreadLocal<AsciiSequence> asciiSequences = new ThreadLocal<AsciiSequence>() {
+    @Override
+    protected AsciiSequence initialValue() {
+      return new AsciiSequence();
+    }
+  };
+
+  /**
+   * Parses the record into the first numValues entries of row.
+   *
+   * @param record
+   * @param row
+   * @param numValues
+   *
+   * @return true if the record consists of exactly numValues numeric values
+   */
+  public boolean parse(CharSequence record, double[] row, int numValues) {
+    return parse(record, 0, record.length(), row, numValues);
+  }
+
+  /**
+   * Parses the ASCII record bytes[offset, offset + length) into the first numValues entries of row.
+   *
+   * @param bytes
+   * @param offset
+   * @param length
+   * @param row
+   * @param numValues
+   *
+   * @return true if the record consists of exactly numValues numeric values
+   */
+  public boolean parse(byte[] bytes, int offset, int length, double[] row, int numValues) {
+    AsciiSequence sequence = asciiSequences.get();
+    sequence.set(bytes, null, offset, length);
+    try {
+      return parse(sequence, 0, length, row, numValues);
+    }
+    finally {
+      sequence.clear();
+    }
+  }
+
+  /**
+   * Parses the ASCII record at the absolute positions [offset, offset + length) of the buffer into the first numValues
+   * entries of row. Does not change the position of the buffer.
+   *
+   * @param buffer
+   * @param offset
+   * @param length
+   * @param row
+   * @param numValues
+   *
+   * @return true if the record consists of exactly numValues numeric values
+   */
+  public boolean parse(ByteBuffer buffer, int offset, int length, double[] row, int numValues) {
+    AsciiSequence sequence = asciiSequences.get();
+    sequence.set(null, buffer, offset, length);
+    try {
+      return parse(sequence, 0, length, row, numValues);
+    }
+    finally {
+      sequence.clear();
+    }
+  }
+
+  /**
+   * Parses the record characters [start, end) into row.
+   *
+   * @param record
+   * @param start
+   * @param end
+   * @param row
+   * @param numValues
+   *
+   * @return true if the record consists of exactly numValues numeric values
+   */
+  private boolean parse(CharSequence record, int start, int end, double[] row, int numValues) {
+    // Trailing empty fields are dropped, as by String.split(",").
+    while (end > start && record.charAt(end - 1) == ',') {
+      end--;
+    }
+    int numParsed = 0;
+    int fieldStart = start;
+    while (fieldStart <= end) {
+      int fieldEnd = fieldStart;
+      while (fieldEnd < end && record.charAt(fieldEnd) != ',') {
+        fieldEnd++;
+      }
+      if (numParsed == numValues) {
+        wrongLengthRecords.increment();
+        return false;
+      }
+      double value = parseValue(record, fieldStart, fieldEnd);
+      if (Double.isNaN(value) && !isNumeric(record, fieldStart, fieldEnd)) {
+        nonNumericRecords.increment();
+        return false;
+      }
+      row[numParsed++] = value;
+      fieldStart = fieldEnd + 1;
+    }
+    if (numParsed != numValues) {
+      wrongLengthRecords.increment();
+      return false;
+    }
+    parsedRecords.increment();
+    return true;
+  }
+
+  /**
+   * Parses the decimal number in record[start, end), ignoring surrounding whitespace. Numbers that can not be parsed
+   * exactly by the fast path (e.g., with more than 18 significant digits) are parsed by Double.parseDouble.
+   *
+   * @param record
+   * @param start
+   * @param end
+   *
+   * @return value, or NaN if the field is not numeric or "NaN"
+   */
+  static double parseValue(CharSequence record, int start, int end) {
+    while (start < end && record.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && record.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    if (start == end) {
+      return Double.NaN;
+    }
+    int index = start;
+    boolean negative = false;
+    char c = record.charAt(index);
+    if (c == '-' || c == '+') {
+      negative = c == '-';
+      index++;
+    }
+    long mantissa = 0;
+    int numDigits = 0;
+    int exponent = 0;
+    boolean hasDigits = false;
+    while (index < end && (c = record.charAt(index)) >= '0' && c <= '9') {
+      hasDigits = true;
+      if (numDigits < MAX_MANTISSA_DIGITS) {
+        mantissa = mantissa * 10 + (c - '0');
+        if (mantissa != 0) {
+          numDigits++;
+        }
+      }
+      else {
+        exponent++;
+      }
+      index++;
+    }
+    if (index < end && record.charAt(index) == '.') {
+      index++;
+      while (index < end && (c = record.charAt(index)) >= '0' && c <= '9') {
+        hasDigits = true;
+        if (numDigits < MAX_MANTISSA_DIGITS) {
+          mantissa = mantissa * 10 + (c - '0');
+          if (mantissa != 0) {
+            numDigits++;
+          }
+          exponent--;
+        }
+        index++;
+      }
+    }
+    if (hasDigits && index < end && (record.charAt(index) == 'e' || record.charAt(index) == 'E')) {
+      index++;
+      boolean negativeExponent = false;
+      if (index < end && (record.charAt(index) == '-' || record.charAt(index) == '+')) {
+        negativeExponent = record.charAt(index) == '-';
+        index++;
+      }
+      int explicitExponent = 0;
+      boolean hasExponentDigits = false;
+      while (index < end && (c = record.charAt(index)) >= '0' && c <= '9') {
+        hasExponentDigits = true;
+        if (explicitExponent < 100000) {
+          explicitExponent = explicitExponent * 10 + (c - '0');
+        }
+        index++;
+      }
+      if (!hasExponentDigits) {
+        return Double.NaN;
+      }
+      exponent += negativeExponent ? -explicitExponent : explicitExponent;
+    }
+    if (!hasDigits || index != end || numDigits >= MAX_MANTISSA_DIGITS || mantissa >= MAX_EXACT_MANTISSA
+        || exponent < -22 || exponent > 22) {
+      return parseSlow(record, start, end);
+    }
+    double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+    return negative ? -value : value;
+  }
+
+  /**
+   * Parses the field with Double.parseDouble. Creates a String, so it is only used for uncommon number formats.
+   *
+   * @param record
+   * @param start
+   * @param end
+   *
+   * @return value, or NaN if the field is not numeric
+   */
+  private static double parseSlow(CharSequence record, int start, int end) {
+    try {
+      return Double.parseDouble(record.subSequence(start, end).toString());
+    }
+    catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  /**
+   * Returns true if Double.parseDouble accepts the field. Only used for fields parsed as NaN, to tell a "NaN" value
+   * from a non-numeric one.
+   *
+   * @param record
+   * @param start
+   * @param end
+   *
+   * @return true if the field is numeric
+   */
+  private static boolean isNumeric(CharSequence record, int start, int end) {
+    try {
+      Double.parseDouble(record.subSequence(start, end).toString());
+      return true;
+    }
+    catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Get number of successfully parsed records.
+   *
+   * @return number of parsed records
+   */
+  public long getParsedRecords() {
+    return parsedRecords.sum();
+  }
+
+  /**
+   * Get number of records rejected because of a non-numeric value.
+   *
+   * @return number of non-numeric records
+   */
+  public long getNonNumericRecords() {
+    return nonNumericRecords.sum();
+  }
+
+  /**
+   * Get number of records rejected because the number of values does not match the data set structure.
+   *
+   * @return number of records with wrong length
+   */
+  public long getWrongLengthRecords() {
+    return wrongLengthRecords.sum();
+  }
+
+  /**
+   * Get number of all rejected records.
+   *
+   * @return number of malformed records
+   */
+  public long getMalformedRecords() {
+    return nonNumericRecords.sum() + wrongLengthRecords.sum();
+  }
+
+  /**
+   * Reusable CharSequence view on ASCII bytes in a byte array or ByteBuffer.
+   */
+  private static class AsciiSequence implements CharSequence {
+
+    private byte[] bytes;
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    void set(byte[] bytes, ByteBuffer buffer, int offset, int length) {
+      this.bytes = bytes;
+      this.buffer = buffer;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    void clear() {
+      this.bytes = null;
+      this.buffer = null;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return (char) ((bytes != null ? bytes[offset + index] : buffer.get(offset + index)) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      StringBuilder builder = new StringBuilder(end - start);
+      for (int i = start; i < end; i++) {
+        builder.append(charAt(i));
+      }
+      return builder;
+    }
+
+    @Override
+    public String toString() {
+      return subSequence(0, length).toString();
+    }
+  }
+}
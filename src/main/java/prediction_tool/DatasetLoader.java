@@ -0,0 +1,232 @@
+package prediction_tool;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import weka.core.Instances;
+import weka.core.converters.AbstractFileLoader;
+import weka.core.converters.ArffLoader;
+import weka.core.converters.CSVLoader;
+
+/**
+ * DatasetLoader loads csv, arff and columnar (see ColumnarDataset) files and keeps the loaded data sets in a
+ * process-wide cache, so that every file is parsed once, no matter how many seeds or evaluators use it. A cached data
+ * set is reused as long as modification time and length of its file are unchanged.
+ *
+ * The cache holds at most MAX_CACHED_SETS data sets (least recently used are evicted first; the limit can be set with
+ * the system property prediction_tool.datasetCacheSize) and only soft references to them, so the garbage collector
+ * can reclaim them when memory gets low.
+ *
+ * Callers never get the cached data set itself, but a copy of it. The copy has its own list of instances, which can be
+ * shuffled and sliced freely; the instances share their value arrays with the cached data set until a value is changed
+ * (Weka's DenseInstance copies the array on the first write). Alternatively, callers get a read-only DatasetView of the
+ * cached data set, which costs no copy at all.
+ *
+ * Columnar files are cached as memory-mapped ColumnarDataset, not as Weka Instances: a view of a columnar file reads
+ * the mapped columns and creates instances only for the rows that are requested, so the data set is not held on the
+ * heap. load(String) creates a full Weka data set from the mapped columns on every call.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class DatasetLoader {
+
+  static final int MAX_CACHED_SETS = Integer.getInteger("prediction_tool.datasetCacheSize", 16);
+
+  private static final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      return size() > MAX_CACHED_SETS;
+    }
+  };
+
+  /**
+   * Loads data set as Weka Instances object from given filepath. Must be csv, arff or columnar file. The last attribute
+   * of csv and arff files is the target attribute.
+   *
+   * @param filepath
+   *
+   * @return copy of the data set in Weka's Instances format, or null if the file can not be loaded
+   */
+  public static Instances load(String filepath) {
+    Object dataset = getCached(filepath);
+    if (dataset instanceof ColumnarDataset) {
+      return ((ColumnarDataset) dataset).toInstances();
+    }
+    return dataset == null ? null : new Instances((Instances) dataset);
+  }
+
+  /**
+   * Loads data set from given filepath and shuffles it with the given seed. The instance order is the same as that of
+   * a freshly loaded data set randomized with new Random(seed).
+   *
+   * @param filepath
+   * @param seed
+   *
+   * @return shuffled copy of the data set, or null if the file can not be loaded
+   */
+  public static Instances loadShuffled(String filepath, long seed) {
+    Instances dataset = load(filepath);
+    if (dataset != null) {
+      dataset.randomize(new Random(seed));
+    }
+    return dataset;
+  }
+
+  /**
+   * Returns a view of the cached data set of the given filepath, which can be shuffled and split without copying
+   * instances (see DatasetView).
+   *
+   * @param filepath
+   *
+   * @return view of all rows of the data set, or null if the file can not be loaded
+   */
+  public static DatasetView loadView(String filepath) {
+    Object dataset = getCached(filepath);
+    if (dataset instanceof ColumnarDataset) {
+      return DatasetView.of((ColumnarDataset) dataset);
+    }
+    return dataset == null ? null : DatasetView.of((Instances) dataset);
+  }
+
+  /**
+   * Removes all data sets from the cache.
+   */
+  public static void clearCache() {
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+  /**
+   * Returns the cached data set of the file, parsing the file if it is not cached or has changed. Concurrent callers
+   * for the same file wait for one parse.
+   *
+   * @param filepath
+   *
+   * @return cached Instances (must not be modified) or ColumnarDataset, or null if the file can not be loaded
+   */
+  private static Object getCached(String filepath) {
+    File file = new File(filepath);
+    String key = file.getAbsolutePath();
+    Entry entry;
+    synchronized (cache) {
+      entry = cache.get(key);
+      if (entry == null) {
+        entry = new Entry();
+        cache.put(key, entry);
+      }
+    }
+    Object dataset = entry.get(file);
+    if (dataset == null) {
+      synchronized (cache) {
+        if (cache.get(key) == entry) {
+          cache.remove(key);
+        }
+      }
+    }
+    else {
+      removeCollectedEntries();
+    }
+    return dataset;
+  }
+
+  /**
+   * Removes entries whose data sets were reclaimed by the garbage collector.
+   */
+  private static void removeCollectedEntries() {
+    synchronized (cache) {
+      Iterator<Entry> iterator = cache.values().iterator();
+      while (iterator.hasNext()) {
+        if (iterator.next().isCollected()) {
+          iterator.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Parses the file with the Weka loader for its file type, or maps it as ColumnarDataset.
+   *
+   * @param file
+   *
+   * @return data set in Weka's Instances format or ColumnarDataset, or null if the file can not be loaded
+   */
+  private static Object parse(File file) {
+    String filepath = file.getPath();
+    AbstractFileLoader loader;
+    if (filepath.endsWith(ColumnarDataset.FILE_EXTENSION)) {
+      try {
+        return ColumnarDataset.open(file.toPath());
+      }
+      catch (IOException e) {
+        e.printStackTrace();
+        return null;
+      }
+    }
+    else if (filepath.endsWith(".csv")) {
+      loader = new CSVLoader();
+    }
+    else if (filepath.endsWith(".arff")) {
+      loader = new ArffLoader();
+    }
+    else {
+      System.out.println("Wrong file type :(");
+      return null;
+    }
+    try {
+      Instances dataset;
+      loader.setFile(file);
+      dataset = loader.getDataSet();
+      dataset.setClassIndex(dataset.numAttributes() - 1);
+      return dataset;
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+    return null;
+  }
+
+  /**
+   * Cached data set of one file together with the file version it was parsed from.
+   */
+  private static class Entry {
+
+    private long lastModified = -1;
+    private long length = -1;
+    // Read without the entry's lock by removeCollectedEntries(), which must not wait for a parse.
+    private volatile SoftReference<Object> dataset = new SoftReference<Object>(null);
+    private volatile boolean loaded = false;
+
+    /**
+     * Returns the data set, parsing the file if it has not been parsed yet, has changed or the data set was reclaimed.
+     *
+     * @param file
+     *
+     * @return data set, or null if the file can not be loaded
+     */
+    synchronized Object get(File file) {
+      long currentLastModified = file.lastModified();
+      long currentLength = file.length();
+      Object cached = dataset.get();
+      if (cached != null && currentLastModified == lastModified && currentLength == length) {
+        return cached;
+      }
+      cached = parse(file);
+      lastModified = currentLastModified;
+      length = currentLength;
+      dataset = new SoftReference<Object>(cached);
+      loaded = cached != null;
+      return cached;
+    }
+
+    boolean isCollected() {
+      return loaded && dataset.get() == null;
+    }
+  }
+}
@@ -0,0 +1,178 @@
+package prediction_tool;
+
+import java.util.Random;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * DatasetView is a read-only view of (a subset of) the rows of a base data set in a given order. A view holds an index
+ * array into the base data set instead of copies of its instances, so shuffling costs one int array per view and
+ * training and test subsets of a shuffled view cost nothing. The base data set must not be modified while views of it
+ * are used; views never modify it.
+ *
+ * Weka Instances are only created where a Weka method needs them (toInstances()), e.g. for training a predictor. The
+ * instances of such a data set share their value arrays with the base data set until a value is changed.
+ *
+ * The base data set is either a Weka data set or a memory-mapped ColumnarDataset. A view of a ColumnarDataset reads the
+ * values from the mapped columns and creates a Weka instance only when a row is requested, so only the rows of a
+ * training set (toInstances()) or the row being classified are on the heap.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class DatasetView {
+
+  // Exactly one of base and columns is set; header is the attribute structure of either.
+  private final Instances base;
+  private final ColumnarDataset columns;
+  private final Instances header;
+  // Row i of the view is the instance indices[from + i] of the base data set (or from + i if indices is null).
+  private final int[] indices;
+  private final int from;
+  private final int to;
+
+  private DatasetView(Instances base, ColumnarDataset columns, Instances header, int[] indices, int from, int to) {
+    this.base = base;
+    this.columns = columns;
+    this.header = header;
+    this.indices = indices;
+    this.from = from;
+    this.to = to;
+  }
+
+  /**
+   * Creates view of all rows of the data set in their original order.
+   *
+   * @param base
+   *
+   * @return DatasetView
+   */
+  public static DatasetView of(Instances base) {
+    return new DatasetView(base, null, base, null, 0, base.size());
+  }
+
+  /**
+   * Creates view of all rows of the memory-mapped data set in their original order.
+   *
+   * @param columns
+   *
+   * @return DatasetView
+   */
+  public static DatasetView of(ColumnarDataset columns) {
+    return new DatasetView(null, columns, columns.getHeader(), null, 0, columns.numRows());
+  }
+
+  /**
+   * Returns view of the rows of this view in random order. The order is the same as that of Weka's
+   * Instances.randomize(new Random(seed)) on a copy of this view.
+   *
+   * @param seed
+   *
+   * @return shuffled view
+   */
+  public DatasetView shuffle(long seed) {
+    int size = size();
+    int[] permutation = new int[size];
+    for (int i = 0; i < size; i++) {
+      permutation[i] = getIndex(i);
+    }
+    Random random = new Random(seed);
+    for (int j = size - 1; j > 0; j--) {
+      int k = random.nextInt(j + 1);
+      int swap = permutation[j];
+      permutation[j] = permutation[k];
+      permutation[k] = swap;
+    }
+    return new DatasetView(base, columns, header, permutation, 0, size);
+  }
+
+  /**
+   * Returns view of the rows [from, to) of this view, like new Instances(dataset, from, to - from).
+   *
+   * @param from
+   * @param to
+   *
+   * @return subset view
+   */
+  public DatasetView subset(int from, int to) {
+    if (from < 0 || from > to || to > size()) {
+      throw new IndexOutOfBoundsException("Subset [" + from + ", " + to + ") of view with " + size() + " rows.");
+    }
+    return new DatasetView(base, columns, header, indices, this.from + from, this.from + to);
+  }
+
+  public int size() {
+    return to - from;
+  }
+
+  private int getIndex(int row) {
+    return indices == null ? from + row : indices[from + row];
+  }
+
+  /**
+   * Returns the instance of the base data set in the given row of the view. The instance is shared and must not be
+   * modified. For a ColumnarDataset, a new instance of the row is created on every call.
+   *
+   * @param row
+   *
+   * @return Instance
+   */
+  public Instance instance(int row) {
+    if (base != null) {
+      return base.instance(getIndex(row));
+    }
+    Instance instance = columns.instance(getIndex(row));
+    instance.setDataset(header);
+    return instance;
+  }
+
+  /**
+   * Returns the value of the attribute in the given row of the view.
+   *
+   * @param row
+   * @param attribute
+   *
+   * @return value
+   */
+  public double value(int row, int attribute) {
+    return base != null ? base.instance(getIndex(row)).value(attribute) : columns.value(getIndex(row), attribute);
+  }
+
+  /**
+   * Returns the values of the attribute in the order of the view.
+   *
+   * @param attribute
+   *
+   * @return values
+   */
+  public double[] attributeToDoubleArray(int attribute) {
+    double[] values = new double[size()];
+    for (int row = 0; row < values.length; row++) {
+      values[row] = value(row, attribute);
+    }
+    return values;
+  }
+
+  /**
+   * Get the attribute structure (data set without instances).
+   *
+   * @return header
+   */
+  public Instances getHeader() {
+    return new Instances(header, 0);
+  }
+
+  /**
+   * Creates Weka data set with the rows of the view in their order.
+   *
+   * @return data set in Weka's Instances format
+   */
+  public Instances toInstances() {
+    Instances dataset = new Instances(header, size());
+    for (int row = 0; row < size(); row++) {
+      dataset.add(instance(row));
+    }
+    return dataset;
+  }
+}
@@ -0,0 +1,457 @@
+package prediction_tool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * EvaluationEngine runs the stepwise predictor evaluation of StepwiseEvaluation in parallel. Every (set, seed, step,
+ * predictor) combination is one task on a fork-join pool; every task trains a new predictor from the PredictorRegistry
+ * on its own copy of the training set, so tasks share no mutable state. The data sets are processed one after another,
+ * so that only one data set is held in memory, and the results are collected in the order of the sequential
+ * evaluation (seed, set, step, predictor), so the csv files do not depend on the parallelism.
+ *
+ * Every result is appended to a ResumableCsvWriter as soon as its task completes, so an interrupted evaluation can be
+ * restarted without repeating completed (set, seed, step, predictor) units. The checkpoints are only reused if the
+ * predictor options, the data set files (modification time and length) and the run configuration are unchanged, and
+ * they are deleted when the evaluation completes.
+ *
+ * The training times are measured while other tasks run on the remaining cores. Use a parallelism of 1 for training
+ * times that are comparable to a sequential run.
+ *
+ * In racing mode (see enableRacing), the seeds of a set are evaluated in rounds: first minSeeds seeds, then one seed
+ * per round. After every round, predictors that are significantly worse than the best predictor of a step and have
+ * rarely been the best one on a single seed are dropped for that step (see RacingElimination) and are not trained for
+ * the remaining seeds, so the evaluation files of later seeds have no rows for them. Seeds on which a dropped predictor
+ * would have been the best one get the runner-up as label in the bestPredictor data set.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class EvaluationEngine {
+
+  static final String SET_NAME = "total";
+
+  private final ForkJoinPool pool;
+  private final PredictorRegistry registry;
+  private int racingMinSeeds = -1;
+  private double racingSignificance;
+  private double racingMaxWinShare;
+
+  /**
+   * Creates engine that runs at most parallelism tasks at once.
+   *
+   * @param parallelism
+   */
+  public EvaluationEngine(int parallelism) {
+    this(parallelism, PredictorRegistry.getDefault());
+  }
+
+  /**
+   * Creates engine that runs at most parallelism tasks at once and evaluates the predictors of the given registry.
+   *
+   * @param parallelism
+   * @param registry
+   */
+  public EvaluationEngine(int parallelism, PredictorRegistry registry) {
+    this.pool = new ForkJoinPool(parallelism);
+    this.registry = registry;
+  }
+
+  /**
+   * Enables racing mode: after minSeeds seeds, predictors that are dominated at the significance level and have not
+   * been the best one on any seed are not evaluated for the remaining seeds of the (set, step) combination.
+   *
+   * @param minSeeds at least 2
+   * @param significance
+   */
+  public void enableRacing(int minSeeds, double significance) {
+    enableRacing(minSeeds, significance, RacingElimination.DEFAULT_MAX_WIN_SHARE);
+  }
+
+  /**
+   * Enables racing mode: after minSeeds seeds, predictors that are dominated at the significance level and have been
+   * the best one on at most maxWinShare of the seeds are not evaluated for the remaining seeds of the (set, step)
+   * combination.
+   *
+   * @param minSeeds at least 2
+   * @param significance
+   * @param maxWinShare
+   */
+  public void enableRacing(int minSeeds, double significance, double maxWinShare) {
+    if (minSeeds < 2 || significance <= 0 || significance >= 1 || maxWinShare < 0 || maxWinShare > 1) {
+      throw new IllegalArgumentException("Invalid racing configuration.");
+    }
+    this.racingMinSeeds = minSeeds;
+    this.racingSignificance = significance;
+    this.racingMaxWinShare = maxWinShare;
+  }
+
+  /**
+   * Disables racing mode; all predictors are evaluated for all seeds.
+   */
+  public void disableRacing() {
+    this.racingMinSeeds = -1;
+  }
+
+  /**
+   * Evaluates all predictors stepwise on the specified sets, once for every seed. The evaluation results of every seed
+   * are appended to the csv file eval_[seed]_total as soon as they are computed and are sorted in evaluation order at
+   * the end. Units that were completed by an interrupted previous run with the same inputs (see ResumableCsvWriter
+   * and getFingerprint) are not evaluated again. Returns the bestPredictor data set of all seeds (in seed order).
+   *
+   * @param setDescriptions
+   * @param seeds
+   *
+   * @return bestPredictor data set
+   *
+   * @throws IOException
+   */
+  public Instances evaluate(List<SetDescription> setDescriptions, int[] seeds) throws IOException {
+    List<String> predictorNames = registry.getNames();
+    Instances[] evaluationDatasets = new Instances[seeds.length];
+    Instances[] bestPredictorDatasets = new Instances[seeds.length];
+    ResumableCsvWriter[] writers = new ResumableCsvWriter[seeds.length];
+    String fingerprint = getFingerprint(setDescriptions, predictorNames, seeds);
+    boolean allCompleted = true;
+    try {
+      for (int i = 0; i < seeds.length; i++) {
+        evaluationDatasets[i] = StepwiseEvaluation.createEvaluationDataset(SET_NAME, setDescriptions, predictorNames);
+        bestPredictorDatasets[i] = StepwiseEvaluation.createBestPredictorDataset(SET_NAME, predictorNames);
+        writers[i] = new ResumableCsvWriter(getEvaluationFile(seeds[i]),
+            ResumableCsvWriter.toHeader(evaluationDatasets[i]), fingerprint);
+      }
+
+      int numSets = setDescriptions.size();
+      int indexSet = 0;
+      for (SetDescription setDescription : setDescriptions) {
+        indexSet++;
+        String setKey = getSetKey(setDescription);
+        boolean completed = true;
+        for (ResumableCsvWriter writer : writers) {
+          completed &= writer.isCompleted(setKey);
+        }
+        DatasetView dataset = null;
+        if (!completed) {
+          dataset = DatasetLoader.loadView(setDescription.getFilepath());
+          if (dataset == null) {
+            allCompleted = false;
+            continue;
+          }
+        }
+        RacingElimination elimination = racingMinSeeds > 0 && dataset != null
+            ? new RacingElimination(seeds.length, racingMinSeeds, racingSignificance, racingMaxWinShare) : null;
+        boolean failed = false;
+        int firstSeed = 0;
+        while (firstSeed < seeds.length) {
+          int endSeed = elimination == null ? seeds.length
+              : Math.min(seeds.length, firstSeed == 0 ? elimination.getMinSeeds() : firstSeed + 1);
+          List<List<StepEvaluation>> stepsPerSeed = new ArrayList<List<StepEvaluation>>();
+          for (int i = firstSeed; i < endSeed; i++) {
+            stepsPerSeed.add(submitSteps(setDescription, dataset, seeds[i], new Instances(evaluationDatasets[i], 0),
+                writers[i], predictorNames, elimination));
+          }
+          System.out.println("Set " + indexSet + "/" + numSets + " (" + setDescription.getName() + "): "
+              + countTasks(stepsPerSeed) + " evaluation tasks"
+              + (elimination == null ? "" : " (seeds " + (firstSeed + 1) + "-" + endSeed + ")"));
+          for (int i = firstSeed; i < endSeed; i++) {
+            for (StepEvaluation stepEvaluation : stepsPerSeed.get(i - firstSeed)) {
+              boolean added = stepEvaluation.addResults(evaluationDatasets[i], bestPredictorDatasets[i]);
+              if (added && elimination != null) {
+                elimination.add(i, stepEvaluation.step, stepEvaluation.evaluated);
+              }
+              failed |= !added;
+            }
+          }
+          if (elimination != null) {
+            List<String> eliminated = elimination.eliminate();
+            if (!eliminated.isEmpty()) {
+              System.out.println("Eliminated (step: predictor): " + eliminated);
+            }
+          }
+          firstSeed = endSeed;
+        }
+        if (elimination != null && elimination.getExpectedLabelChanges() > 0) {
+          System.out.println("Expected bestPredictor label changes by elimination: "
+              + elimination.getExpectedLabelChanges());
+        }
+        for (int i = 0; i < seeds.length && !failed && !writers[i].isCompleted(setKey); i++) {
+          writers[i].markCompleted(setKey);
+        }
+        allCompleted &= !failed;
+      }
+      for (int i = 0; i < seeds.length && allCompleted; i++) {
+        writers[i].finish();
+      }
+    }
+    finally {
+      for (ResumableCsvWriter writer : writers) {
+        if (writer != null) {
+          writer.close();
+        }
+      }
+    }
+
+    Instances bestPredictorDataset = bestPredictorDatasets[0];
+    for (int i = 0; i < seeds.length; i++) {
+      StepwiseEvaluation.createCSVFileForDataset(evaluationDatasets[i], "eval_" + seeds[i] + "_" + SET_NAME);
+      if (i > 0) {
+        bestPredictorDataset.addAll(bestPredictorDatasets[i]);
+      }
+    }
+    return bestPredictorDataset;
+  }
+
+  /**
+   * Creates the tasks of all steps of the set for the seed. Units that are already completed are read from the
+   * writer; only the other units are submitted. If the data set is null (all units of the set are completed), the
+   * steps are taken from the writer. Predictors that were eliminated for a step in racing mode are not submitted.
+   *
+   * @param setDescription
+   * @param dataset
+   * @param seed
+   * @param header
+   * @param writer
+   * @param predictorNames
+   * @param elimination null if racing mode is disabled
+   *
+   * @return step evaluations in step order
+   */
+  private List<StepEvaluation> submitSteps(SetDescription setDescription, DatasetView dataset, int seed,
+      Instances header, ResumableCsvWriter writer, List<String> predictorNames, RacingElimination elimination) {
+    DatasetView shuffledDataset = null;
+    DatasetView testSet = null;
+    if (dataset != null) {
+      shuffledDataset = dataset.shuffle(seed);
+      testSet = shuffledDataset.subset(0, StepwiseEvaluation.TESTSET_SIZE);
+    }
+    List<StepEvaluation> stepEvaluations = new ArrayList<StepEvaluation>();
+    for (int step : StepwiseEvaluation.STEPS) {
+      if (shuffledDataset != null && step > shuffledDataset.size() - StepwiseEvaluation.TESTSET_SIZE) {
+        break;
+      }
+      final DatasetView trainingSet = shuffledDataset == null ? null
+          : shuffledDataset.subset(StepwiseEvaluation.TESTSET_SIZE, StepwiseEvaluation.TESTSET_SIZE + step);
+      StepEvaluation stepEvaluation = new StepEvaluation(step);
+      ForkJoinTask<double[]> characteristics = null;
+      for (String predictorName : predictorNames) {
+        String key = getUnitKey(setDescription, step, predictorName);
+        String row = writer.getRow(key);
+        if (row != null) {
+          stepEvaluation.results.add(CompletableFuture.completedFuture(ResumableCsvWriter.parseRow(header, row)));
+        }
+        else if (trainingSet != null && (elimination == null || !elimination.isEliminated(step, predictorName))) {
+          if (characteristics == null) {
+            characteristics = pool.submit(new Callable<double[]>() {
+              @Override
+              public double[] call() {
+                return BatchCharacteristics.compute(trainingSet, pool);
+              }
+            });
+          }
+          stepEvaluation.results.add(pool.submit(new PredictorTask(setDescription, predictorName, trainingSet,
+              testSet, characteristics, header, writer, key)));
+        }
+      }
+      if (!stepEvaluation.results.isEmpty()) {
+        stepEvaluations.add(stepEvaluation);
+      }
+    }
+    return stepEvaluations;
+  }
+
+  /**
+   * Returns the fingerprint of the inputs of an evaluation: the options of every predictor for every step, the
+   * modification time and length of every data set file, the steps, the test set size, the seeds and the racing
+   * configuration. Checkpoints of a run with another fingerprint are not reused.
+   *
+   * @param setDescriptions
+   * @param predictorNames
+   * @param seeds
+   *
+   * @return fingerprint
+   */
+  private String getFingerprint(List<SetDescription> setDescriptions, List<String> predictorNames, int[] seeds) {
+    StringBuilder inputs = new StringBuilder();
+    for (String predictorName : predictorNames) {
+      for (int step : StepwiseEvaluation.STEPS) {
+        inputs.append(predictorName).append('|').append(step).append('|')
+            .append(registry.getOptions(predictorName, step)).append('\n');
+      }
+    }
+    for (SetDescription setDescription : setDescriptions) {
+      inputs.append(setDescription.getName()).append('|')
+          .append(ResumableCsvWriter.describeFile(new File(setDescription.getFilepath()))).append('\n');
+    }
+    inputs.append(Arrays.toString(StepwiseEvaluation.STEPS)).append('|').append(StepwiseEvaluation.TESTSET_SIZE)
+        .append('|').append(Arrays.toString(seeds)).append('|').append(racingMinSeeds).append('|')
+        .append(racingSignificance).append('|').append(racingMaxWinShare);
+    return ResumableCsvWriter.fingerprint(inputs);
+  }
+
+  /**
+   * Returns the csv file with the evaluation results of the seed.
+   *
+   * @param seed
+   *
+   * @return Path
+   */
+  static Path getEvaluationFile(int seed) {
+    return Paths.get("./evaluation/eval_" + seed + "_" + SET_NAME + ".csv");
+  }
+
+  /**
+   * Returns the checkpoint key of the set, which marks that all units of the set are completed.
+   *
+   * @param setDescription
+   *
+   * @return key
+   */
+  private static String getSetKey(SetDescription setDescription) {
+    return "set|" + setDescription.getName();
+  }
+
+  /**
+   * Returns the checkpoint key of a unit (set, step, predictor).
+   *
+   * @param setDescription
+   * @param step
+   * @param predictorName
+   *
+   * @return key
+   */
+  private static String getUnitKey(SetDescription setDescription, int step, String predictorName) {
+    return setDescription.getName() + "|" + step + "|" + predictorName;
+  }
+
+  private static int countTasks(List<List<StepEvaluation>> stepsPerSeed) {
+    int numTasks = 0;
+    for (List<StepEvaluation> steps : stepsPerSeed) {
+      for (StepEvaluation step : steps) {
+        for (Future<Instance> result : step.results) {
+          numTasks += result instanceof ForkJoinTask ? 1 : 0;
+        }
+      }
+    }
+    return numTasks;
+  }
+
+  /**
+   * Stops the worker threads of the engine.
+   */
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  /**
+   * Trains a new predictor on its own Weka data set of the training view, evaluates it on the test view and appends
+   * the resulting evaluation instance to the writer.
+   */
+  private class PredictorTask implements Callable<Instance> {
+
+    private final SetDescription setDescription;
+    private final String predictorName;
+    private final DatasetView trainingSet;
+    private final DatasetView testSet;
+    private final ForkJoinTask<double[]> characteristics;
+    private final Instances header;
+    private final ResumableCsvWriter writer;
+    private final String key;
+
+    PredictorTask(SetDescription setDescription, String predictorName, DatasetView trainingSet, DatasetView testSet,
+        ForkJoinTask<double[]> characteristics, Instances header, ResumableCsvWriter writer, String key) {
+      this.setDescription = setDescription;
+      this.predictorName = predictorName;
+      this.trainingSet = trainingSet;
+      this.testSet = testSet;
+      this.characteristics = characteristics;
+      this.header = header;
+      this.writer = writer;
+      this.key = key;
+    }
+
+    @Override
+    public Instance call() throws Exception {
+      Classifier predictor = registry.create(predictorName, trainingSet.size());
+      if (predictor == null) {
+        throw new IllegalStateException("Could not create predictor " + predictorName + ".");
+      }
+      Instances taskTrainingSet = trainingSet.toInstances();
+
+      long startTime = System.nanoTime() / 1000;
+      predictor.buildClassifier(taskTrainingSet);
+      long stopTime = System.nanoTime() / 1000;
+      int buildTime = (int) (stopTime - startTime); //in microseconds
+
+      TestSetScore score = TestSetScore.score(predictor, testSet);
+
+      double[] values = characteristics.get();
+      int nominal = setDescription.hasNominal ? 1 : 0;
+      Instance instance = StepwiseEvaluation.createEvaluationInstance(header, setDescription.getName(),
+          trainingSet.size(), setDescription.getNumParameter(), nominal, values[2], values[3], values[4], values[5],
+          values[6], predictorName, score, buildTime);
+      writer.append(key, ResumableCsvWriter.toRow(instance));
+      return instance;
+    }
+  }
+
+  /**
+   * Evaluation instances of one (set, seed, step) combination, one per predictor.
+   */
+  private static class StepEvaluation {
+
+    final int step;
+    final List<Future<Instance>> results = new ArrayList<Future<Instance>>();
+    final List<Instance> evaluated = new ArrayList<Instance>();
+
+    StepEvaluation(int step) {
+      this.step = step;
+    }
+
+    /**
+     * Waits for all tasks and adds their results to the evaluation and bestPredictor data sets and to the evaluated
+     * instances. If a task failed, the step is skipped.
+     *
+     * @param evaluationDataset
+     * @param bestPredictorDataset
+     *
+     * @return false if a task failed
+     */
+    boolean addResults(Instances evaluationDataset, Instances bestPredictorDataset) {
+      try {
+        for (Future<Instance> result : results) {
+          evaluated.add(result.get());
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+      catch (ExecutionException e) {
+        e.getCause().printStackTrace();
+        return false;
+      }
+      for (Instance instance : evaluated) {
+        evaluationDataset.add(instance);
+      }
+      Instance first = evaluated.get(0);
+      StepwiseEvaluation.addToBestPredictorDataset(bestPredictorDataset, evaluated, (int) first.value(1),
+          (int) first.value(2), first.value(4), first.value(5), first.value(6), first.value(7), first.value(8));
+      return true;
+    }
+  }
+}
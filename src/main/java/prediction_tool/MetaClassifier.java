@@ -1,7 +1,18 @@
 package prediction_tool;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Random;
 
 import weka.classifiers.Classifier;
@@ -11,14 +22,16 @@ import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Utils;
-import weka.core.converters.AbstractFileLoader;
-import weka.core.converters.ArffLoader;
-import weka.core.converters.CSVLoader;
 
 /**
  * MetaClassifier builds a CART decision tree from the specified training set. It can be used to recommend a prediction
  * technique depending on the learned data set characteristics.
  *
+ * RuntimePrediction objects share one MetaClassifier, returned by getInstance(). It is loaded once from a precompiled
+ * artifact (the serialized tree and the training set header), which is written by main(String[]) at build time, so
+ * that neither the training set csv file nor a tree build is needed at runtime. The shared MetaClassifier is never
+ * trained again, so it can be used by multiple threads.
+ *
  * Created by Vanessa Ackermann on 19.03.18.
  *
  * @author Vanessa Ackermann
@@ -26,8 +39,16 @@ import weka.core.converters.CSVLoader;
  */
 public class MetaClassifier {
 
+  static final String TRAININGSET_PATH = "./evaluation/bestPredictor_total_10.csv";
+  static final String ARTIFACT_RESOURCE = "/metaClassifier.model";
+  static final String ARTIFACT_PATH = "./evaluation/metaClassifier.model";
+  // System property that overrides the artifact location.
+  static final String ARTIFACT_PROPERTY = "prediction_tool.metaClassifier";
+  static final int ARTIFACT_FORMAT_VERSION = 1;
+
+  private static volatile MetaClassifier instance;
+
   private REPTree metaClassifier;
-  private String TRAININGSET_PATH = "./evaluation/bestPredictor_total_10.csv";
   private Instances trainingSet;
 
   /**
@@ -39,7 +60,129 @@ public class MetaClassifier {
     try {
       metaClassifier.setOptions(Utils.splitOptions("-N 3 -L 4"));
       metaClassifier.buildClassifier(trainingSet);
-      System.out.print(metaClassifier.graph());
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Constructor for a MetaClassifier object with an already built tree. The training set may be an empty header.
+   *
+   * @param metaClassifier
+   * @param trainingSet
+   */
+  private MetaClassifier(REPTree metaClassifier, Instances trainingSet) {
+    this.metaClassifier = metaClassifier;
+    this.trainingSet = trainingSet;
+  }
+
+  /**
+   * Returns the process-wide MetaClassifier. On first call, it is loaded from the artifact given by the system property
+   * prediction_tool.metaClassifier, the classpath resource /metaClassifier.model or ./evaluation/metaClassifier.model
+   * (in this order). If no artifact exists, it is built from the training set csv file.
+   *
+   * @return MetaClassifier
+   */
+  public static MetaClassifier getInstance() {
+    MetaClassifier result = instance;
+    if (result == null) {
+      synchronized (MetaClassifier.class) {
+        result = instance;
+        if (result == null) {
+          result = loadArtifact();
+          if (result == null) {
+            result = new MetaClassifier();
+          }
+          instance = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Loads the MetaClassifier from the first existing artifact location.
+   *
+   * @return MetaClassifier, or null if no artifact exists or it can not be read
+   */
+  private static MetaClassifier loadArtifact() {
+    try {
+      String property = System.getProperty(ARTIFACT_PROPERTY);
+      if (property != null) {
+        return readArtifact(new FileInputStream(property));
+      }
+      InputStream resource = MetaClassifier.class.getResourceAsStream(ARTIFACT_RESOURCE);
+      if (resource != null) {
+        return readArtifact(resource);
+      }
+      File file = new File(ARTIFACT_PATH);
+      if (file.isFile()) {
+        return readArtifact(new FileInputStream(file));
+      }
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+    return null;
+  }
+
+  /**
+   * Reads a MetaClassifier artifact written by writeArtifact(File) and closes the stream.
+   *
+   * @param stream
+   *
+   * @return MetaClassifier
+   *
+   * @throws IOException
+   */
+  static MetaClassifier readArtifact(InputStream stream) throws IOException {
+    try (ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(stream))) {
+      int version = input.readInt();
+      if (version != ARTIFACT_FORMAT_VERSION) {
+        throw new IOException("Unsupported meta-classifier artifact version " + version + ".");
+      }
+      REPTree tree = (REPTree) input.readObject();
+      Instances header = (Instances) input.readObject();
+      return new MetaClassifier(tree, header);
+    }
+    catch (ClassNotFoundException e) {
+      throw new IOException("Failed to read meta-classifier artifact.", e);
+    }
+  }
+
+  /**
+   * Writes the tree and the (empty) header of the training set as artifact to the given file.
+   *
+   * @param file
+   *
+   * @throws IOException
+   */
+  public void writeArtifact(File file) throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null) {
+      parent.mkdirs();
+    }
+    try (ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      output.writeInt(ARTIFACT_FORMAT_VERSION);
+      output.writeObject(metaClassifier);
+      output.writeObject(new Instances(trainingSet, 0));
+    }
+  }
+
+  /**
+   * Builds the MetaClassifier from the training set csv file and writes it as artifact. The artifact file can be given
+   * as first argument (default ./evaluation/metaClassifier.model). Prints the learned tree.
+   *
+   * @param args
+   */
+  public static void main(String[] args) {
+    MetaClassifier metaClassifier = new MetaClassifier();
+    File file = new File(args.length > 0 ? args[0] : ARTIFACT_PATH);
+    try {
+      metaClassifier.writeArtifact(file);
+      System.out.print(metaClassifier.metaClassifier.graph());
+      System.out.println("Meta-classifier artifact written to " + file.getPath());
     }
     catch (Exception e) {
       e.printStackTrace();
@@ -54,10 +197,35 @@ public class MetaClassifier {
    * @return Recommended prediction technique as Weka Classifier object
    */
   public Classifier predictBestPredictorForSet(Instances dataset) {
+    String predictorName = predictBestPredictorNameForSet(dataset);
+    return predictorName == null ? null : Predictors.getPredictorWithName(predictorName, dataset.size());
+  }
+
+  /**
+   * Predicts the name abbrevation of the best prediction technique (e.g., RandomF) depending on characteristics of the
+   * given data set in Weka format.
+   *
+   * @param dataset
+   *
+   * @return Name of recommended prediction technique
+   */
+  public String predictBestPredictorNameForSet(Instances dataset) {
+    return predictBestPredictorName(makeMetaFeaturesFromDataset(dataset));
+  }
+
+  /**
+   * Predicts the name abbrevation of the best prediction technique for a data set with the given characteristics, e.g.
+   * as returned by CharacteristicsAccumulator.getMetaFeatures().
+   *
+   * @param metaFeatures
+   *
+   * @return Name of recommended prediction technique
+   */
+  public String predictBestPredictorName(double[] metaFeatures) {
     try {
-      int predictorNumber = (int) metaClassifier.classifyInstance(makeClassifictionInstanceFromDataset(dataset));
+      int predictorNumber = (int) metaClassifier.classifyInstance(makeClassificationInstance(metaFeatures));
 
-      return Predictors.getPredictorWithName(trainingSet.classAttribute().value(predictorNumber));
+      return trainingSet.classAttribute().value(predictorNumber);
     }
     catch (Exception e) {
       e.printStackTrace();
@@ -66,21 +234,67 @@ public class MetaClassifier {
   }
 
   /**
-   * Builds Instance that can be classified by the learned CART decision tree from the given data set.
+   * Ranks all prediction techniques for a data set with the given characteristics by the probability the
+   * meta-classifier assigns to them being the most accurate one (highest first). Techniques with equal probability keep
+   * the order of the training set's class values.
+   *
+   * @param metaFeatures
+   *
+   * @return names of the prediction techniques, most promising first (empty if the classification fails)
+   */
+  public List<String> rankPredictorNames(double[] metaFeatures) {
+    final double[] distribution;
+    try {
+      distribution = metaClassifier.distributionForInstance(makeClassificationInstance(metaFeatures));
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return new ArrayList<String>();
+    }
+    List<Integer> predictorNumbers = new ArrayList<Integer>();
+    for (int i = 0; i < distribution.length; i++) {
+      predictorNumbers.add(i);
+    }
+    Collections.sort(predictorNumbers, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer first, Integer second) {
+        int comparison = Double.compare(distribution[second], distribution[first]);
+        return comparison != 0 ? comparison : Integer.compare(first, second);
+      }
+    });
+    List<String> predictorNames = new ArrayList<String>();
+    for (int predictorNumber : predictorNumbers) {
+      predictorNames.add(trainingSet.classAttribute().value(predictorNumber));
+    }
+    return predictorNames;
+  }
+
+  /**
+   * Calculates the characteristics of the given data set in the attribute order of the training set.
    *
    * @param dataset
+   * @return meta-features
+   */
+  private static double[] makeMetaFeaturesFromDataset(Instances dataset) {
+    return new double[] {DatasetCharacteristics.getSize(dataset),
+        DatasetCharacteristics.getNumberOfInputParameters(dataset),
+        DatasetCharacteristics.getRangeOfClassAttribute(dataset), DatasetCharacteristics.getCVOfClassAttribute(dataset),
+        DatasetCharacteristics.getHighestCorrelation(dataset), DatasetCharacteristics.getLowestCorrelation(dataset),
+        DatasetCharacteristics.getR2ForLinReg(dataset)};
+  }
+
+  /**
+   * Builds Instance that can be classified by the learned CART decision tree from the given characteristics.
+   *
+   * @param metaFeatures
    * @return Instance
    */
-  private Instance makeClassifictionInstanceFromDataset(Instances dataset) {
+  private Instance makeClassificationInstance(double[] metaFeatures) {
     Instance instance = new DenseInstance(trainingSet.numAttributes());
     instance.setDataset(trainingSet);
-    instance.setValue(0, DatasetCharacteristics.getSize(dataset));
-    instance.setValue(1, DatasetCharacteristics.getNumberOfInputParameters(dataset));
-    instance.setValue(2, DatasetCharacteristics.getRangeOfClassAttribute(dataset));
-    instance.setValue(3, DatasetCharacteristics.getCVOfClassAttribute(dataset));
-    instance.setValue(4, DatasetCharacteristics.getHighestCorrelation(dataset));
-    instance.setValue(5, DatasetCharacteristics.getLowestCorrelation(dataset));
-    instance.setValue(6, DatasetCharacteristics.getR2ForLinReg(dataset));
+    for (int i = 0; i < metaFeatures.length; i++) {
+      instance.setValue(i, metaFeatures[i]);
+    }
     return instance;
   }
 
@@ -91,29 +305,7 @@ public class MetaClassifier {
    * @return Instances (training set in Weka format)
    */
   static Instances loadDatasetFromFilepath(String filepath) {
-    File file = new File(filepath);
-    AbstractFileLoader loader;
-    if (filepath.endsWith(".csv")) {
-      loader = new CSVLoader();
-    }
-    else if (filepath.endsWith(".arff")) {
-      loader = new ArffLoader();
-    }
-    else {
-      System.out.println("Wrong file type :(");
-      return null;
-    }
-    try {
-      Instances dataset;
-      loader.setFile(file);
-      dataset = loader.getDataSet();
-      dataset.setClassIndex(dataset.numAttributes() - 1);
-      return dataset;
-    }
-    catch (IOException e) {
-      e.printStackTrace();
-    }
-    return null;
+    return DatasetLoader.load(filepath);
   }
 
   /**
@@ -121,6 +313,9 @@ public class MetaClassifier {
    * with 10-fold cross validation on the training set. Prints evaluation results in console.
    */
   public void evaluateMethod() {
+    if (trainingSet.isEmpty()) {
+      trainingSet = loadDatasetFromFilepath(TRAININGSET_PATH);
+    }
     try {
       Evaluation evaluation = new Evaluation(trainingSet);
       REPTree cls = new REPTree();
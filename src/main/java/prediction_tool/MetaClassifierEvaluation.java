@@ -2,17 +2,13 @@ package prediction_tool;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
 
 import weka.classifiers.Classifier;
 import weka.classifiers.functions.SMOreg;
 import weka.core.Instances;
-import weka.core.converters.AbstractFileLoader;
-import weka.core.converters.ArffLoader;
-import weka.core.converters.CSVLoader;
-
-import weka.classifiers.Evaluation;
 
 /**
  * Used for the overall evaluation of the MetaClassifier. Compares prediction accuracy (via mean absolute error) of
@@ -28,9 +24,14 @@ public class MetaClassifierEvaluation {
 
   static final int[] STEPS = new int[]{20, 50, 200, 700, 2000, 4500, 7500};
   static final int TESTSET_SIZE = 1000;
+  static final String DIFFERENCES_HEADER = "Name,Step,Difference,Predictor";
 
   /**
-   * Creates an array of MAE differences for the paired-samples over all sets specified in setDesciptions.
+   * Creates an array of MAE differences for the paired-samples over all sets specified in setDesciptions. Every
+   * difference is appended to the csv file maeDifferences_[seed] as soon as it is computed; differences of a previous,
+   * interrupted run with the same seed and inputs (data set files, steps, predictor options) are read from its
+   * checkpoint (see ResumableCsvWriter) instead of computed again. The checkpoint is deleted when all sets are
+   * completed.
    *
    * @param setDescriptions
    * @param seed
@@ -46,88 +47,113 @@ public class MetaClassifierEvaluation {
     int index = 0;
     int smrCounter = 0;
 
+    StringBuilder inputs = new StringBuilder(Arrays.toString(STEPS) + "|" + TESTSET_SIZE + "\n");
     for (SetDescription setDescription : setDescriptions) {
-      indexSet++;
-      String name = setDescription.getName();
-      String filepath = setDescription.getFilepath();
-
-      Instances dataset = loadDatasetFromFilepath(filepath);
-      dataset.randomize(new Random(seed));
-      Instances testSet = new Instances(dataset, 0, TESTSET_SIZE);
-
-      for (Integer step : STEPS) {
-        System.out.println("Set " + indexSet + "/" + numSets + " (steps: " + step + ")");
-        if (step > dataset.size() - TESTSET_SIZE) {
-          break;
+      inputs.append(ResumableCsvWriter.describeFile(new File(setDescription.getFilepath()))).append('\n');
+    }
+    PredictorRegistry registry = PredictorRegistry.getDefault();
+    for (String predictorName : registry.getNames()) {
+      for (int step : STEPS) {
+        inputs.append(predictorName).append('|').append(registry.getOptions(predictorName, step)).append('\n');
+      }
+    }
+    boolean allCompleted = true;
+    try (ResumableCsvWriter writer = new ResumableCsvWriter(Paths.get("./evaluation/maeDifferences_" + seed + ".csv"),
+        DIFFERENCES_HEADER, ResumableCsvWriter.fingerprint(inputs))) {
+      for (SetDescription setDescription : setDescriptions) {
+        indexSet++;
+        String name = setDescription.getName();
+        String filepath = setDescription.getFilepath();
+        String setKey = "set|" + name;
+
+        DatasetView dataset = null;
+        DatasetView testSet = null;
+        boolean failed = false;
+        if (!writer.isCompleted(setKey)) {
+          dataset = DatasetLoader.loadView(filepath);
+          if (dataset == null) {
+            allCompleted = false;
+            continue;
+          }
+          dataset = dataset.shuffle(seed);
+          testSet = dataset.subset(0, TESTSET_SIZE);
         }
-        try {
-          Instances trainingSet = new Instances(dataset, TESTSET_SIZE, step);
-
-          Classifier pred1 = new SMOreg();
-          Classifier pred2 = metaClassifier.predictBestPredictorForSet(trainingSet);
 
-          double difference = 0;
-
-          if (pred2 instanceof SMOreg) {
-            smrCounter++;
+        for (Integer step : STEPS) {
+          System.out.println("Set " + indexSet + "/" + numSets + " (steps: " + step + ")");
+          String key = name + "|" + step;
+          String row = writer.getRow(key);
+          if (row != null) {
+            String[] fields = row.split(",");
+            if (fields[3].equals("SVR")) {
+              smrCounter++;
+            }
+            result[index] = Double.parseDouble(fields[2]);
+            index++;
+            continue;
           }
-          else {
-            Evaluation eval1 = new Evaluation(trainingSet);
-            Evaluation eval2 = new Evaluation(trainingSet);
-
-            pred1.buildClassifier(trainingSet);
-            pred2.buildClassifier(trainingSet);
-
-            eval1.evaluateModel(pred1, testSet);
-            eval2.evaluateModel(pred2, testSet);
-
-            //How much is the MAE of the MC predictor smaller than the MAE of the MAE of SVR?
-            difference = eval1.meanAbsoluteError() - eval2.meanAbsoluteError();
+          if (dataset == null || step > dataset.size() - TESTSET_SIZE) {
+            break;
+          }
+          try {
+            Instances trainingSet = dataset.subset(TESTSET_SIZE, TESTSET_SIZE + step).toInstances();
+
+            Classifier pred1 = new SMOreg();
+            String predictorName = metaClassifier.predictBestPredictorNameForSet(trainingSet);
+            Classifier pred2 = Predictors.getPredictorWithName(predictorName, trainingSet.size());
+
+            double difference = 0;
+
+            if (pred2 instanceof SMOreg) {
+              smrCounter++;
+            }
+            else {
+              pred1.buildClassifier(trainingSet);
+              pred2.buildClassifier(trainingSet);
+
+              double mae1 = TestSetScore.score(pred1, testSet, false).getMAE();
+              double mae2 = TestSetScore.score(pred2, testSet, false).getMAE();
+
+              //How much is the MAE of the MC predictor smaller than the MAE of the MAE of SVR?
+              difference = mae1 - mae2;
+            }
+            System.out.println(difference);
+            result[index] = difference;
+            index++;
+            writer.append(key, name + "," + step + "," + difference + "," + predictorName);
+          }
+          catch (Exception e) {
+            e.printStackTrace();
+            failed = true;
+            allCompleted = false;
           }
-          System.out.println(difference);
-          result[index] = difference;
-          index++;
         }
-        catch (Exception e) {
-          e.printStackTrace();
+        // A set with a failed step is loaded again on resume, so that the step is retried.
+        if (dataset != null && !failed) {
+          writer.markCompleted(setKey);
         }
       }
+      if (allCompleted) {
+        writer.finish();
+      }
+    }
+    catch (IOException e) {
+      e.printStackTrace();
     }
     System.out.println(smrCounter + " SVR predicctions out of " + result.length);
     return result;
   }
 
   /**
-   * Loads data set as Weka Instances object from given filepath. Must be csv or arff file.
+   * Loads data set as Weka Instances object from given filepath. Must be csv or arff file. Parsed files are cached by
+   * DatasetLoader.
    *
    * @param filepath
    *
    * @return data set in Weka's Instances format
    */
   static Instances loadDatasetFromFilepath(String filepath) {
-    File file = new File(filepath);
-    AbstractFileLoader loader;
-    if (filepath.endsWith(".csv")) {
-      loader = new CSVLoader();
-    }
-    else if (filepath.endsWith(".arff")) {
-      loader = new ArffLoader();
-    }
-    else {
-      System.out.println("Wrong file type :(");
-      return null;
-    }
-    try {
-      Instances dataset;
-      loader.setFile(file);
-      dataset = loader.getDataSet();
-      dataset.setClassIndex(dataset.numAttributes() - 1);
-      return dataset;
-    }
-    catch (IOException e) {
-      e.printStackTrace();
-    }
-    return null;
+    return DatasetLoader.load(filepath);
   }
 
   /**
@@ -0,0 +1,525 @@
+package prediction_tool;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import weka.core.Instances;
+
+/**
+ * ModelRegistry manages the RuntimePrediction objects of many applications (or operations), identified by name. All
+ * resident models share a global heap budget. If the estimated heap size of the resident models exceeds the budget,
+ * the least recently used models are saved as snapshot files to the snapshot directory and dropped from the heap. An
+ * evicted model is restored from its snapshot file on its next use, together with its configuration (see
+ * RuntimePrediction.saveSnapshot).
+ *
+ * Lookups are lock-free; every model has its own read-write lock, so that uses of different models never block each
+ * other and a model is not evicted while it is used. Models should be used through the registry (or via get(String)
+ * for a short time) instead of keeping references to them, as monitoring data added to an evicted object is lost.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class ModelRegistry {
+
+  static final String SNAPSHOT_SUFFIX = ".snapshot";
+  // Number of accesses after which the budget is checked again.
+  static final int BUDGET_CHECK_INTERVAL = 1024;
+
+  private final Path snapshotDirectory;
+  private final long maxBytes;
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+  private final AtomicLong accesses = new AtomicLong(0);
+  private final AtomicBoolean enforcingBudget = new AtomicBoolean(false);
+  private final AtomicLong evictions = new AtomicLong(0);
+  private final AtomicLong reloads = new AtomicLong(0);
+  private volatile long estimatedBytes = 0;
+
+  /**
+   * Creates registry that keeps at most maxBytes (estimated) of models on the heap and evicts models to snapshot files
+   * in the given directory.
+   *
+   * @param snapshotDirectory
+   * @param maxBytes
+   *
+   * @throws IOException
+   */
+  public ModelRegistry(Path snapshotDirectory, long maxBytes) throws IOException {
+    if (maxBytes < 1) {
+      throw new IllegalArgumentException("Heap budget must be positive.");
+    }
+    this.snapshotDirectory = snapshotDirectory;
+    this.maxBytes = maxBytes;
+    Files.createDirectories(snapshotDirectory);
+  }
+
+  /**
+   * Returns the model of the application, or creates a new model for numberInputParameters input parameters if the
+   * application is unknown.
+   *
+   * @param name
+   * @param numberInputParameters
+   *
+   * @return RuntimePrediction
+   */
+  public RuntimePrediction register(String name, final int numberInputParameters) {
+    return register(name, new ModelFactory() {
+      @Override
+      public RuntimePrediction create() {
+        return new RuntimePrediction(numberInputParameters);
+      }
+    });
+  }
+
+  /**
+   * Returns the model of the application, or creates a new model for the given data set if the application is
+   * unknown.
+   *
+   * @param name
+   * @param dataset
+   *
+   * @return RuntimePrediction
+   */
+  public RuntimePrediction register(String name, final Instances dataset) {
+    return register(name, new ModelFactory() {
+      @Override
+      public RuntimePrediction create() {
+        return new RuntimePrediction(dataset);
+      }
+    });
+  }
+
+  /**
+   * Returns the model of the application, or creates it with the factory if the application is unknown.
+   *
+   * @param name
+   * @param factory
+   *
+   * @return RuntimePrediction
+   */
+  private RuntimePrediction register(String name, ModelFactory factory) {
+    Entry entry = getEntry(name, true);
+    RuntimePrediction model;
+    entry.lock.writeLock().lock();
+    try {
+      if (entry.model == null && !entry.evicted) {
+        entry.model = factory.create();
+        entry.bytes = entry.model.getEstimatedBytes();
+      }
+      model = load(entry);
+    }
+    finally {
+      entry.lock.writeLock().unlock();
+    }
+    enforceBudget();
+    return model;
+  }
+
+  /**
+   * Returns the model of the application. Restores the model from its snapshot file if it was evicted.
+   *
+   * @param name
+   *
+   * @return RuntimePrediction, or null if the application is unknown or its snapshot can not be restored
+   */
+  public RuntimePrediction get(String name) {
+    Entry entry = getEntry(name, false);
+    if (entry == null) {
+      return null;
+    }
+    entry.lock.readLock().lock();
+    try {
+      if (entry.model != null) {
+        touch(entry);
+        return entry.model;
+      }
+    }
+    finally {
+      entry.lock.readLock().unlock();
+    }
+    RuntimePrediction model;
+    entry.lock.writeLock().lock();
+    try {
+      model = load(entry);
+    }
+    finally {
+      entry.lock.writeLock().unlock();
+    }
+    enforceBudget();
+    return model;
+  }
+
+  /**
+   * Adds new monitoring data instance (comma-seperated, numeric values) to the training set of the application.
+   *
+   * @param name
+   * @param csv
+   *
+   * @return false if the application is unknown
+   */
+  public boolean addTrainingInstance(String name, CharSequence csv) {
+    Entry entry = acquire(name);
+    if (entry == null) {
+      return false;
+    }
+    try {
+      entry.model.addTrainingInstance(csv);
+      return true;
+    }
+    finally {
+      entry.lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Predicts the performance behaviour of the application for the given CSV-instance.
+   *
+   * @param name
+   * @param csv
+   *
+   * @return Numeric performance prediction, or -1 if the application is unknown or no prediction can be made
+   */
+  public double predictInstance(String name, CharSequence csv) {
+    Entry entry = acquire(name);
+    if (entry == null) {
+      return -1;
+    }
+    try {
+      return entry.model.predictInstance(csv);
+    }
+    finally {
+      entry.lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the entry of the application with its read lock held and its model loaded, or null if the application is
+   * unknown or can not be restored. The caller must release the read lock.
+   *
+   * @param name
+   *
+   * @return Entry
+   */
+  private Entry acquire(String name) {
+    Entry entry = getEntry(name, false);
+    if (entry == null) {
+      return null;
+    }
+    while (true) {
+      entry.lock.readLock().lock();
+      if (entry.model != null) {
+        touch(entry);
+        return entry;
+      }
+      entry.lock.readLock().unlock();
+      entry.lock.writeLock().lock();
+      try {
+        if (load(entry) == null) {
+          return null;
+        }
+      }
+      finally {
+        entry.lock.writeLock().unlock();
+      }
+      enforceBudget();
+    }
+  }
+
+  /**
+   * Returns the entry of the application. Creates an evicted entry if a snapshot file of the application exists.
+   *
+   * @param name
+   * @param create
+   *
+   * @return Entry, or null if the application is unknown and create is false
+   */
+  private Entry getEntry(String name, boolean create) {
+    Entry entry = entries.get(name);
+    if (entry != null) {
+      return entry;
+    }
+    Path file = getSnapshotFile(name);
+    boolean hasSnapshot = Files.exists(file);
+    if (!create && !hasSnapshot) {
+      return null;
+    }
+    Entry newEntry = new Entry(file);
+    newEntry.evicted = hasSnapshot;
+    entry = entries.putIfAbsent(name, newEntry);
+    return entry == null ? newEntry : entry;
+  }
+
+  /**
+   * Returns the model of the entry and restores it from its snapshot file if it was evicted. Must be called while
+   * holding the write lock of the entry.
+   *
+   * @param entry
+   *
+   * @return RuntimePrediction, or null if it can not be restored
+   */
+  private RuntimePrediction load(Entry entry) {
+    if (entry.model == null && entry.evicted) {
+      try {
+        entry.model = RuntimePrediction.restore(entry.snapshotFile);
+        entry.bytes = entry.model.getEstimatedBytes();
+        entry.evicted = false;
+        reloads.incrementAndGet();
+      }
+      catch (IOException e) {
+        e.printStackTrace();
+        return null;
+      }
+    }
+    entry.lastAccess = System.nanoTime();
+    return entry.model;
+  }
+
+  /**
+   * Records an access of the entry and checks the budget every BUDGET_CHECK_INTERVAL accesses.
+   *
+   * @param entry
+   */
+  private void touch(Entry entry) {
+    entry.lastAccess = System.nanoTime();
+    if (accesses.incrementAndGet() % BUDGET_CHECK_INTERVAL == 0) {
+      enforceBudget();
+    }
+  }
+
+  /**
+   * Updates the estimated heap size of all resident models and evicts the least recently used models until the
+   * resident models fit into the budget. Returns immediately if another thread is already enforcing the budget.
+   */
+  public void enforceBudget() {
+    if (!enforcingBudget.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      List<Entry> resident = new ArrayList<Entry>();
+      long bytes = 0;
+      for (Entry entry : entries.values()) {
+        RuntimePrediction model = entry.model;
+        if (model != null) {
+          entry.bytes = model.getEstimatedBytes();
+          bytes += entry.bytes;
+          resident.add(entry);
+        }
+      }
+      if (bytes > maxBytes) {
+        Collections.sort(resident, new Comparator<Entry>() {
+          @Override
+          public int compare(Entry first, Entry second) {
+            return Long.compare(first.lastAccess, second.lastAccess);
+          }
+        });
+        for (int i = 0; i < resident.size() && bytes > maxBytes; i++) {
+          Entry entry = resident.get(i);
+          long entryBytes = entry.bytes;
+          if (evict(entry)) {
+            bytes -= entryBytes;
+          }
+        }
+      }
+      estimatedBytes = bytes;
+    }
+    finally {
+      enforcingBudget.set(false);
+    }
+  }
+
+  /**
+   * Saves the model of the entry to its snapshot file and drops it from the heap. Skips the entry if it is currently
+   * used.
+   *
+   * @param entry
+   *
+   * @return true if the model was evicted
+   */
+  private boolean evict(Entry entry) {
+    if (!entry.lock.writeLock().tryLock()) {
+      return false;
+    }
+    try {
+      RuntimePrediction model = entry.model;
+      if (model == null) {
+        return false;
+      }
+      model.saveSnapshot(entry.snapshotFile);
+      model.close();
+      entry.model = null;
+      entry.evicted = true;
+      entry.bytes = 0;
+      evictions.incrementAndGet();
+      return true;
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+      return false;
+    }
+    finally {
+      entry.lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Saves the snapshot files of all resident models, e.g., before shutting down.
+   */
+  public void saveAll() {
+    for (Entry entry : entries.values()) {
+      entry.lock.readLock().lock();
+      try {
+        if (entry.model != null) {
+          entry.model.saveSnapshot(entry.snapshotFile);
+        }
+      }
+      catch (IOException e) {
+        e.printStackTrace();
+      }
+      finally {
+        entry.lock.readLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * Removes the application and deletes its snapshot file.
+   *
+   * @param name
+   *
+   * @return true if the application was known
+   */
+  public boolean remove(String name) {
+    Entry entry = entries.remove(name);
+    if (entry == null) {
+      return false;
+    }
+    entry.lock.writeLock().lock();
+    try {
+      if (entry.model != null) {
+        entry.model.close();
+        entry.model = null;
+      }
+      entry.evicted = false;
+      Files.deleteIfExists(entry.snapshotFile);
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+    finally {
+      entry.lock.writeLock().unlock();
+    }
+    return true;
+  }
+
+  /**
+   * Returns the snapshot file of the application. The name is URL-encoded, so that any name is a valid file name.
+   *
+   * @param name
+   *
+   * @return Path
+   */
+  private Path getSnapshotFile(String name) {
+    try {
+      return snapshotDirectory.resolve(URLEncoder.encode(name, "UTF-8") + SNAPSHOT_SUFFIX);
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Get estimated heap size of all resident models in bytes, as of the last budget check.
+   *
+   * @return bytes
+   */
+  public long getEstimatedBytes() {
+    return estimatedBytes;
+  }
+
+  /**
+   * Get heap budget in bytes.
+   *
+   * @return bytes
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Get number of known applications (resident and evicted).
+   *
+   * @return number of applications
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Get number of models currently on the heap.
+   *
+   * @return number of resident models
+   */
+  public int getResidentModels() {
+    int resident = 0;
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      if (entry.getValue().model != null) {
+        resident++;
+      }
+    }
+    return resident;
+  }
+
+  /**
+   * Get number of models evicted to snapshot files.
+   *
+   * @return number of evictions
+   */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * Get number of models restored from snapshot files.
+   *
+   * @return number of reloads
+   */
+  public long getReloads() {
+    return reloads.get();
+  }
+
+  /**
+   * Creates the model of a new application.
+   */
+  private interface ModelFactory {
+
+    RuntimePrediction create();
+  }
+
+  /**
+   * Registry entry of one application. The model is null while the application is evicted.
+   */
+  private static class Entry {
+
+    final Path snapshotFile;
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    volatile RuntimePrediction model;
+    volatile boolean evicted;
+    volatile long bytes;
+    volatile long lastAccess = System.nanoTime();
+
+    Entry(Path snapshotFile) {
+      this.snapshotFile = snapshotFile;
+    }
+  }
+}
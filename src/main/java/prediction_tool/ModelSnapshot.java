@@ -0,0 +1,360 @@
+package prediction_tool;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.DoubleBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * A ModelSnapshot is an immutable, already-trained prediction model that is published by a RuntimePrediction object.
+ * Once published, the wrapped predictor is never trained again; a retraining builds a new snapshot off to the side and
+ * replaces the old one with a single reference swap.
+ *
+ * Most Weka classifiers keep internal state while classifying (e.g., the node values of a MultilayerPerceptron), so
+ * every classification borrows one replica of the published predictor from a bounded pool (at most one replica per
+ * core) and returns it afterwards; the original predictor is never used for classification. The first replica is built
+ * and warmed up by the building thread before the snapshot is published (see warmUp), so a single reading thread never
+ * copies the model. Further replicas are copied on demand when several threads predict at the same time, so a model
+ * is only copied as often as it is actually used concurrently. If all replicas are in use, a reading thread waits for
+ * the next free one.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class ModelSnapshot {
+
+  private final Classifier predictor;
+  private final String predictorName;
+  private final Instances header;
+  private final int trainedInstances;
+  private final long publishedAt;
+  static final int MAX_REPLICAS = Runtime.getRuntime().availableProcessors();
+
+  private final BlockingQueue<Classifier> idleReplicas = new ArrayBlockingQueue<Classifier>(MAX_REPLICAS);
+  private final AtomicInteger numReplicas = new AtomicInteger(0);
+  private volatile long serializedSize = -1;
+
+  /**
+   * Creates a snapshot for a predictor that has already been trained on trainedInstances instances. The predictor must
+   * not be changed afterwards.
+   *
+   * @param predictor
+   * @param predictorName
+   * @param header
+   * @param trainedInstances
+   */
+  ModelSnapshot(Classifier predictor, String predictorName, Instances header, int trainedInstances) {
+    this.predictor = predictor;
+    this.predictorName = predictorName;
+    this.header = header;
+    this.trainedInstances = trainedInstances;
+    this.publishedAt = System.currentTimeMillis();
+  }
+
+  /**
+   * Predicts the performance behaviour for the given instance with a borrowed replica.
+   *
+   * @param instance
+   *
+   * @return Numeric performance prediction
+   *
+   * @throws Exception
+   */
+  double classifyInstance(Instance instance) throws Exception {
+    Classifier replica = borrowReplica();
+    try {
+      return replica.classifyInstance(instance);
+    }
+    finally {
+      returnReplica(replica);
+    }
+  }
+
+  /**
+   * Predicts the performance behaviour for every row of input parameter values and writes the predictions to the
+   * respective index of the predictions array. A row that can not be predicted gets the prediction -1. All rows are
+   * classified through one reused instance, so no objects are created per row apart from those created by the
+   * predictor itself.
+   *
+   * @param inputs
+   * @param predictions
+   */
+  void classifyRows(double[][] inputs, double[] predictions) {
+    classifyRows(inputs, inputs.length, predictions);
+  }
+
+  /**
+   * Predicts the performance behaviour for the first numRows rows of input parameter values, like
+   * classifyRows(double[][], double[]).
+   *
+   * @param inputs
+   * @param numRows
+   * @param predictions
+   */
+  void classifyRows(double[][] inputs, int numRows, double[] predictions) {
+    int numInputs = header.numAttributes() - 1;
+    double[] values = new double[header.numAttributes()];
+    Instance instance = createRowInstance(values);
+    Classifier replica = borrowReplicaOrNull();
+    try {
+      for (int row = 0; row < numRows; row++) {
+        if (inputs[row].length != numInputs) {
+          throw new IllegalArgumentException(
+              "Row " + row + " has " + inputs[row].length + " values, expected " + numInputs + ".");
+        }
+        System.arraycopy(inputs[row], 0, values, 0, numInputs);
+        predictions[row] = classifyRow(replica, instance);
+      }
+    }
+    finally {
+      returnReplica(replica);
+    }
+  }
+
+  /**
+   * Predicts the performance behaviour for every row of input parameter values in the buffer (row-major, one value per
+   * input parameter) and writes the predictions to the respective index of the predictions array. Reads the buffer
+   * from its position to its limit without changing the position.
+   *
+   * @param inputs
+   * @param predictions
+   */
+  void classifyRows(DoubleBuffer inputs, double[] predictions) {
+    int numInputs = header.numAttributes() - 1;
+    if (inputs.remaining() % numInputs != 0) {
+      throw new IllegalArgumentException("Buffer size is not a multiple of the number of input parameters.");
+    }
+    double[] values = new double[header.numAttributes()];
+    Instance instance = createRowInstance(values);
+    Classifier replica = borrowReplicaOrNull();
+    int numRows = inputs.remaining() / numInputs;
+    int position = inputs.position();
+    try {
+      for (int row = 0; row < numRows; row++) {
+        for (int i = 0; i < numInputs; i++) {
+          values[i] = inputs.get(position + row * numInputs + i);
+        }
+        predictions[row] = classifyRow(replica, instance);
+      }
+    }
+    finally {
+      returnReplica(replica);
+    }
+  }
+
+  /**
+   * Creates instance that is backed by the given values array, so that changes to the array are seen by the instance.
+   * The target attribute is missing.
+   *
+   * @param values
+   *
+   * @return Instance
+   */
+  private Instance createRowInstance(double[] values) {
+    values[header.classIndex()] = Utils.missingValue();
+    Instance instance = new DenseInstance(1.0, values);
+    instance.setDataset(header);
+    return instance;
+  }
+
+  /**
+   * Classifies the row instance with the given replica.
+   *
+   * @param replica
+   * @param instance
+   *
+   * @return prediction, or -1 if the replica is missing or fails
+   */
+  private static double classifyRow(Classifier replica, Instance instance) {
+    if (replica == null) {
+      return -1;
+    }
+    try {
+      return replica.classifyInstance(instance);
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+    }
+    return -1;
+  }
+
+  /**
+   * Borrows a replica from the pool, or returns null if it can not be created.
+   *
+   * @return Classifier
+   */
+  private Classifier borrowReplicaOrNull() {
+    try {
+      return borrowReplica();
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+    }
+    return null;
+  }
+
+  /**
+   * Borrows a replica from the pool; it must be returned with returnReplica(Classifier). If no replica is idle, a new
+   * one is copied from the predictor, until the pool is full; then the calling thread waits for a free replica.
+   *
+   * @return Classifier
+   *
+   * @throws Exception if the replica can not be created or the thread is interrupted while waiting
+   */
+  private Classifier borrowReplica() throws Exception {
+    Classifier replica = idleReplicas.poll();
+    if (replica != null) {
+      return replica;
+    }
+    if (numReplicas.incrementAndGet() <= MAX_REPLICAS) {
+      try {
+        return AbstractClassifier.makeCopy(predictor);
+      }
+      catch (Exception e) {
+        numReplicas.decrementAndGet();
+        throw e;
+      }
+    }
+    numReplicas.decrementAndGet();
+    return idleReplicas.take();
+  }
+
+  private void returnReplica(Classifier replica) {
+    if (replica != null) {
+      idleReplicas.offer(replica);
+    }
+  }
+
+  /**
+   * Builds the first replica and classifies the first numPredictions instances of the training set with it, so that
+   * copying the model and lazily initialized structures of the predictor do not cost the first predictions after the
+   * snapshot is published. Must be called before the snapshot is published.
+   *
+   * @param trainingSet
+   * @param numPredictions
+   */
+  void warmUp(Instances trainingSet, int numPredictions) {
+    Classifier replica = borrowReplicaOrNull();
+    if (replica == null) {
+      return;
+    }
+    try {
+      int limit = Math.min(numPredictions, trainingSet.size());
+      for (int i = 0; i < limit; i++) {
+        replica.classifyInstance(trainingSet.get(i));
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+    }
+    finally {
+      returnReplica(replica);
+    }
+  }
+
+  /**
+   * Get the trained predictor. Must not be used for classification (use a replica) or changed.
+   *
+   * @return Classifier
+   */
+  Classifier getPredictor() {
+    return predictor;
+  }
+
+  /**
+   * Get number of replicas created so far (at most MAX_REPLICAS).
+   *
+   * @return number of replicas
+   */
+  public int getNumReplicas() {
+    return Math.min(numReplicas.get(), MAX_REPLICAS);
+  }
+
+  /**
+   * Returns the size of the serialized predictor in bytes, as estimate of its heap size. Computed on first call.
+   *
+   * @return serialized size
+   */
+  public long getSerializedSize() {
+    if (serializedSize < 0) {
+      serializedSize = getSerializedSize(predictor);
+    }
+    return serializedSize;
+  }
+
+  /**
+   * Returns the size of the serialized predictor in bytes, counted without buffering the serialized bytes.
+   *
+   * @param predictor
+   *
+   * @return serialized size, or -1 if the predictor can not be serialized
+   */
+  static long getSerializedSize(Classifier predictor) {
+    final long[] count = new long[1];
+    OutputStream counter = new OutputStream() {
+      @Override
+      public void write(int b) {
+        count[0]++;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        count[0] += len;
+      }
+    };
+    try (ObjectOutputStream output = new ObjectOutputStream(counter)) {
+      output.writeObject(predictor);
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+      return -1;
+    }
+    return count[0];
+  }
+
+  /**
+   * Get name abbrevation of the prediction technique (e.g., RandomF).
+   *
+   * @return predictor name
+   */
+  public String getPredictorName() {
+    return predictorName;
+  }
+
+  /**
+   * Get empty data set with the attribute structure the predictor was trained on.
+   *
+   * @return header
+   */
+  Instances getHeader() {
+    return header;
+  }
+
+  /**
+   * Get number of instances the predictor was trained on.
+   *
+   * @return number of trained instances
+   */
+  public int getTrainedInstances() {
+    return trainedInstances;
+  }
+
+  /**
+   * Get time of creation in milliseconds since epoch.
+   *
+   * @return creation time
+   */
+  public long getPublishedAt() {
+    return publishedAt;
+  }
+}
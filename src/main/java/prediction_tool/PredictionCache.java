@@ -0,0 +1,450 @@
+package prediction_tool;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PredictionCache stores predictions for recently requested input parameter configurations. Every input parameter value
+ * is quantized with a configurable step width (e.g., image sizes rounded to 10 pixels), so that similar configurations
+ * share one entry. A step width of 0 means the value must match exactly.
+ *
+ * The cache holds at most capacity entries. Keys are stored as primitive quantized values in open-addressing hash
+ * tables, so lookups create no objects. So that concurrent predictions do not all wait for one lock, the cache is split
+ * by key hash into shards (a power of two, about four per core, but at most capacity), each with its own lock, its own
+ * share of the capacity and its own LRU list; a full shard evicts its least recently used entry. All entries belong to
+ * one model snapshot; when a new snapshot is published, the cache is invalidated and predictions of older snapshots
+ * are rejected.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class PredictionCache {
+
+  private static final int EMPTY = -1;
+  static final int SHARDS_PER_CORE = 4;
+
+  private final int capacity;
+  private final int numInputs;
+  private final double[] quantizationSteps;
+  private final Shard[] shards;
+  private final int shardShift;
+  private final AtomicLong invalidations = new AtomicLong(0);
+
+  /**
+   * Creates cache with the given capacity for instances with quantizationSteps.length input parameters.
+   *
+   * @param capacity
+   * @param quantizationSteps
+   */
+  public PredictionCache(int capacity, double[] quantizationSteps) {
+    this(capacity, quantizationSteps, Runtime.getRuntime().availableProcessors() * SHARDS_PER_CORE);
+  }
+
+  /**
+   * Creates cache with the given capacity for instances with quantizationSteps.length input parameters, split into
+   * about numShards shards (rounded up to a power of two, at most capacity).
+   *
+   * @param capacity
+   * @param quantizationSteps
+   * @param numShards
+   */
+  public PredictionCache(int capacity, double[] quantizationSteps, int numShards) {
+    if (capacity < 1 || numShards < 1) {
+      throw new IllegalArgumentException("Cache capacity and number of shards must be positive.");
+    }
+    this.capacity = capacity;
+    this.numInputs = quantizationSteps.length;
+    this.quantizationSteps = quantizationSteps.clone();
+    int shardCount = 1;
+    while (shardCount < numShards && shardCount * 2 <= capacity) {
+      shardCount <<= 1;
+    }
+    this.shards = new Shard[shardCount];
+    // The shard is chosen by the highest hash bits, the slot within a shard by the lowest.
+    this.shardShift = 64 - Integer.numberOfTrailingZeros(shardCount);
+    for (int i = 0; i < shardCount; i++) {
+      int shardCapacity = capacity / shardCount + (i < capacity % shardCount ? 1 : 0);
+      shards[i] = new Shard(shardCapacity);
+    }
+  }
+
+  /**
+   * Returns the cached prediction for the input parameter values inputs[0, numInputs).
+   *
+   * @param inputs
+   *
+   * @return prediction, or NaN if the configuration is not cached
+   */
+  public double get(double[] inputs) {
+    long hash = hash(inputs);
+    return getShard(hash).get(inputs, hash);
+  }
+
+  /**
+   * Caches the prediction for the input parameter values inputs[0, numInputs), if it was made with the snapshot the
+   * cache currently belongs to. Evicts the least recently used entry of the shard if the shard is full.
+   *
+   * @param inputs
+   * @param prediction
+   * @param snapshot
+   */
+  public void put(double[] inputs, double prediction, Object snapshot) {
+    if (Double.isNaN(prediction)) {
+      return;
+    }
+    long hash = hash(inputs);
+    getShard(hash).put(inputs, hash, prediction, snapshot);
+  }
+
+  /**
+   * Removes all entries. Afterwards, only predictions made with the given snapshot are cached. The shards are
+   * invalidated one after another; a prediction of an older snapshot that is put meanwhile is rejected or removed by
+   * the invalidation of its shard.
+   *
+   * @param snapshot
+   */
+  public void invalidate(Object snapshot) {
+    for (Shard shard : shards) {
+      shard.invalidate(snapshot);
+    }
+    invalidations.incrementAndGet();
+  }
+
+  private Shard getShard(long hash) {
+    return shards.length == 1 ? shards[0] : shards[(int) (hash >>> shardShift)];
+  }
+
+  /**
+   * Returns quantized value of input parameter i.
+   *
+   * @param value
+   * @param i
+   *
+   * @return quantized value
+   */
+  private long quantize(double value, int i) {
+    double step = quantizationSteps[i];
+    return step > 0 ? Math.round(value / step) : Double.doubleToLongBits(value);
+  }
+
+  /**
+   * Returns hash of the quantized input parameter values.
+   *
+   * @param inputs
+   *
+   * @return hash
+   */
+  private long hash(double[] inputs) {
+    long hash = 0x9E3779B97F4A7C15L;
+    for (int i = 0; i < numInputs; i++) {
+      hash = (hash ^ quantize(inputs[i], i)) * 0xBF58476D1CE4E5B9L;
+      hash ^= hash >>> 31;
+    }
+    return hash;
+  }
+
+  /**
+   * Get number of cached predictions.
+   *
+   * @return size
+   */
+  public int size() {
+    int size = 0;
+    for (Shard shard : shards) {
+      size += shard.size();
+    }
+    return size;
+  }
+
+  /**
+   * Get number of input parameters per configuration.
+   *
+   * @return number of input parameters
+   */
+  public int getNumInputs() {
+    return numInputs;
+  }
+
+  /**
+   * Get maximum number of cached predictions.
+   *
+   * @return capacity
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Get step width of every input parameter (0 for exact values).
+   *
+   * @return quantization steps
+   */
+  public double[] getQuantizationSteps() {
+    return quantizationSteps.clone();
+  }
+
+  /**
+   * Get number of shards.
+   *
+   * @return number of shards
+   */
+  public int getNumShards() {
+    return shards.length;
+  }
+
+  /**
+   * Get number of lookups that found a cached prediction.
+   *
+   * @return number of hits
+   */
+  public long getHits() {
+    long hits = 0;
+    for (Shard shard : shards) {
+      hits += shard.getHits();
+    }
+    return hits;
+  }
+
+  /**
+   * Get number of lookups that found no cached prediction.
+   *
+   * @return number of misses
+   */
+  public long getMisses() {
+    long misses = 0;
+    for (Shard shard : shards) {
+      misses += shard.getMisses();
+    }
+    return misses;
+  }
+
+  /**
+   * Get ratio of hits to all lookups.
+   *
+   * @return hit rate between 0 and 1
+   */
+  public double getHitRate() {
+    long hits = getHits();
+    long lookups = hits + getMisses();
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  /**
+   * Get number of entries evicted because a shard was full.
+   *
+   * @return number of evictions
+   */
+  public long getEvictions() {
+    long evictions = 0;
+    for (Shard shard : shards) {
+      evictions += shard.getEvictions();
+    }
+    return evictions;
+  }
+
+  /**
+   * Get number of invalidations (i.e., published snapshots).
+   *
+   * @return number of invalidations
+   */
+  public long getInvalidations() {
+    return invalidations.get();
+  }
+
+  /**
+   * One shard of the cache: an LRU cache of a part of the capacity, guarded by its own lock.
+   */
+  private class Shard {
+
+    private final int capacity;
+    // Hash table of entry indices (linear probing), entries with quantized keys, values and LRU list.
+    private final int[] table;
+    private final int tableMask;
+    private final long[] keys;
+    private final long[] hashes;
+    private final double[] values;
+    private final int[] previous;
+    private final int[] next;
+    private int mostRecent = EMPTY;
+    private int leastRecent = EMPTY;
+    private int size = 0;
+    private Object owner;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    Shard(int capacity) {
+      this.capacity = capacity;
+      int tableSize = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+      this.table = new int[tableSize];
+      this.tableMask = tableSize - 1;
+      Arrays.fill(table, EMPTY);
+      this.keys = new long[capacity * numInputs];
+      this.hashes = new long[capacity];
+      this.values = new double[capacity];
+      this.previous = new int[capacity];
+      this.next = new int[capacity];
+    }
+
+    synchronized double get(double[] inputs, long hash) {
+      int entry = find(inputs, hash);
+      if (entry == EMPTY) {
+        misses++;
+        return Double.NaN;
+      }
+      hits++;
+      moveToFront(entry);
+      return values[entry];
+    }
+
+    synchronized void put(double[] inputs, long hash, double prediction, Object snapshot) {
+      if (snapshot != owner) {
+        return;
+      }
+      int entry = find(inputs, hash);
+      if (entry != EMPTY) {
+        values[entry] = prediction;
+        moveToFront(entry);
+        return;
+      }
+      if (size == capacity) {
+        entry = leastRecent;
+        removeFromTable(entry);
+        unlink(entry);
+        evictions++;
+      }
+      else {
+        entry = size++;
+      }
+      for (int i = 0; i < numInputs; i++) {
+        keys[entry * numInputs + i] = quantize(inputs[i], i);
+      }
+      hashes[entry] = hash;
+      values[entry] = prediction;
+      insertIntoTable(entry);
+      linkFront(entry);
+    }
+
+    synchronized void invalidate(Object snapshot) {
+      owner = snapshot;
+      if (size > 0) {
+        Arrays.fill(table, EMPTY);
+        size = 0;
+        mostRecent = EMPTY;
+        leastRecent = EMPTY;
+      }
+    }
+
+    /**
+     * Returns the entry with the same quantized input parameter values, or EMPTY.
+     *
+     * @param inputs
+     * @param hash
+     *
+     * @return entry index
+     */
+    private int find(double[] inputs, long hash) {
+      int slot = (int) hash & tableMask;
+      while (table[slot] != EMPTY) {
+        int entry = table[slot];
+        if (hashes[entry] == hash && keyEquals(entry, inputs)) {
+          return entry;
+        }
+        slot = (slot + 1) & tableMask;
+      }
+      return EMPTY;
+    }
+
+    private boolean keyEquals(int entry, double[] inputs) {
+      for (int i = 0; i < numInputs; i++) {
+        if (keys[entry * numInputs + i] != quantize(inputs[i], i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void insertIntoTable(int entry) {
+      int slot = (int) hashes[entry] & tableMask;
+      while (table[slot] != EMPTY) {
+        slot = (slot + 1) & tableMask;
+      }
+      table[slot] = entry;
+    }
+
+    /**
+     * Removes entry from the hash table and shifts following entries of the probe sequence back.
+     *
+     * @param entry
+     */
+    private void removeFromTable(int entry) {
+      int slot = (int) hashes[entry] & tableMask;
+      while (table[slot] != entry) {
+        slot = (slot + 1) & tableMask;
+      }
+      int gap = slot;
+      slot = (slot + 1) & tableMask;
+      while (table[slot] != EMPTY) {
+        int home = (int) hashes[table[slot]] & tableMask;
+        // Move entry into the gap if its home slot is not between the gap and its current slot.
+        if (((slot - home) & tableMask) >= ((slot - gap) & tableMask)) {
+          table[gap] = table[slot];
+          gap = slot;
+        }
+        slot = (slot + 1) & tableMask;
+      }
+      table[gap] = EMPTY;
+    }
+
+    private void moveToFront(int entry) {
+      if (entry != mostRecent) {
+        unlink(entry);
+        linkFront(entry);
+      }
+    }
+
+    private void linkFront(int entry) {
+      previous[entry] = EMPTY;
+      next[entry] = mostRecent;
+      if (mostRecent != EMPTY) {
+        previous[mostRecent] = entry;
+      }
+      mostRecent = entry;
+      if (leastRecent == EMPTY) {
+        leastRecent = entry;
+      }
+    }
+
+    private void unlink(int entry) {
+      if (previous[entry] != EMPTY) {
+        next[previous[entry]] = next[entry];
+      }
+      else {
+        mostRecent = next[entry];
+      }
+      if (next[entry] != EMPTY) {
+        previous[next[entry]] = previous[entry];
+      }
+      else {
+        leastRecent = previous[entry];
+      }
+    }
+
+    synchronized int size() {
+      return size;
+    }
+
+    synchronized long getHits() {
+      return hits;
+    }
+
+    synchronized long getMisses() {
+      return misses;
+    }
+
+    synchronized long getEvictions() {
+      return evictions;
+    }
+  }
+}
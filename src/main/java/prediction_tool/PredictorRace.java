@@ -0,0 +1,272 @@
+package prediction_tool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+/**
+ * PredictorRace trains the top-k prediction techniques recommended by the meta-classifier in parallel and picks the
+ * one with the lowest mean absolute error on a holdout slice, instead of trusting the meta-classifier's first choice.
+ * The holdout slice holds the newest instances of the training set; the candidates are trained on the older ones.
+ *
+ * The race does not wait longer than training the meta-classifier's choice would take: it ends as soon as the
+ * best-ranked candidate that did not fail is scored (or all candidates are done), and the best scored candidate wins.
+ * Candidates that are still training at that point could only win by taking longer than the recommended technique,
+ * so they are cancelled as losers. The race also ends when the wall-clock budget is used up; then the best candidate
+ * scored so far wins, if any.
+ *
+ * The candidates run on a shared pool of daemon threads that grows on demand and drops threads that are idle for a
+ * minute. Cancelled candidates are interrupted and skip scoring; Weka classifiers that ignore interrupts finish their
+ * build in the background, but they only keep their own thread busy and never delay the candidates of later races.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class PredictorRace {
+
+  static final double DEFAULT_HOLDOUT_FRACTION = 0.2;
+  static final int MIN_HOLDOUT_SIZE = 10;
+  static final long IDLE_THREAD_SECONDS = 60;
+
+  private static ExecutorService defaultPool;
+
+  private final ExecutorService pool;
+  private final int numCandidates;
+  private final long budgetMillis;
+  private final double holdoutFraction;
+
+  /**
+   * Creates race of the numCandidates best-ranked predictors on the shared default pool, which ends after at most
+   * budgetMillis milliseconds.
+   *
+   * @param numCandidates
+   * @param budgetMillis
+   */
+  public PredictorRace(int numCandidates, long budgetMillis) {
+    this(numCandidates, budgetMillis, DEFAULT_HOLDOUT_FRACTION);
+  }
+
+  /**
+   * Creates race of the numCandidates best-ranked predictors on the shared default pool, which ends after at most
+   * budgetMillis milliseconds. The newest holdoutFraction of the training set is used for scoring.
+   *
+   * @param numCandidates
+   * @param budgetMillis
+   * @param holdoutFraction
+   */
+  public PredictorRace(int numCandidates, long budgetMillis, double holdoutFraction) {
+    if (numCandidates < 1 || budgetMillis <= 0 || holdoutFraction <= 0 || holdoutFraction >= 1) {
+      throw new IllegalArgumentException("Invalid race configuration.");
+    }
+    this.pool = getDefaultPool();
+    this.numCandidates = numCandidates;
+    this.budgetMillis = budgetMillis;
+    this.holdoutFraction = holdoutFraction;
+  }
+
+  /**
+   * Returns the shared pool of daemon threads. Every submitted candidate gets a thread at once (idle threads are
+   * reused), so candidates that ignore their cancellation can not starve other races.
+   *
+   * @return ExecutorService
+   */
+  private static synchronized ExecutorService getDefaultPool() {
+    if (defaultPool == null) {
+      final AtomicInteger threadNumber = new AtomicInteger(0);
+      defaultPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, IDLE_THREAD_SECONDS, TimeUnit.SECONDS,
+          new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "predictor-race-" + threadNumber.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+    }
+    return defaultPool;
+  }
+
+  /**
+   * Returns true if a training set of the given size is large enough for a holdout slice.
+   *
+   * @param trainingSetSize
+   *
+   * @return true if race(List, Instances) can be run
+   */
+  public boolean hasHoldout(int trainingSetSize) {
+    return trainingSetSize - getHoldoutSize(trainingSetSize) >= getHoldoutSize(trainingSetSize);
+  }
+
+  private int getHoldoutSize(int trainingSetSize) {
+    return Math.max(MIN_HOLDOUT_SIZE, (int) Math.round(trainingSetSize * holdoutFraction));
+  }
+
+  /**
+   * Trains the first numCandidates of the ranked predictors on the training set without its holdout slice and returns
+   * the one with the lowest mean absolute error on the holdout slice among those scored before the race ended.
+   *
+   * @param rankedPredictorNames most promising first
+   * @param trainingSet in the order the instances were added
+   *
+   * @return winner, or null if the training set is too small for a holdout slice (see hasHoldout) or no candidate was
+   *         scored within the budget
+   */
+  public Result race(List<String> rankedPredictorNames, Instances trainingSet) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    if (!hasHoldout(trainingSet.size())) {
+      return null;
+    }
+    final int numTrained = trainingSet.size() - getHoldoutSize(trainingSet.size());
+    final Instances trainingPart = new Instances(trainingSet, 0, numTrained);
+    final DatasetView holdout = DatasetView.of(trainingSet).subset(numTrained, trainingSet.size());
+
+    CompletionService<Result> completionService = new ExecutorCompletionService<Result>(pool);
+    // Futures in rank order; a future is removed from the list when it is done.
+    List<Future<Result>> pending = new ArrayList<Future<Result>>();
+    for (final String predictorName : rankedPredictorNames) {
+      if (pending.size() == numCandidates) {
+        break;
+      }
+      final Classifier predictor = Predictors.getPredictorWithName(predictorName, numTrained);
+      if (predictor == null) {
+        continue;
+      }
+      pending.add(completionService.submit(new Callable<Result>() {
+        @Override
+        public Result call() throws Exception {
+          predictor.buildClassifier(new Instances(trainingPart));
+          if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException("Race ended before " + predictorName + " was scored.");
+          }
+          double mae = TestSetScore.score(predictor, holdout, false).getMAE();
+          return new Result(predictor, predictorName, mae, numTrained);
+        }
+      }));
+    }
+    // Until the best-ranked candidate is done, a later result can still be beaten by it.
+    Future<Result> reference = pending.isEmpty() ? null : pending.get(0);
+
+    Result winner = null;
+    try {
+      while (!pending.isEmpty()) {
+        long remaining = deadline - System.nanoTime();
+        Future<Result> future = completionService.poll(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        if (future == null) {
+          break;
+        }
+        pending.remove(future);
+        boolean scored = false;
+        try {
+          Result result = future.get();
+          scored = true;
+          if (winner == null || result.mae < winner.mae || Double.isNaN(winner.mae)) {
+            winner = result;
+          }
+        }
+        catch (ExecutionException e) {
+          e.getCause().printStackTrace();
+        }
+        if (future == reference) {
+          if (scored) {
+            break;
+          }
+          // The best-ranked candidate failed; the next-ranked one becomes the reference.
+          reference = pending.isEmpty() ? null : pending.get(0);
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      for (Future<Result> future : pending) {
+        future.cancel(true);
+      }
+    }
+    return winner;
+  }
+
+  /**
+   * Get maximum number of candidates per race.
+   *
+   * @return number of candidates
+   */
+  public int getNumCandidates() {
+    return numCandidates;
+  }
+
+  /**
+   * Get wall-clock budget of a race in milliseconds.
+   *
+   * @return budget
+   */
+  public long getBudgetMillis() {
+    return budgetMillis;
+  }
+
+  /**
+   * Get share of the training set that is used as holdout slice.
+   *
+   * @return holdout fraction
+   */
+  public double getHoldoutFraction() {
+    return holdoutFraction;
+  }
+
+  /**
+   * Trained winner of a race.
+   */
+  public static class Result {
+
+    private final Classifier predictor;
+    private final String predictorName;
+    private final double mae;
+    private final int trainedInstances;
+
+    Result(Classifier predictor, String predictorName, double mae, int trainedInstances) {
+      this.predictor = predictor;
+      this.predictorName = predictorName;
+      this.mae = mae;
+      this.trainedInstances = trainedInstances;
+    }
+
+    /**
+     * Get the predictor, trained on the first getTrainedInstances() instances of the training set.
+     *
+     * @return Classifier
+     */
+    public Classifier getPredictor() {
+      return predictor;
+    }
+
+    public String getPredictorName() {
+      return predictorName;
+    }
+
+    /**
+     * Get mean absolute error on the holdout slice.
+     *
+     * @return MAE
+     */
+    public double getMAE() {
+      return mae;
+    }
+
+    public int getTrainedInstances() {
+      return trainedInstances;
+    }
+  }
+}
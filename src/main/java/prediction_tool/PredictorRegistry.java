@@ -0,0 +1,341 @@
+package prediction_tool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.functions.LinearRegression;
+import weka.classifiers.functions.MultilayerPerceptron;
+import weka.classifiers.functions.SGD;
+import weka.classifiers.functions.SMOreg;
+import weka.classifiers.lazy.IBk;
+import weka.classifiers.meta.Bagging;
+import weka.classifiers.rules.ZeroR;
+import weka.classifiers.trees.M5P;
+import weka.classifiers.trees.REPTree;
+import weka.classifiers.trees.RandomForest;
+import weka.core.OptionHandler;
+import weka.core.Utils;
+
+/**
+ * PredictorRegistry maps the name abbrevation of a prediction technique (e.g., RandomF) to a factory that creates the
+ * predictor with its option settings. The option strings are parsed once when a predictor is registered; every call
+ * of create(String) returns a new, untrained instance of only the requested predictor, so concurrent trainings never
+ * share a predictor.
+ *
+ * The default registry contains the prediction techniques of Predictors. Predictor names keep their registration
+ * order.
+ *
+ * Besides its default options, a predictor can have tuned options for training sets up to a maximum size (size bands,
+ * see PredictorTuner), which are used by create(String, int). The default registry loads tuned options from the
+ * properties file given by the system property prediction_tool.tunedPredictors or from
+ * ./evaluation/tunedPredictors.properties, if it exists. Every key has the form [name].[maximum training set size].
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class PredictorRegistry {
+
+  static final String TUNED_PROFILES_PATH = "./evaluation/tunedPredictors.properties";
+  // System property that overrides the location of the tuned options.
+  static final String TUNED_PROFILES_PROPERTY = "prediction_tool.tunedPredictors";
+
+  private static final PredictorRegistry DEFAULT_REGISTRY = createDefault();
+
+  private final ConcurrentHashMap<String, PredictorFactory> factories =
+      new ConcurrentHashMap<String, PredictorFactory>();
+  private final CopyOnWriteArrayList<String> names = new CopyOnWriteArrayList<String>();
+  // Tuned factories per name, by maximum training set size.
+  private final ConcurrentHashMap<String, ConcurrentSkipListMap<Integer, PredictorFactory>> tunedFactories =
+      new ConcurrentHashMap<String, ConcurrentSkipListMap<Integer, PredictorFactory>>();
+
+  /**
+   * Returns process-wide registry with the default prediction techniques.
+   *
+   * @return PredictorRegistry
+   */
+  public static PredictorRegistry getDefault() {
+    return DEFAULT_REGISTRY;
+  }
+
+  /**
+   * Creates registry with the default prediction techniques and option settings.
+   *
+   * @return PredictorRegistry
+   */
+  private static PredictorRegistry createDefault() {
+    PredictorRegistry registry = new PredictorRegistry();
+    // Changes some of the (default) predictor options (e.g., number of bags for RandomForest).
+    // Optimization of predictor option settings is appreciated for further prediction accuracy gains.
+    registry.register("ZeroR", ZeroR.class, "");
+    registry.register("ANN", MultilayerPerceptron.class, "-L 0.1 -M 0.2 -N 2000 -V 0 -S 0 -E 20");
+    registry.register("SGD", SGD.class, "-F 4");
+    registry.register("RandomF", RandomForest.class, "-I 250");
+    registry.register("SVR", SMOreg.class, "");
+    registry.register("LinReg", LinearRegression.class, "-S 1");
+    registry.register("kNN", IBk.class, "-K 5 -X -I");
+    registry.register("Bagging", Bagging.class, "-I 25");
+    registry.register("M5", M5P.class, "");
+    registry.register("CART", REPTree.class, "");
+    File tunedProfiles = new File(System.getProperty(TUNED_PROFILES_PROPERTY, TUNED_PROFILES_PATH));
+    if (tunedProfiles.isFile()) {
+      registry.loadTunedProfiles(tunedProfiles);
+    }
+    return registry;
+  }
+
+  /**
+   * Loads tuned options from a properties file written by PredictorTuner. Every key has the form [name].[maximum
+   * training set size]; the value is the option string.
+   *
+   * @param file
+   *
+   * @return number of loaded option strings
+   */
+  public int loadTunedProfiles(File file) {
+    Properties properties = new Properties();
+    try (InputStream stream = new FileInputStream(file)) {
+      properties.load(stream);
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+      return 0;
+    }
+    int numLoaded = 0;
+    for (String key : properties.stringPropertyNames()) {
+      int separator = key.lastIndexOf('.');
+      if (separator < 0) {
+        continue;
+      }
+      try {
+        int maxTrainingSetSize = Integer.parseInt(key.substring(separator + 1));
+        if (setOptions(key.substring(0, separator), maxTrainingSetSize, properties.getProperty(key))) {
+          numLoaded++;
+        }
+      }
+      catch (NumberFormatException e) {
+        System.out.println("Ignoring tuned options with invalid key " + key);
+      }
+    }
+    return numLoaded;
+  }
+
+  /**
+   * Registers the predictor class with the given option string under the name, or replaces the options of an already
+   * registered name. The option string is parsed and checked once by creating a predictor.
+   *
+   * @param name
+   * @param predictorClass
+   * @param options
+   *
+   * @return false if the options can not be parsed or are not accepted by the predictor
+   */
+  public boolean register(String name, Class<? extends Classifier> predictorClass, String options) {
+    PredictorFactory factory;
+    try {
+      factory = new PredictorFactory(predictorClass, Utils.splitOptions(options), options);
+      factory.create();
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return false;
+    }
+    synchronized (names) {
+      if (factories.put(name, factory) == null) {
+        names.add(name);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Registers the predictor registered under name with other options, e.g., tuned option settings.
+   *
+   * @param name
+   * @param options
+   *
+   * @return false if the name is unknown or the options are not accepted by the predictor
+   */
+  public boolean setOptions(String name, String options) {
+    PredictorFactory factory = factories.get(name);
+    return factory != null && register(name, factory.predictorClass, options);
+  }
+
+  /**
+   * Sets tuned options of the predictor registered under name for training sets of at most maxTrainingSetSize
+   * instances (and more than the next smaller size band).
+   *
+   * @param name
+   * @param maxTrainingSetSize
+   * @param options
+   *
+   * @return false if the name is unknown or the options are not accepted by the predictor
+   */
+  public boolean setOptions(String name, int maxTrainingSetSize, String options) {
+    PredictorFactory factory = factories.get(name);
+    if (factory == null) {
+      return false;
+    }
+    PredictorFactory tunedFactory;
+    try {
+      tunedFactory = new PredictorFactory(factory.predictorClass, Utils.splitOptions(options), options);
+      tunedFactory.create();
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return false;
+    }
+    ConcurrentSkipListMap<Integer, PredictorFactory> bands = tunedFactories.get(name);
+    if (bands == null) {
+      tunedFactories.putIfAbsent(name, new ConcurrentSkipListMap<Integer, PredictorFactory>());
+      bands = tunedFactories.get(name);
+    }
+    bands.put(maxTrainingSetSize, tunedFactory);
+    return true;
+  }
+
+  /**
+   * Returns the factory for training sets of the given size: the tuned factory of the smallest size band that contains
+   * the size, or the default factory.
+   *
+   * @param name
+   * @param trainingSetSize
+   *
+   * @return PredictorFactory, or null if the name is unknown
+   */
+  private PredictorFactory getFactory(String name, int trainingSetSize) {
+    ConcurrentSkipListMap<Integer, PredictorFactory> bands = tunedFactories.get(name);
+    if (bands != null) {
+      Map.Entry<Integer, PredictorFactory> band = bands.ceilingEntry(trainingSetSize);
+      if (band != null) {
+        return band.getValue();
+      }
+    }
+    return factories.get(name);
+  }
+
+  /**
+   * Creates a new, untrained predictor with the given name abbrevation and the options tuned for training sets of the
+   * given size (or the default options if there are none).
+   *
+   * @param name
+   * @param trainingSetSize
+   *
+   * @return Classifier, or null if the name is unknown or the predictor can not be created
+   */
+  public Classifier create(String name, int trainingSetSize) {
+    PredictorFactory factory = getFactory(name, trainingSetSize);
+    if (factory == null) {
+      return null;
+    }
+    try {
+      return factory.create();
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+    }
+    return null;
+  }
+
+  /**
+   * Creates a new, untrained predictor with the given name abbrevation.
+   *
+   * @param name
+   *
+   * @return Classifier, or null if the name is unknown or the predictor can not be created
+   */
+  public Classifier create(String name) {
+    PredictorFactory factory = factories.get(name);
+    if (factory == null) {
+      return null;
+    }
+    try {
+      return factory.create();
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+    }
+    return null;
+  }
+
+  /**
+   * Get names of all registered predictors in registration order.
+   *
+   * @return names
+   */
+  public List<String> getNames() {
+    return Collections.unmodifiableList(new ArrayList<String>(names));
+  }
+
+  /**
+   * Get option string of the predictor with the given name.
+   *
+   * @param name
+   *
+   * @return options, or null if the name is unknown
+   */
+  public String getOptions(String name) {
+    PredictorFactory factory = factories.get(name);
+    return factory == null ? null : factory.optionString;
+  }
+
+  /**
+   * Get option string of the predictor with the given name for training sets of the given size.
+   *
+   * @param name
+   * @param trainingSetSize
+   *
+   * @return options, or null if the name is unknown
+   */
+  public String getOptions(String name, int trainingSetSize) {
+    PredictorFactory factory = getFactory(name, trainingSetSize);
+    return factory == null ? null : factory.optionString;
+  }
+
+  /**
+   * Get class of the predictor with the given name.
+   *
+   * @param name
+   *
+   * @return predictor class, or null if the name is unknown
+   */
+  public Class<? extends Classifier> getPredictorClass(String name) {
+    PredictorFactory factory = factories.get(name);
+    return factory == null ? null : factory.predictorClass;
+  }
+
+  /**
+   * Creates predictors of one class with parsed options.
+   */
+  private static class PredictorFactory {
+
+    final Class<? extends Classifier> predictorClass;
+    final String[] options;
+    final String optionString;
+
+    PredictorFactory(Class<? extends Classifier> predictorClass, String[] options, String optionString) {
+      this.predictorClass = predictorClass;
+      this.options = options;
+      this.optionString = optionString;
+    }
+
+    Classifier create() throws Exception {
+      Classifier predictor = predictorClass.newInstance();
+      if (options.length > 0) {
+        // Weka consumes the options array, so every predictor gets its own copy.
+        ((OptionHandler) predictor).setOptions(options.clone());
+      }
+      return predictor;
+    }
+  }
+}
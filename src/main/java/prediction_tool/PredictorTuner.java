@@ -0,0 +1,428 @@
+package prediction_tool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import weka.classifiers.Classifier;
+import weka.core.OptionHandler;
+import weka.core.Utils;
+
+/**
+ * PredictorTuner searches the option settings of the predictors of the PredictorRegistry by successive halving and
+ * writes the best option strings per training set size band to a properties file, which the default PredictorRegistry
+ * loads on start (see PredictorRegistry.TUNED_PROFILES_PATH).
+ *
+ * For every predictor and size band, up to MAX_CONFIGURATIONS option settings of the predictor's search space (always
+ * including the registered default options) are trained on a training set of the band's size and scored by their mean
+ * absolute error on a test set, first on one runtime data set. The best third is evaluated on three times as many data
+ * sets, and so on, until one setting is left or all data sets are used. Settings are compared by their MAE relative to
+ * that of the default options on the same data sets, so data sets with large runtimes do not dominate.
+ *
+ * All evaluations run in parallel on a fork-join pool. The tuning stops when the CPU-time budget (summed over all
+ * threads) is used up; it is split evenly among the (predictor, size band) searches, and budget left over by a search
+ * is passed on to the following ones.
+ *
+ * Usage: PredictorTuner [cpuBudgetMinutes [parallelism [dataDirectory]]] (default: 60, number of cores, ./data/arff)
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class PredictorTuner {
+
+  // Largest training set size of every size band; the options of a band are tuned on training sets of this size.
+  static final int[] SIZE_BANDS = new int[] {200, 2000, 7500};
+  static final int ETA = 3;
+  static final int MAX_CONFIGURATIONS = 27;
+  static final int TESTSET_SIZE = 1000;
+  static final String DATA_DIRECTORY = "./data/arff";
+
+  private static final Map<String, SearchSpace> SEARCH_SPACES = createSearchSpaces();
+
+  private final ForkJoinPool pool;
+  private final PredictorRegistry registry;
+  private final List<String> filepaths;
+  private final long seed;
+  private final AtomicLong usedCpuTime = new AtomicLong(0);
+
+  /**
+   * Creates tuner that evaluates on the data sets of the given files with the given number of threads.
+   *
+   * @param filepaths
+   * @param parallelism
+   * @param seed
+   */
+  public PredictorTuner(List<String> filepaths, int parallelism, long seed) {
+    this.pool = new ForkJoinPool(parallelism);
+    this.registry = PredictorRegistry.getDefault();
+    this.filepaths = filepaths;
+    this.seed = seed;
+  }
+
+  /**
+   * Creates the search spaces: options that are kept fixed and, per option, the values to try.
+   *
+   * @return search spaces by predictor name
+   */
+  private static Map<String, SearchSpace> createSearchSpaces() {
+    Map<String, SearchSpace> spaces = new LinkedHashMap<String, SearchSpace>();
+    spaces.put("ANN", new SearchSpace("-M 0.2 -V 0 -S 0 -E 20", new String[] {"-L 0.1", "-L 0.3"},
+        new String[] {"-N 200", "-N 500", "-N 2000"}, new String[] {"-H a", "-H t"}));
+    spaces.put("SGD", new SearchSpace("-F 4", new String[] {"-L 0.01", "-L 0.001"},
+        new String[] {"-R 1.0E-4", "-R 0.01"}, new String[] {"-E 100", "-E 500"}));
+    spaces.put("RandomF", new SearchSpace("", new String[] {"-I 50", "-I 100", "-I 250"},
+        new String[] {"-K 0", "-K 1"}, new String[] {"-depth 0", "-depth 20"}));
+    spaces.put("SVR", new SearchSpace("", new String[] {"-C 0.5", "-C 1.0", "-C 4.0"},
+        new String[] {"-N 0", "-N 1"}));
+    spaces.put("LinReg", new SearchSpace("", new String[] {"-S 0", "-S 1"}, new String[] {"-R 1.0E-8", "-R 1.0E-4"}));
+    spaces.put("kNN", new SearchSpace("", new String[] {"-K 1", "-K 3", "-K 5", "-K 10"},
+        new String[] {"", "-X"}, new String[] {"", "-I", "-F"}));
+    spaces.put("Bagging", new SearchSpace("", new String[] {"-I 10", "-I 25", "-I 50"},
+        new String[] {"-P 100", "-P 50"}));
+    spaces.put("M5", new SearchSpace("", new String[] {"-M 4", "-M 10", "-M 20"}, new String[] {"", "-R"},
+        new String[] {"", "-N"}));
+    spaces.put("CART", new SearchSpace("", new String[] {"-M 2", "-M 5", "-M 10"},
+        new String[] {"-L -1", "-L 6", "-L 10"}, new String[] {"", "-P"}));
+    return spaces;
+  }
+
+  /**
+   * Tunes all predictors with a search space for all size bands within the CPU-time budget.
+   *
+   * @param cpuBudgetMillis
+   *
+   * @return tuned option strings; keys have the form [name].[maximum training set size]
+   */
+  public Properties tune(long cpuBudgetMillis) {
+    Properties profiles = new Properties();
+    long budget = cpuBudgetMillis * 1000000;
+    int numSearches = 0;
+    for (String name : SEARCH_SPACES.keySet()) {
+      numSearches += registry.getOptions(name) == null ? 0 : SIZE_BANDS.length;
+    }
+    for (Map.Entry<String, SearchSpace> entry : SEARCH_SPACES.entrySet()) {
+      String name = entry.getKey();
+      String defaultOptions = registry.getOptions(name);
+      if (defaultOptions == null) {
+        continue;
+      }
+      for (int bandSize : SIZE_BANDS) {
+        long searchBudget = Math.max(0, budget - usedCpuTime.get()) / numSearches;
+        numSearches--;
+        String options = tune(name, defaultOptions, entry.getValue(), bandSize, searchBudget);
+        profiles.setProperty(name + "." + bandSize, options);
+        System.out.println(name + " (training sets up to " + bandSize + "): " + options);
+      }
+    }
+    return profiles;
+  }
+
+  /**
+   * Searches the best options of one predictor for one size band by successive halving.
+   *
+   * @param name
+   * @param defaultOptions
+   * @param space
+   * @param bandSize
+   * @param budget CPU time in nanoseconds
+   *
+   * @return best options (the default options if no other setting was better)
+   */
+  private String tune(String name, String defaultOptions, SearchSpace space, int bandSize, long budget) {
+    long cpuTimeLimit = usedCpuTime.get() + budget;
+    List<String> datasets = getDatasets(bandSize);
+    List<String> survivors = space.createConfigurations(defaultOptions, new Random(seed + bandSize));
+    Map<String, double[]> maes = new HashMap<String, double[]>();
+    for (String options : survivors) {
+      double[] values = new double[datasets.size()];
+      Arrays.fill(values, Double.NaN);
+      maes.put(options, values);
+    }
+    final Map<String, Double> scores = new HashMap<String, Double>();
+    int numDatasets = 1;
+    while (!datasets.isEmpty()) {
+      int rungDatasets = Math.min(numDatasets, datasets.size());
+      List<String> evaluated = new ArrayList<String>(survivors);
+      if (!evaluated.contains(defaultOptions)) {
+        evaluated.add(defaultOptions);
+      }
+      evaluate(name, evaluated, datasets, rungDatasets, bandSize, maes, cpuTimeLimit);
+      for (String options : survivors) {
+        scores.put(options, getRelativeError(maes.get(options), maes.get(defaultOptions), rungDatasets));
+      }
+      Collections.sort(survivors, new Comparator<String>() {
+        @Override
+        public int compare(String first, String second) {
+          return Double.compare(scores.get(first), scores.get(second));
+        }
+      });
+      if (survivors.size() == 1 || rungDatasets == datasets.size() || usedCpuTime.get() >= cpuTimeLimit) {
+        break;
+      }
+      survivors = new ArrayList<String>(survivors.subList(0, (survivors.size() + ETA - 1) / ETA));
+      numDatasets *= ETA;
+    }
+    String best = survivors.isEmpty() ? defaultOptions : survivors.get(0);
+    Double bestScore = scores.get(best);
+    return bestScore == null || bestScore.isInfinite() || bestScore >= 1 ? defaultOptions : best;
+  }
+
+  /**
+   * Returns the files of the data sets that are large enough for a training set of the band's size and the test set,
+   * in a random order.
+   *
+   * @param bandSize
+   *
+   * @return filepaths
+   */
+  private List<String> getDatasets(int bandSize) {
+    List<String> datasets = new ArrayList<String>();
+    for (String filepath : filepaths) {
+      DatasetView dataset = DatasetLoader.loadView(filepath);
+      if (dataset != null && dataset.size() >= bandSize + TESTSET_SIZE) {
+        datasets.add(filepath);
+      }
+    }
+    Collections.shuffle(datasets, new Random(seed));
+    return datasets;
+  }
+
+  /**
+   * Evaluates the option settings on the first numDatasets data sets, skipping evaluations that are already done.
+   * Evaluations that start after the CPU-time limit was reached are skipped and keep a missing MAE.
+   *
+   * @param name
+   * @param configurations
+   * @param datasets
+   * @param numDatasets
+   * @param bandSize
+   * @param maes per option setting and data set
+   * @param cpuTimeLimit
+   */
+  private void evaluate(final String name, List<String> configurations, List<String> datasets, int numDatasets,
+      final int bandSize, Map<String, double[]> maes, final long cpuTimeLimit) {
+    Map<ForkJoinTask<Double>, double[]> targets = new LinkedHashMap<ForkJoinTask<Double>, double[]>();
+    Map<ForkJoinTask<Double>, Integer> indices = new HashMap<ForkJoinTask<Double>, Integer>();
+    for (final String options : configurations) {
+      double[] values = maes.get(options);
+      for (int i = 0; i < numDatasets; i++) {
+        if (!Double.isNaN(values[i])) {
+          continue;
+        }
+        final String filepath = datasets.get(i);
+        ForkJoinTask<Double> task = pool.submit(new Callable<Double>() {
+          @Override
+          public Double call() throws Exception {
+            if (usedCpuTime.get() >= cpuTimeLimit) {
+              return Double.NaN;
+            }
+            long startTime = RetrainingScheduler.getBusyTime();
+            try {
+              return evaluate(name, options, filepath, bandSize);
+            }
+            finally {
+              usedCpuTime.addAndGet(RetrainingScheduler.getBusyTime() - startTime);
+            }
+          }
+        });
+        targets.put(task, values);
+        indices.put(task, i);
+      }
+    }
+    for (Map.Entry<ForkJoinTask<Double>, double[]> target : targets.entrySet()) {
+      try {
+        target.getValue()[indices.get(target.getKey())] = target.getKey().get();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      catch (ExecutionException e) {
+        // Options that fail on a data set lose against all others.
+        target.getValue()[indices.get(target.getKey())] = Double.POSITIVE_INFINITY;
+      }
+    }
+  }
+
+  /**
+   * Trains the predictor with the options on a training set of bandSize instances of the data set and returns its
+   * mean absolute error on the test set.
+   *
+   * @param name
+   * @param options
+   * @param filepath
+   * @param bandSize
+   *
+   * @return MAE
+   *
+   * @throws Exception if the predictor can not be created, trained or evaluated
+   */
+  private double evaluate(String name, String options, String filepath, int bandSize) throws Exception {
+    DatasetView dataset = DatasetLoader.loadView(filepath).shuffle(seed);
+    Classifier predictor = registry.getPredictorClass(name).newInstance();
+    ((OptionHandler) predictor).setOptions(Utils.splitOptions(options));
+    predictor.buildClassifier(dataset.subset(TESTSET_SIZE, TESTSET_SIZE + bandSize).toInstances());
+    return TestSetScore.score(predictor, dataset.subset(0, TESTSET_SIZE), false).getMAE();
+  }
+
+  /**
+   * Returns the mean ratio of the MAEs of an option setting to those of the default options on the first numDatasets
+   * data sets.
+   *
+   * @param maes
+   * @param defaultMaes
+   * @param numDatasets
+   *
+   * @return relative error (1 if equal to the default options), infinity if an evaluation is missing or failed
+   */
+  private static double getRelativeError(double[] maes, double[] defaultMaes, int numDatasets) {
+    double sum = 0;
+    int count = 0;
+    for (int i = 0; i < numDatasets; i++) {
+      if (Double.isNaN(maes[i]) || Double.isInfinite(maes[i])) {
+        return Double.POSITIVE_INFINITY;
+      }
+      if (defaultMaes[i] > 0 && !Double.isInfinite(defaultMaes[i])) {
+        sum += maes[i] / defaultMaes[i];
+        count++;
+      }
+    }
+    return count == 0 ? Double.POSITIVE_INFINITY : sum / count;
+  }
+
+  /**
+   * Writes the tuned options to the properties file (via a temporary file, so the registry never reads a partial
+   * file).
+   *
+   * @param profiles
+   * @param file
+   *
+   * @throws IOException
+   */
+  public static void writeProfiles(Properties profiles, Path file) throws IOException {
+    Path directory = file.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+    Path temporaryFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      try (OutputStream stream = Files.newOutputStream(temporaryFile)) {
+        profiles.store(stream, "Tuned predictor options by PredictorTuner; keys: [name].[maximum training set size]");
+      }
+      Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally {
+      Files.deleteIfExists(temporaryFile);
+    }
+  }
+
+  /**
+   * Stops the worker threads.
+   */
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  public static void main(String[] args) {
+    long cpuBudgetMinutes = args.length > 0 ? Long.parseLong(args[0]) : 60;
+    int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    File directory = new File(args.length > 2 ? args[2] : DATA_DIRECTORY);
+    List<String> filepaths = new ArrayList<String>();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String filename = file.getName();
+        if (filename.endsWith(".arff") || filename.endsWith(".csv")
+            || filename.endsWith(ColumnarDataset.FILE_EXTENSION)) {
+          filepaths.add(file.getPath());
+        }
+      }
+    }
+    Collections.sort(filepaths);
+    PredictorTuner tuner = new PredictorTuner(filepaths, parallelism, 0);
+    try {
+      Properties profiles = tuner.tune(cpuBudgetMinutes * 60 * 1000);
+      writeProfiles(profiles, Paths.get(PredictorRegistry.TUNED_PROFILES_PATH));
+      System.out.println("CPU time used: " + tuner.usedCpuTime.get() / 1000000000 + " s");
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+    finally {
+      tuner.shutdown();
+    }
+  }
+
+  /**
+   * Option values to try for one predictor: options kept fixed and, per option, the alternatives.
+   */
+  private static class SearchSpace {
+
+    private final String fixedOptions;
+    private final String[][] dimensions;
+
+    SearchSpace(String fixedOptions, String[]... dimensions) {
+      this.fixedOptions = fixedOptions;
+      this.dimensions = dimensions;
+    }
+
+    /**
+     * Returns the default options and up to MAX_CONFIGURATIONS - 1 random other settings of the search space.
+     *
+     * @param defaultOptions
+     * @param random
+     *
+     * @return option strings, default options first
+     */
+    List<String> createConfigurations(String defaultOptions, Random random) {
+      List<String> configurations = new ArrayList<String>();
+      int[] choice = new int[dimensions.length];
+      while (true) {
+        StringBuilder options = new StringBuilder(fixedOptions);
+        for (int i = 0; i < dimensions.length; i++) {
+          String value = dimensions[i][choice[i]];
+          if (!value.isEmpty()) {
+            options.append(options.length() > 0 ? " " : "").append(value);
+          }
+        }
+        configurations.add(options.toString());
+        int i = 0;
+        while (i < dimensions.length && ++choice[i] == dimensions[i].length) {
+          choice[i] = 0;
+          i++;
+        }
+        if (i == dimensions.length) {
+          break;
+        }
+      }
+      Collections.shuffle(configurations, random);
+      LinkedHashSet<String> selected = new LinkedHashSet<String>();
+      selected.add(defaultOptions);
+      for (String configuration : configurations) {
+        if (selected.size() == MAX_CONFIGURATIONS) {
+          break;
+        }
+        selected.add(configuration);
+      }
+      return new ArrayList<String>(selected);
+    }
+  }
+}
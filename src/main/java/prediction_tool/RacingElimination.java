@@ -0,0 +1,305 @@
+package prediction_tool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import weka.core.Instance;
+import weka.core.Statistics;
+import weka.experiment.PairedStats;
+
+/**
+ * RacingElimination keeps the MAEs of every predictor per step of one data set across the seeds of a stepwise
+ * evaluation and drops predictors that are statistically dominated, so that later seeds do not train them again.
+ *
+ * After at least minSeeds seeds, every remaining predictor of a step is compared to the step's leader (the remaining
+ * predictor with the lowest mean MAE) with a paired t-test over the seeds (Weka's PairedStats, two-sided). A predictor
+ * whose MAE is higher than the leader's at the significance level is eliminated for that step, unless it was the best
+ * predictor of more than maxWinShare of the seeds evaluated so far. The tests are repeated after every seed without
+ * correction for multiple testing; use a small significance level (e.g. 0.01).
+ *
+ * Elimination changes the bestPredictor data set: its label is the best predictor of each single seed, and a predictor
+ * with a significantly higher mean MAE can still be the best one on some seeds. After it is eliminated, such seeds are
+ * labelled with the runner-up instead. The win share bound (by default, only predictors that have not been the best
+ * one on any seed so far are eliminated) limits this to predictors that rarely win, but it does not rule it out: a
+ * predictor that never won on the first seeds can still win on a later one. getExpectedLabelChanges() bounds the
+ * expected number of changed labels: for every eliminated predictor, the probability that it would have beaten the
+ * leader on a further seed (from the paired MAE differences, see getWinProbability) times the number of remaining
+ * seeds.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class RacingElimination {
+
+  static final int DEFAULT_MIN_SEEDS = 3;
+  static final double DEFAULT_SIGNIFICANCE = 0.01;
+  static final double DEFAULT_MAX_WIN_SHARE = 0;
+
+  private final int numSeeds;
+  private final int minSeeds;
+  private final double significance;
+  private final double maxWinShare;
+  // MAE by step, predictor and seed index (NaN where the predictor was not evaluated).
+  private final Map<Integer, Map<String, double[]>> maes = new HashMap<Integer, Map<String, double[]>>();
+  private final Map<Integer, Set<String>> eliminated = new HashMap<Integer, Set<String>>();
+  private double expectedLabelChanges = 0;
+
+  /**
+   * Creates elimination for an evaluation with numSeeds seeds, which starts eliminating after minSeeds seeds and only
+   * eliminates predictors that have not been the best one on any seed.
+   *
+   * @param numSeeds
+   * @param minSeeds at least 2
+   * @param significance
+   */
+  public RacingElimination(int numSeeds, int minSeeds, double significance) {
+    this(numSeeds, minSeeds, significance, DEFAULT_MAX_WIN_SHARE);
+  }
+
+  /**
+   * Creates elimination for an evaluation with numSeeds seeds, which starts eliminating after minSeeds seeds and only
+   * eliminates predictors that have been the best one on at most maxWinShare of the seeds.
+   *
+   * @param numSeeds
+   * @param minSeeds at least 2
+   * @param significance
+   * @param maxWinShare between 0 and 1
+   */
+  public RacingElimination(int numSeeds, int minSeeds, double significance, double maxWinShare) {
+    if (minSeeds < 2 || significance <= 0 || significance >= 1 || maxWinShare < 0 || maxWinShare > 1) {
+      throw new IllegalArgumentException("Invalid racing configuration.");
+    }
+    this.numSeeds = numSeeds;
+    this.minSeeds = minSeeds;
+    this.significance = significance;
+    this.maxWinShare = maxWinShare;
+  }
+
+  /**
+   * Get number of seeds that are evaluated before the first elimination.
+   *
+   * @return minimum number of seeds
+   */
+  public int getMinSeeds() {
+    return minSeeds;
+  }
+
+  /**
+   * Returns true if the predictor was eliminated for the step.
+   *
+   * @param step
+   * @param predictorName
+   *
+   * @return true if the predictor is not evaluated for further seeds
+   */
+  public synchronized boolean isEliminated(int step, String predictorName) {
+    Set<String> eliminatedPredictors = eliminated.get(step);
+    return eliminatedPredictors != null && eliminatedPredictors.contains(predictorName);
+  }
+
+  /**
+   * Adds the MAEs of the evaluation instances (see StepwiseEvaluation.createEvaluationDataset) of one (seed, step)
+   * combination. Instances of eliminated predictors are ignored.
+   *
+   * @param seedIndex
+   * @param step
+   * @param evaluationInstances
+   */
+  public synchronized void add(int seedIndex, int step, List<Instance> evaluationInstances) {
+    Map<String, double[]> stepMaes = maes.get(step);
+    if (stepMaes == null) {
+      stepMaes = new HashMap<String, double[]>();
+      maes.put(step, stepMaes);
+    }
+    for (Instance instance : evaluationInstances) {
+      String predictorName = instance.stringValue(StepwiseEvaluation.PREDICTOR_INDEX);
+      if (isEliminated(step, predictorName)) {
+        continue;
+      }
+      double[] values = stepMaes.get(predictorName);
+      if (values == null) {
+        values = new double[numSeeds];
+        Arrays.fill(values, Double.NaN);
+        stepMaes.put(predictorName, values);
+      }
+      values[seedIndex] = instance.value(StepwiseEvaluation.RATING_PARAM_INDEX);
+    }
+  }
+
+  /**
+   * Tests the remaining predictors of every step against the step's leader and eliminates the dominated ones that do
+   * not win more than maxWinShare of the seeds.
+   *
+   * @return newly eliminated predictors as "step: name" strings
+   */
+  public synchronized List<String> eliminate() {
+    List<String> newlyEliminated = new ArrayList<String>();
+    for (Map.Entry<Integer, Map<String, double[]>> entry : maes.entrySet()) {
+      int step = entry.getKey();
+      String leader = getLeader(step, entry.getValue());
+      if (leader == null) {
+        continue;
+      }
+      double[] leaderMaes = entry.getValue().get(leader);
+      Map<String, Double> winShares = getWinShares(entry.getValue());
+      for (Map.Entry<String, double[]> predictor : entry.getValue().entrySet()) {
+        String predictorName = predictor.getKey();
+        Double winShare = winShares.get(predictorName);
+        if (predictorName.equals(leader) || isEliminated(step, predictorName)
+            || (winShare != null && winShare > maxWinShare) || !isDominated(predictor.getValue(), leaderMaes)) {
+          continue;
+        }
+        expectedLabelChanges += getWinProbability(predictor.getValue(), leaderMaes)
+            * (numSeeds - countSeeds(predictor.getValue()));
+        Set<String> eliminatedPredictors = eliminated.get(step);
+        if (eliminatedPredictors == null) {
+          eliminatedPredictors = new HashSet<String>();
+          eliminated.put(step, eliminatedPredictors);
+        }
+        eliminatedPredictors.add(predictorName);
+        newlyEliminated.add(step + ": " + predictorName);
+      }
+    }
+    return newlyEliminated;
+  }
+
+  /**
+   * Get an upper bound on the expected number of bestPredictor labels that differ from an evaluation without
+   * elimination: for every eliminated predictor, its probability to beat the leader on a further seed at elimination
+   * times the number of remaining seeds. It is an upper bound, as the predictor would also have to beat all others.
+   *
+   * @return expected label changes
+   */
+  public synchronized double getExpectedLabelChanges() {
+    return expectedLabelChanges;
+  }
+
+  private static int countSeeds(double[] maes) {
+    int count = 0;
+    for (double mae : maes) {
+      count += Double.isNaN(mae) ? 0 : 1;
+    }
+    return count;
+  }
+
+  /**
+   * Returns the remaining predictor with the lowest mean MAE.
+   *
+   * @param step
+   * @param stepMaes
+   *
+   * @return predictor name, or null if no predictor has an MAE
+   */
+  private String getLeader(int step, Map<String, double[]> stepMaes) {
+    String leader = null;
+    double leaderMae = Double.POSITIVE_INFINITY;
+    for (Map.Entry<String, double[]> predictor : stepMaes.entrySet()) {
+      if (isEliminated(step, predictor.getKey())) {
+        continue;
+      }
+      double sum = 0;
+      int count = 0;
+      for (double mae : predictor.getValue()) {
+        if (!Double.isNaN(mae)) {
+          sum += mae;
+          count++;
+        }
+      }
+      if (count > 0 && sum / count < leaderMae) {
+        leader = predictor.getKey();
+        leaderMae = sum / count;
+      }
+    }
+    return leader;
+  }
+
+  /**
+   * Returns the share of the evaluated seeds on which each predictor had the lowest MAE, i.e., on which it is the label
+   * of the bestPredictor data set. Predictors that never won are missing.
+   *
+   * @param stepMaes
+   *
+   * @return win share by predictor name
+   */
+  private Map<String, Double> getWinShares(Map<String, double[]> stepMaes) {
+    Map<String, Double> winShares = new HashMap<String, Double>();
+    int numEvaluatedSeeds = 0;
+    for (int i = 0; i < numSeeds; i++) {
+      String winner = null;
+      double winnerMae = Double.POSITIVE_INFINITY;
+      for (Map.Entry<String, double[]> predictor : stepMaes.entrySet()) {
+        double mae = predictor.getValue()[i];
+        if (!Double.isNaN(mae) && (winner == null || mae < winnerMae)) {
+          winner = predictor.getKey();
+          winnerMae = mae;
+        }
+      }
+      if (winner != null) {
+        numEvaluatedSeeds++;
+        Double wins = winShares.get(winner);
+        winShares.put(winner, wins == null ? 1 : wins + 1);
+      }
+    }
+    for (Map.Entry<String, Double> wins : winShares.entrySet()) {
+      wins.setValue(wins.getValue() / numEvaluatedSeeds);
+    }
+    return winShares;
+  }
+
+  /**
+   * Returns the probability that the predictor has a lower MAE than the leader on a further seed. The MAE difference
+   * of a new seed is predicted from the differences d of the evaluated seeds: (d_new - mean(d)) / (sd(d) * sqrt(1 +
+   * 1/n)) follows Student's t-distribution with n - 1 degrees of freedom if the differences are normally distributed.
+   *
+   * @param predictorMaes
+   * @param leaderMaes
+   *
+   * @return win probability
+   */
+  private static double getWinProbability(double[] predictorMaes, double[] leaderMaes) {
+    PairedStats pairedStats = new PairedStats(1);
+    for (int i = 0; i < predictorMaes.length; i++) {
+      if (!Double.isNaN(predictorMaes[i]) && !Double.isNaN(leaderMaes[i])) {
+        pairedStats.add(predictorMaes[i], leaderMaes[i]);
+      }
+    }
+    pairedStats.calculateDerived();
+    double mean = pairedStats.differencesStats.mean;
+    double standardDeviation = pairedStats.differencesStats.stdDev;
+    double count = pairedStats.count;
+    if (count < 2 || Double.isNaN(standardDeviation) || standardDeviation <= 0) {
+      return mean < 0 ? 1 : 0;
+    }
+    double t = mean / (standardDeviation * Math.sqrt(1 + 1 / count));
+    // One-sided tail of the t-distribution: P(T < -|t|) = F(t^2; 1, n - 1) / 2.
+    double tail = Statistics.FProbability(t * t, 1, (int) count - 1) / 2;
+    return t > 0 ? tail : 1 - tail;
+  }
+
+  /**
+   * Returns true if the MAEs are significantly higher than the leader's MAEs of the same seeds.
+   *
+   * @param predictorMaes
+   * @param leaderMaes
+   *
+   * @return true if the predictor is dominated by the leader
+   */
+  private boolean isDominated(double[] predictorMaes, double[] leaderMaes) {
+    PairedStats pairedStats = new PairedStats(significance);
+    for (int i = 0; i < predictorMaes.length; i++) {
+      if (!Double.isNaN(predictorMaes[i]) && !Double.isNaN(leaderMaes[i])) {
+        pairedStats.add(predictorMaes[i], leaderMaes[i]);
+      }
+    }
+    if (pairedStats.count < minSeeds) {
+      return false;
+    }
+    pairedStats.calculateDerived();
+    return pairedStats.differencesStats.mean > 0 && pairedStats.differencesProbability <= significance;
+  }
+}
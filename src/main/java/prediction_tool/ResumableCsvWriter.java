@@ -0,0 +1,383 @@
+package prediction_tool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * ResumableCsvWriter appends the result rows of a long-running evaluation to a csv file as soon as they are computed.
+ * Every row belongs to a unit of work (e.g., one predictor on one training set step), identified by a key. Next to
+ * the csv file, a checkpoint manifest ([csv file].checkpoint) records the key and row of every completed unit; it is
+ * synced to disk at least every SYNC_INTERVAL_MILLIS.
+ *
+ * When an evaluation is restarted, the writer reads the manifest, so completed units can be skipped and their rows
+ * reused. The csv file is rebuilt from the manifest, which drops rows that were written after the last completed
+ * checkpoint entry. A manifest entry that was cut off by a crash is ignored, as is a manifest that was written for a
+ * different csv header (e.g., after columns were added) or a different fingerprint of the inputs of the evaluation
+ * (e.g., predictor options, data set files and run configuration). When the evaluation is finished, finish() deletes
+ * the manifest, so the next run starts from scratch.
+ *
+ * Rows of Weka instances are formatted like by Weka's CSVSaver (at most MAX_DECIMAL_DIGITS decimal digits) and can be
+ * parsed back with parseRow(Instances, String). The writer can be used by multiple threads.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class ResumableCsvWriter implements AutoCloseable {
+
+  static final String CHECKPOINT_SUFFIX = ".checkpoint";
+  static final long SYNC_INTERVAL_MILLIS = 5000;
+  static final int MAX_DECIMAL_DIGITS = 6;
+  // Separates key and row in a manifest entry; keys must not contain it.
+  private static final char SEPARATOR = '\t';
+  // Key of the first manifest entry, which holds the csv header.
+  private static final String HEADER_KEY = "#header";
+  // Key of the second manifest entry, which holds the fingerprint of the evaluation inputs.
+  private static final String FINGERPRINT_KEY = "#fingerprint";
+
+  private final Path csvFile;
+  private final Path checkpointFile;
+  private final LinkedHashMap<String, String> completedUnits = new LinkedHashMap<String, String>();
+  private final FileChannel csvChannel;
+  private final FileChannel checkpointChannel;
+  private long lastSync = System.currentTimeMillis();
+  private boolean unsynced = false;
+
+  /**
+   * Opens the csv file with the given header line for appending. Reads the completed units of a previous run from the
+   * checkpoint manifest, if it exists, and rewrites the csv file with their rows.
+   *
+   * @param csvFile
+   * @param header
+   *
+   * @throws IOException
+   */
+  public ResumableCsvWriter(Path csvFile, String header) throws IOException {
+    this(csvFile, header, "");
+  }
+
+  /**
+   * Opens the csv file with the given header line for appending, like ResumableCsvWriter(Path, String). The completed
+   * units of a previous run are only reused if its manifest was written with the same fingerprint.
+   *
+   * @param csvFile
+   * @param header
+   * @param fingerprint single line that identifies the inputs of the evaluation
+   *
+   * @throws IOException
+   */
+  public ResumableCsvWriter(Path csvFile, String header, String fingerprint) throws IOException {
+    if (fingerprint.indexOf('\n') >= 0) {
+      throw new IllegalArgumentException("Fingerprint must be a single line.");
+    }
+    this.csvFile = csvFile;
+    this.checkpointFile = Paths.get(csvFile.toString() + CHECKPOINT_SUFFIX);
+    Path directory = csvFile.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+    if (Files.exists(checkpointFile)) {
+      readCheckpoint();
+      boolean sameHeader = header.equals(completedUnits.remove(HEADER_KEY));
+      boolean sameFingerprint = fingerprint.equals(completedUnits.remove(FINGERPRINT_KEY));
+      if (!sameHeader || !sameFingerprint) {
+        // Written for other columns or inputs, so the rows can not be reused.
+        completedUnits.clear();
+        Files.delete(checkpointFile);
+      }
+    }
+    writeCompletedRows(header);
+    this.csvChannel = FileChannel.open(csvFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    this.checkpointChannel = FileChannel.open(checkpointFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND);
+    if (checkpointChannel.size() == 0) {
+      write(checkpointChannel, HEADER_KEY + SEPARATOR + header + "\n");
+      write(checkpointChannel, FINGERPRINT_KEY + SEPARATOR + fingerprint + "\n");
+    }
+  }
+
+  /**
+   * Reads all complete manifest entries and truncates the manifest after the last one.
+   *
+   * @throws IOException
+   */
+  private void readCheckpoint() throws IOException {
+    byte[] bytes = Files.readAllBytes(checkpointFile);
+    int start = 0;
+    for (int i = 0; i < bytes.length; i++) {
+      if (bytes[i] == '\n') {
+        String entry = new String(bytes, start, i - start, StandardCharsets.UTF_8);
+        int separator = entry.indexOf(SEPARATOR);
+        if (separator >= 0) {
+          completedUnits.put(entry.substring(0, separator), entry.substring(separator + 1));
+        }
+        start = i + 1;
+      }
+    }
+    if (start < bytes.length) {
+      try (FileChannel channel = FileChannel.open(checkpointFile, StandardOpenOption.WRITE)) {
+        channel.truncate(start);
+      }
+    }
+  }
+
+  /**
+   * Writes header and the rows of all completed units to a temporary file and moves it to the csv file.
+   *
+   * @param header
+   *
+   * @throws IOException
+   */
+  private void writeCompletedRows(String header) throws IOException {
+    Path temporaryFile = Files.createTempFile(csvFile.toAbsolutePath().getParent(), csvFile.getFileName().toString(),
+        ".tmp");
+    try {
+      List<String> lines = new ArrayList<String>(completedUnits.size() + 1);
+      lines.add(header);
+      for (String row : completedUnits.values()) {
+        if (!row.isEmpty()) {
+          lines.add(row);
+        }
+      }
+      Files.write(temporaryFile, lines, StandardCharsets.UTF_8);
+      Files.move(temporaryFile, csvFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally {
+      Files.deleteIfExists(temporaryFile);
+    }
+  }
+
+  /**
+   * Returns true if the unit was completed in this or a previous run.
+   *
+   * @param key
+   *
+   * @return true if completed
+   */
+  public synchronized boolean isCompleted(String key) {
+    return completedUnits.containsKey(key);
+  }
+
+  /**
+   * Returns the row of a completed unit.
+   *
+   * @param key
+   *
+   * @return row, or null if the unit is not completed
+   */
+  public synchronized String getRow(String key) {
+    return completedUnits.get(key);
+  }
+
+  /**
+   * Appends the row of the completed unit to the csv file and records the unit in the manifest. The row must not
+   * contain line breaks.
+   *
+   * @param key
+   * @param row
+   *
+   * @throws IOException
+   */
+  public synchronized void append(String key, String row) throws IOException {
+    if (key.indexOf(SEPARATOR) >= 0 || key.indexOf('\n') >= 0 || row.indexOf('\n') >= 0) {
+      throw new IllegalArgumentException("Key and row must be single lines and the key must not contain tabs.");
+    }
+    if (!row.isEmpty()) {
+      write(csvChannel, row + "\n");
+    }
+    write(checkpointChannel, key + SEPARATOR + row + "\n");
+    completedUnits.put(key, row);
+    unsynced = true;
+    if (System.currentTimeMillis() - lastSync >= SYNC_INTERVAL_MILLIS) {
+      sync();
+    }
+  }
+
+  /**
+   * Records a unit without a csv row, e.g. a completed data set.
+   *
+   * @param key
+   *
+   * @throws IOException
+   */
+  public void markCompleted(String key) throws IOException {
+    append(key, "");
+  }
+
+  private static void write(FileChannel channel, String text) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Forces the csv file and the manifest to disk.
+   *
+   * @throws IOException
+   */
+  public synchronized void sync() throws IOException {
+    if (unsynced) {
+      csvChannel.force(false);
+      checkpointChannel.force(false);
+      unsynced = false;
+    }
+    lastSync = System.currentTimeMillis();
+  }
+
+  /**
+   * Get keys and rows of all completed units in completion order.
+   *
+   * @return completed units
+   */
+  public synchronized Map<String, String> getCompletedUnits() {
+    return new LinkedHashMap<String, String>(completedUnits);
+  }
+
+  /**
+   * Syncs and closes the csv file and the manifest. The manifest is kept, so that an interrupted or failed run can be
+   * resumed; use finish() when all units are completed.
+   *
+   * @throws IOException
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      sync();
+    }
+    finally {
+      csvChannel.close();
+      checkpointChannel.close();
+    }
+  }
+
+  /**
+   * Closes the writer and deletes the manifest, because all units of the evaluation are completed. A repeated run
+   * evaluates all units again.
+   *
+   * @throws IOException
+   */
+  public synchronized void finish() throws IOException {
+    close();
+    Files.deleteIfExists(checkpointFile);
+  }
+
+  /**
+   * Returns a fingerprint of the description of the inputs of an evaluation, for ResumableCsvWriter(Path, String,
+   * String).
+   *
+   * @param inputs
+   *
+   * @return SHA-256 hash of the inputs as hex string
+   */
+  static String fingerprint(CharSequence inputs) {
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-256").digest(inputs.toString().getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (byte b : hash) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    }
+    catch (NoSuchAlgorithmException e) {
+      // Every Java platform supports SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Describes an input file by its path, modification time and length, for a fingerprint.
+   *
+   * @param file
+   *
+   * @return description
+   */
+  static String describeFile(File file) {
+    return file.getPath() + "|" + file.lastModified() + "|" + file.length();
+  }
+
+  /**
+   * Returns the csv header line (attribute names) of the data set.
+   *
+   * @param dataset
+   *
+   * @return header
+   */
+  static String toHeader(Instances dataset) {
+    StringBuilder header = new StringBuilder();
+    for (int i = 0; i < dataset.numAttributes(); i++) {
+      if (i > 0) {
+        header.append(',');
+      }
+      header.append(Utils.quote(dataset.attribute(i).name()));
+    }
+    return header.toString();
+  }
+
+  /**
+   * Returns the csv row of the instance.
+   *
+   * @param instance
+   *
+   * @return row
+   */
+  static String toRow(Instance instance) {
+    return instance.toStringMaxDecimalDigits(MAX_DECIMAL_DIGITS);
+  }
+
+  /**
+   * Parses a csv row written by toRow(Instance) into a new instance with the attribute structure of the header.
+   *
+   * @param header
+   * @param row
+   *
+   * @return Instance
+   */
+  static Instance parseRow(Instances header, String row) {
+    Instance instance = new DenseInstance(header.numAttributes());
+    instance.setDataset(header);
+    int start = 0;
+    for (int i = 0; i < header.numAttributes(); i++) {
+      int end = start;
+      boolean quoted = false;
+      while (end < row.length() && (quoted || row.charAt(end) != ',')) {
+        char c = row.charAt(end);
+        if (c == '\\' && quoted) {
+          end++;
+        }
+        else if (c == '\'') {
+          quoted = !quoted;
+        }
+        end++;
+      }
+      String field = row.substring(start, Math.min(end, row.length())).trim();
+      if (field.equals("?")) {
+        instance.setMissing(i);
+      }
+      else if (header.attribute(i).isNumeric()) {
+        instance.setValue(i, Double.parseDouble(field));
+      }
+      else {
+        instance.setValue(i, Utils.unquote(field));
+      }
+      start = end + 1;
+    }
+    return instance;
+  }
+}
@@ -0,0 +1,238 @@
+package prediction_tool;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RetrainingScheduler runs the batch learning of RuntimePrediction objects on a dedicated, bounded pool of low-priority
+ * background threads, so that retraining does not compete with request threads for every core.
+ *
+ * Retraining requests are coalesced per model: while a retraining for a model is queued or running, further requests
+ * for the same model are dropped. If the queue is full, new requests are dropped as well; they are requested again by
+ * the next prediction that finds the model outdated. The CPU share limits the fraction of time each worker thread may
+ * spend on retraining by pausing the worker after every retraining.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class RetrainingScheduler {
+
+  static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+  private static RetrainingScheduler defaultScheduler;
+
+  private final ThreadPoolExecutor executor;
+  private final double cpuShare;
+  private final ConcurrentHashMap<Object, Boolean> activeModels = new ConcurrentHashMap<Object, Boolean>();
+  private final ConcurrentHashMap<Object, Long> lastPublished = new ConcurrentHashMap<Object, Long>();
+  private final AtomicLong lastPublishedTotal = new AtomicLong(0);
+  private final AtomicLong coalescedRequests = new AtomicLong(0);
+  private final AtomicLong droppedRequests = new AtomicLong(0);
+  private final AtomicLong completedRetrainings = new AtomicLong(0);
+
+  /**
+   * Creates scheduler with numThreads worker threads that may each spend cpuShare (between 0 and 1) of their time on
+   * retraining.
+   *
+   * @param numThreads
+   * @param cpuShare
+   * @param queueCapacity
+   */
+  public RetrainingScheduler(int numThreads, double cpuShare, int queueCapacity) {
+    if (numThreads < 1 || cpuShare <= 0 || cpuShare > 1 || queueCapacity < 1) {
+      throw new IllegalArgumentException("Invalid retraining scheduler configuration.");
+    }
+    this.cpuShare = cpuShare;
+    final AtomicInteger threadCounter = new AtomicInteger(0);
+    this.executor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "RetrainingScheduler-" + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Returns process-wide default scheduler with one worker thread and no CPU share limit.
+   *
+   * @return RetrainingScheduler
+   */
+  public static synchronized RetrainingScheduler getDefault() {
+    if (defaultScheduler == null) {
+      defaultScheduler = new RetrainingScheduler(1, 1.0, DEFAULT_QUEUE_CAPACITY);
+    }
+    return defaultScheduler;
+  }
+
+  /**
+   * Requests a retraining for the given model. The retraining returns true if a new model was published.
+   *
+   * @param model
+   * @param retraining
+   *
+   * @return true if the request was queued, false if it was coalesced with a pending one or dropped
+   */
+  public boolean requestRetraining(final Object model, final Callable<Boolean> retraining) {
+    if (activeModels.putIfAbsent(model, Boolean.TRUE) != null) {
+      coalescedRequests.incrementAndGet();
+      return false;
+    }
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          runRetraining(model, retraining);
+        }
+      });
+      return true;
+    }
+    catch (RejectedExecutionException e) {
+      activeModels.remove(model);
+      droppedRequests.incrementAndGet();
+      return false;
+    }
+  }
+
+  /**
+   * Runs the retraining for the model and pauses the worker thread afterwards according to the CPU share.
+   *
+   * @param model
+   * @param retraining
+   */
+  private void runRetraining(Object model, Callable<Boolean> retraining) {
+    long startTime = getBusyTime();
+    try {
+      if (Boolean.TRUE.equals(retraining.call())) {
+        long now = System.currentTimeMillis();
+        lastPublished.put(model, now);
+        lastPublishedTotal.set(now);
+      }
+      completedRetrainings.incrementAndGet();
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+    }
+    finally {
+      activeModels.remove(model);
+    }
+    long busyTime = getBusyTime() - startTime;
+    long pauseTime = (long) (busyTime * (1 / cpuShare - 1));
+    if (pauseTime > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(pauseTime);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Returns CPU time of the current thread in nanoseconds, or the wall clock time if CPU time is not supported.
+   *
+   * @return busy time in nanoseconds
+   */
+  static long getBusyTime() {
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    if (threadMXBean.isCurrentThreadCpuTimeSupported()) {
+      return threadMXBean.getCurrentThreadCpuTime();
+    }
+    return System.nanoTime();
+  }
+
+  /**
+   * Get number of retrainings waiting for a free worker thread.
+   *
+   * @return queue depth
+   */
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * Get number of retrainings currently queued or running.
+   *
+   * @return number of active retrainings
+   */
+  public int getActiveRetrainings() {
+    return activeModels.size();
+  }
+
+  /**
+   * Get milliseconds since the given model was last published by this scheduler, or -1 if it never was.
+   *
+   * @param model
+   *
+   * @return milliseconds since last publication
+   */
+  public long getMillisSinceLastPublish(Object model) {
+    Long published = lastPublished.get(model);
+    return published == null ? -1 : System.currentTimeMillis() - published;
+  }
+
+  /**
+   * Get milliseconds since any model was last published by this scheduler, or -1 if none was.
+   *
+   * @return milliseconds since last publication
+   */
+  public long getMillisSinceLastPublish() {
+    long published = lastPublishedTotal.get();
+    return published == 0 ? -1 : System.currentTimeMillis() - published;
+  }
+
+  /**
+   * Get number of retraining requests that were coalesced with an already active retraining of the same model.
+   *
+   * @return number of coalesced requests
+   */
+  public long getCoalescedRequests() {
+    return coalescedRequests.get();
+  }
+
+  /**
+   * Get number of retraining requests that were dropped because the queue was full.
+   *
+   * @return number of dropped requests
+   */
+  public long getDroppedRequests() {
+    return droppedRequests.get();
+  }
+
+  /**
+   * Get number of finished retrainings.
+   *
+   * @return number of finished retrainings
+   */
+  public long getCompletedRetrainings() {
+    return completedRetrainings.get();
+  }
+
+  /**
+   * Removes the publication time of a model that is no longer used.
+   *
+   * @param model
+   */
+  public void forget(Object model) {
+    lastPublished.remove(model);
+  }
+
+  /**
+   * Stops accepting new retrainings. Queued retrainings are still executed.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+}
@@ -1,30 +1,93 @@
 package prediction_tool;
 
-import java.io.File;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.DoubleBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.classifiers.lazy.IBk;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.Utils;
 /**
  *
  * A RuntimePrediction object can be used to predict the performance behavoiour of an application via parametric
  * dependecies learned from monitoring data. All recieved monoring data instances and the current predictor are saved
- * as object variables.
+ * as object variables. The monitoring data instances are kept in a TrainingStore, which can be limited in size and age
+ * for long-running RuntimePrediction objects. The current predictor, the training store and the configuration
+ * (concurrent mode, prediction cache, cost budgets and predictor race) can be saved to a snapshot file, from which a
+ * RuntimePrediction object can be restored without refitting the predictor.
+ *
+ * The current predictor is held as an immutable ModelSnapshot. In concurrent mode, a retraining is triggered by a
+ * prediction but runs in the background on a RetrainingScheduler: predictions keep using the old snapshot until the
+ * new model is trained, warmed up and published with a single reference swap.
+ *
+ * If the recommended prediction technique can learn incrementally (i.e., implements Weka's UpdateableClassifier, e.g.
+ * SGD or kNN), every added training instance is directly learned by a working copy of the predictor. A retraining then
+ * only publishes a copy of the working predictor, unless the meta-classifier recommends a different technique. An
+ * incremental kNN keeps its training instances, so it is limited to the instances of the training store: its window
+ * size is the store's capacity, and it is rebuilt from the store when more than THRESHOLD_LEARNING of its instances
+ * were evicted from the store by age.
  *
  * @author Vanessa Ackermann
  * @version 1.0
  */
 public class RuntimePrediction {
 
-  private Instances dataset;
-  private Classifier predictor;
-  private int untrainedInstances = 0;
-  private int trainedInstances = 0;
+  private TrainingStore store;
+  private final CsvRowParser csvParser = new CsvRowParser();
+  private double[] ingestionRow;
+  private final ThreadLocal<PredictionRow> predictionRows = new ThreadLocal<PredictionRow>();
+  private volatile ModelSnapshot snapshot;
+  private final Object datasetLock = new Object();
+  private final Object learningLock = new Object();
+  private Classifier incrementalPredictor;
+  // Sequence number of the oldest instance the incremental predictor was trained on.
+  private long incrementalFirstSequenceNumber = 0;
+  // Written while holding the dataset lock, read without it by the prediction path.
+  private volatile int untrainedInstances = 0;
+  private volatile int trainedInstances = 0;
+  // After a failed retraining, the number of untrained instances from which on it is tried again (0 after a success).
+  private volatile int retryUntrainedInstances = 0;
   final double THRESHOLD_LEARNING = 0.1;
-  private MetaClassifier metaClassifier = new MetaClassifier();
+  final int WARMUP_PREDICTIONS = 3;
+  private volatile boolean concurrentMode = false;
+  private volatile RetrainingScheduler retrainingScheduler = RetrainingScheduler.getDefault();
+  private volatile PredictionCache predictionCache;
+  private volatile long maxRetrainMicros = -1;
+  private volatile double maxLatencyMicros = -1;
+  private volatile PredictorRace predictorRace;
+  private ScheduledFuture<?> snapshotTask;
+  // Version 2 adds the configuration after the training store.
+  static final int SNAPSHOT_FORMAT_VERSION = 2;
+  private static ScheduledExecutorService snapshotExecutor;
 
   /**
    * Constructor if no predictor exists / should be chosen according to the data set.
@@ -34,7 +97,8 @@ public class RuntimePrediction {
    * @throws Exception
    */
   public RuntimePrediction(Instances dataset) {
-    this.dataset = dataset;
+    this.store = createTrainingStore(dataset);
+    this.ingestionRow = new double[store.numAttributes()];
     initialize();
   }
 
@@ -48,15 +112,30 @@ public class RuntimePrediction {
     Instances dataset = new Instances("AlgorithmRuntime", attributeList, 0);
     dataset.setClass(labelAttribute);
     dataset.setRelationName("AlgorithmRuntime");
+    this.store = createTrainingStore(dataset);
+    this.ingestionRow = new double[store.numAttributes()];
     initialize();
   }
 
   public void initialize() {
-    dataset.setClassIndex(dataset.numAttributes() - 1);
-    predictor = getBestPredictor(dataset);
     batchLearning();
   }
 
+  /**
+   * Creates an unlimited training store that contains all instances of the given data set.
+   *
+   * @param dataset
+   *
+   * @return TrainingStore
+   */
+  private static TrainingStore createTrainingStore(Instances dataset) {
+    TrainingStore store = new TrainingStore(dataset);
+    for (Instance instance : dataset) {
+      store.add(instance);
+    }
+    return store;
+  }
+
   /**
    * Constructor if predictor already exists
    * (e.g. when getting back to a previously trained model or having a favoured prediction method to be used).
@@ -67,20 +146,393 @@ public class RuntimePrediction {
    * @throws Exception
    */
   public RuntimePrediction(Instances dataset, Classifier predictor) {
-    this.dataset = dataset;
-    this.dataset.setClassIndex(dataset.numAttributes() - 1);
-    this.predictor = predictor;
+    this.store = createTrainingStore(dataset);
+    this.ingestionRow = new double[store.numAttributes()];
+    this.snapshot = new ModelSnapshot(predictor, predictor.getClass().getSimpleName(), store.getHeader(),
+        dataset.size());
+    this.trainedInstances = dataset.size();
+    this.incrementalPredictor = makeIncrementalPredictor(predictor);
+    limitIncrementalPredictor();
   }
 
   /**
-   * Get the best predictor for the available data set via prediction by the meta-classifer.
+   * Constructor for a RuntimePrediction object restored from a snapshot file.
    *
-   * @param dataset
+   * @param store
+   * @param predictor
+   * @param predictorName
+   * @param trainedInstances
+   * @param untrainedInstances
+   */
+  private RuntimePrediction(TrainingStore store, Classifier predictor, String predictorName, int trainedInstances,
+      int untrainedInstances) {
+    this.store = store;
+    this.ingestionRow = new double[store.numAttributes()];
+    this.trainedInstances = trainedInstances;
+    this.untrainedInstances = untrainedInstances;
+    if (predictor != null) {
+      this.snapshot = new ModelSnapshot(predictor, predictorName, store.getHeader(), trainedInstances);
+      this.incrementalPredictor = makeIncrementalPredictor(predictor);
+      this.incrementalFirstSequenceNumber = store.getTotalEvicted();
+      limitIncrementalPredictor();
+      catchUpIncrementalPredictor(store.getTotalAdded() - untrainedInstances);
+    }
+  }
+
+  /**
+   * Restores a RuntimePrediction object from a snapshot file written by saveSnapshot(Path). The restored object can
+   * predict immediately, without building the meta-classifier or fitting a predictor. It has the configuration of the
+   * saved object, except for a custom retraining scheduler or race pool, which are replaced by the default ones.
+   * Snapshot files of format version 1 contain no configuration.
    *
-   * @return Classifier
+   * @param path
+   *
+   * @return RuntimePrediction
+   *
+   * @throws IOException
+   */
+  public static RuntimePrediction restore(Path path) throws IOException {
+    try (ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+      int version = input.readInt();
+      if (version < 1 || version > SNAPSHOT_FORMAT_VERSION) {
+        throw new IOException("Unsupported snapshot format version " + version + ".");
+      }
+      Instances header = (Instances) input.readObject();
+      Classifier predictor = (Classifier) input.readObject();
+      String predictorName = (String) input.readObject();
+      int trainedInstances = input.readInt();
+      int untrainedInstances = input.readInt();
+      TrainingStore store = TrainingStore.readFrom(input, header);
+      RuntimePrediction prediction = new RuntimePrediction(store, predictor, predictorName, trainedInstances,
+          untrainedInstances);
+      if (version >= 2) {
+        prediction.readConfiguration(input);
+      }
+      return prediction;
+    }
+    catch (ClassNotFoundException e) {
+      throw new IOException("Failed to restore snapshot " + path + ".", e);
+    }
+  }
+
+  /**
+   * Saves the current predictor, its name, the training store, the learning counters and the configuration to a
+   * snapshot file. The file
+   * is written to a temporary file first and then atomically moved to the given path, so the path always holds a
+   * complete snapshot.
+   *
+   * @param path
+   *
+   * @throws IOException
+   */
+  public void saveSnapshot(Path path) throws IOException {
+    ModelSnapshot currentSnapshot;
+    int currentTrainedInstances;
+    int currentUntrainedInstances;
+    ByteArrayOutputStream storeBytes = new ByteArrayOutputStream();
+    synchronized (datasetLock) {
+      currentSnapshot = snapshot;
+      currentTrainedInstances = trainedInstances;
+      currentUntrainedInstances = untrainedInstances;
+      DataOutputStream storeOutput = new DataOutputStream(storeBytes);
+      store.writeTo(storeOutput);
+      storeOutput.flush();
+    }
+    Path directory = path.toAbsolutePath().getParent();
+    Path temporaryFile = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+    try {
+      try (FileOutputStream fileOutput = new FileOutputStream(temporaryFile.toFile())) {
+        ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(fileOutput));
+        output.writeInt(SNAPSHOT_FORMAT_VERSION);
+        output.writeObject(store.getHeader());
+        output.writeObject(currentSnapshot == null ? null : currentSnapshot.getPredictor());
+        output.writeObject(currentSnapshot == null ? null : currentSnapshot.getPredictorName());
+        output.writeInt(currentTrainedInstances);
+        output.writeInt(currentUntrainedInstances);
+        storeBytes.writeTo(output);
+        writeConfiguration(output);
+        output.flush();
+        fileOutput.getFD().sync();
+      }
+      Files.move(temporaryFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally {
+      Files.deleteIfExists(temporaryFile);
+    }
+  }
+
+  /**
+   * Writes the concurrent mode, the cost budgets, the prediction cache and the predictor race settings (capacity or
+   * number of candidates 0 if disabled).
+   *
+   * @param output
+   *
+   * @throws IOException
+   */
+  private void writeConfiguration(ObjectOutputStream output) throws IOException {
+    output.writeBoolean(concurrentMode);
+    output.writeLong(maxRetrainMicros);
+    output.writeDouble(maxLatencyMicros);
+    PredictionCache cache = predictionCache;
+    output.writeInt(cache == null ? 0 : cache.getCapacity());
+    if (cache != null) {
+      output.writeObject(cache.getQuantizationSteps());
+    }
+    PredictorRace race = predictorRace;
+    output.writeInt(race == null ? 0 : race.getNumCandidates());
+    if (race != null) {
+      output.writeLong(race.getBudgetMillis());
+      output.writeDouble(race.getHoldoutFraction());
+    }
+  }
+
+  /**
+   * Reads and applies a configuration written by writeConfiguration(ObjectOutputStream).
+   *
+   * @param input
+   *
+   * @throws IOException
+   * @throws ClassNotFoundException
+   */
+  private void readConfiguration(ObjectInputStream input) throws IOException, ClassNotFoundException {
+    concurrentMode = input.readBoolean();
+    maxRetrainMicros = input.readLong();
+    maxLatencyMicros = input.readDouble();
+    int cacheCapacity = input.readInt();
+    if (cacheCapacity > 0) {
+      enablePredictionCache(cacheCapacity, (double[]) input.readObject());
+    }
+    int raceCandidates = input.readInt();
+    if (raceCandidates > 0) {
+      long budgetMillis = input.readLong();
+      predictorRace = new PredictorRace(raceCandidates, budgetMillis, input.readDouble());
+    }
+  }
+
+  /**
+   * Saves a snapshot file every periodMillis milliseconds in the background, if the predictor or the training store
+   * changed since the last snapshot. Replaces previously enabled periodic snapshots.
+   *
+   * @param path
+   * @param periodMillis
+   */
+  public synchronized void enablePeriodicSnapshots(final Path path, long periodMillis) {
+    disablePeriodicSnapshots();
+    snapshotTask = getSnapshotExecutor().scheduleWithFixedDelay(new Runnable() {
+      private ModelSnapshot savedSnapshot;
+      private long savedTotalAdded = -1;
+
+      @Override
+      public void run() {
+        ModelSnapshot currentSnapshot = snapshot;
+        long currentTotalAdded;
+        synchronized (datasetLock) {
+          currentTotalAdded = store.getTotalAdded();
+        }
+        if (currentSnapshot == savedSnapshot && currentTotalAdded == savedTotalAdded) {
+          return;
+        }
+        try {
+          saveSnapshot(path);
+          savedSnapshot = currentSnapshot;
+          savedTotalAdded = currentTotalAdded;
+        }
+        catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops periodic snapshots.
+   */
+  public synchronized void disablePeriodicSnapshots() {
+    if (snapshotTask != null) {
+      snapshotTask.cancel(false);
+      snapshotTask = null;
+    }
+  }
+
+  /**
+   * Returns the background thread shared by all RuntimePrediction objects for periodic snapshots.
+   *
+   * @return ScheduledExecutorService
+   */
+  private static synchronized ScheduledExecutorService getSnapshotExecutor() {
+    if (snapshotExecutor == null) {
+      snapshotExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "RuntimePrediction-snapshots");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return snapshotExecutor;
+  }
+
+  /**
+   * Returns the estimated heap size of this object in bytes: the training store, the published predictor, its
+   * replicas (see ModelSnapshot) and, if present, the incremental predictor (every copy of the predictor estimated by
+   * its serialized size).
+   *
+   * @return bytes
+   */
+  public long getEstimatedBytes() {
+    long bytes;
+    boolean incremental;
+    synchronized (datasetLock) {
+      bytes = store.getEstimatedBytes();
+      incremental = incrementalPredictor != null;
+    }
+    ModelSnapshot currentSnapshot = snapshot;
+    if (currentSnapshot != null) {
+      int numCopies = 1 + currentSnapshot.getNumReplicas() + (incremental ? 1 : 0);
+      bytes += currentSnapshot.getSerializedSize() * numCopies;
+    }
+    return bytes;
+  }
+
+  /**
+   * Stops periodic snapshots and removes this object from its retraining scheduler, so that it can be garbage
+   * collected. Must be called when the object is no longer used.
+   */
+  public void close() {
+    disablePeriodicSnapshots();
+    retrainingScheduler.forget(this);
+  }
+
+  /**
+   * Enables or disables the concurrent mode. In concurrent mode, predictions never wait for a retraining: the new
+   * predictor is trained by a background thread and published once it is ready.
+   *
+   * @param concurrentMode
+   */
+  public void setConcurrentMode(boolean concurrentMode) {
+    this.concurrentMode = concurrentMode;
+  }
+
+  /**
+   * Limits the training store to the newest maxInstances instances, to instances younger than maxAgeMillis and to an
+   * estimated heap size of maxBytes. Use -1 for no limit. Older instances are evicted.
+   *
+   * @param maxInstances
+   * @param maxAgeMillis
+   * @param maxBytes
+   */
+  public void setTrainingStoreLimits(int maxInstances, long maxAgeMillis, long maxBytes) {
+    synchronized (datasetLock) {
+      store.setLimits(maxInstances, maxAgeMillis, maxBytes);
+      limitIncrementalPredictor();
+    }
+  }
+
+  /**
+   * Enables a cache for predictions of the given capacity. Input parameter i is quantized with step width
+   * quantizationSteps[i] (0 for exact values) before lookup. The cache is invalidated whenever a new predictor is
+   * published.
+   *
+   * @param capacity
+   * @param quantizationSteps
+   */
+  public void enablePredictionCache(int capacity, double[] quantizationSteps) {
+    if (quantizationSteps.length != store.numAttributes() - 1) {
+      throw new IllegalArgumentException("One quantization step per input parameter required.");
+    }
+    PredictionCache cache = new PredictionCache(capacity, quantizationSteps);
+    synchronized (datasetLock) {
+      cache.invalidate(snapshot);
+      predictionCache = cache;
+    }
+  }
+
+  /**
+   * Disables the prediction cache.
+   */
+  public void disablePredictionCache() {
+    predictionCache = null;
+  }
+
+  /**
+   * Get the prediction cache, which counts hits, misses and evictions.
+   *
+   * @return PredictionCache, or null if disabled
    */
-  private Classifier getBestPredictor(Instances dataset) {
-    return metaClassifier.predictBestPredictorForSet(dataset);
+  public PredictionCache getPredictionCache() {
+    return predictionCache;
+  }
+
+  /**
+   * Sets the scheduler that runs the background retrainings in concurrent mode. By default, the process-wide default
+   * scheduler is used.
+   *
+   * @param retrainingScheduler
+   */
+  public void setRetrainingScheduler(RetrainingScheduler retrainingScheduler) {
+    this.retrainingScheduler = retrainingScheduler;
+  }
+
+  /**
+   * Get milliseconds since the current predictor was published.
+   *
+   * @return milliseconds since last publication, -1 if no predictor was published yet
+   */
+  public long getMillisSinceLastPublish() {
+    ModelSnapshot currentSnapshot = snapshot;
+    return currentSnapshot == null ? -1 : System.currentTimeMillis() - currentSnapshot.getPublishedAt();
+  }
+
+  /**
+   * Limits the predictors chosen by batch learning to those whose predicted build time on the training set is at most
+   * maxRetrainMillis milliseconds and whose predicted time per prediction is at most maxLatencyMicros microseconds
+   * (see CostModel). Use -1 for no limit. Of the predictors within the budgets, the one the meta-classifier considers
+   * most accurate is chosen; if none fits, the cheapest.
+   *
+   * @param maxRetrainMillis
+   * @param maxLatencyMicros
+   */
+  public void setCostBudgets(long maxRetrainMillis, double maxLatencyMicros) {
+    this.maxRetrainMicros = maxRetrainMillis < 0 ? -1 : maxRetrainMillis * 1000;
+    this.maxLatencyMicros = maxLatencyMicros;
+  }
+
+  /**
+   * Enables the predictor race for batch learning: the numCandidates techniques ranked best by the meta-classifier are
+   * trained in parallel and the most accurate on the newest instances is published. The race ends once the best-ranked
+   * candidate is scored, or after at most budgetMillis milliseconds (see PredictorRace).
+   *
+   * @param numCandidates
+   * @param budgetMillis
+   */
+  public void enablePredictorRace(int numCandidates, long budgetMillis) {
+    predictorRace = new PredictorRace(numCandidates, budgetMillis);
+  }
+
+  /**
+   * Disables the predictor race; batch learning uses the technique recommended by the meta-classifier.
+   */
+  public void disablePredictorRace() {
+    predictorRace = null;
+  }
+
+  /**
+   * Get the name of the best predictor for a data set with the given characteristics via prediction by the
+   * meta-classifer. If cost budgets are set, the most accurate predictor within the budgets is chosen.
+   *
+   * @param metaFeatures
+   *
+   * @return predictor name
+   */
+  private String getBestPredictorName(double[] metaFeatures) {
+    long maxBuildTime = maxRetrainMicros;
+    double maxLatency = maxLatencyMicros;
+    if (maxBuildTime < 0 && maxLatency < 0) {
+      return MetaClassifier.getInstance().predictBestPredictorName(metaFeatures);
+    }
+    List<String> rankedPredictorNames = MetaClassifier.getInstance().rankPredictorNames(metaFeatures);
+    return CostModel.getInstance().selectPredictor(rankedPredictorNames, metaFeatures, maxBuildTime, maxLatency);
   }
 
   /**
@@ -88,66 +540,370 @@ public class RuntimePrediction {
    * @param instance
    */
   public void addTrainingInstance(Instance instance) {
-    instance.setDataset(dataset);
-    dataset.add(instance);
-    untrainedInstances++;
+    synchronized (datasetLock) {
+      instance.setDataset(store.getHeader());
+      store.add(instance);
+      untrainedInstances++;
+      if (incrementalPredictor != null) {
+        updateIncrementalPredictor(instance);
+      }
+    }
   }
 
   /**
-   * Adds CSV-String as monotoring data instance to training set. Values MUST be comma-seperated and numeric.
-   * @param csv
+   * Learns the given training instance with the incremental predictor. Falls back to full retrainings if the predictor
+   * fails to learn the instance.
+   *
+   * @param instance
+   */
+  private void updateIncrementalPredictor(Instance instance) {
+    try {
+      ((UpdateableClassifier) incrementalPredictor).updateClassifier(instance);
+      evictFromIncrementalPredictor();
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      incrementalPredictor = null;
+    }
+  }
+
+  /**
+   * Limits an incremental kNN predictor to the capacity of the training store (window size 0 means unlimited), so it
+   * drops its oldest instances like the store. Must be called while holding the dataset lock (or in a constructor).
+   */
+  private void limitIncrementalPredictor() {
+    if (incrementalPredictor instanceof IBk) {
+      int capacity = store.getCapacity();
+      ((IBk) incrementalPredictor).setWindowSize(capacity == TrainingStore.UNLIMITED ? 0 : capacity);
+    }
+  }
+
+  /**
+   * Rebuilds an incremental kNN predictor from the training store if more than THRESHOLD_LEARNING of its instances
+   * were evicted from the store but not dropped by its window (i.e., evicted by age). Must be called while holding the
+   * dataset lock (or in a constructor).
+   *
+   * @throws Exception if the predictor can not be rebuilt
    */
-  public void addTrainingInstance(String csv) {
-    Instance instance = csvStringToInstance(csv, true);
-    if (instance != null) {
-      addTrainingInstance(instance);
+  private void evictFromIncrementalPredictor() throws Exception {
+    if (!(incrementalPredictor instanceof IBk)) {
+      return;
+    }
+    int windowSize = ((IBk) incrementalPredictor).getWindowSize();
+    long firstSequenceNumber = windowSize > 0
+        ? Math.max(incrementalFirstSequenceNumber, store.getTotalAdded() - windowSize) : incrementalFirstSequenceNumber;
+    long numEvicted = store.getTotalEvicted() - firstSequenceNumber;
+    if (numEvicted > 0 && numEvicted > store.size() * THRESHOLD_LEARNING) {
+      Instances trainingSet = store.toInstances();
+      incrementalFirstSequenceNumber = store.getTotalEvicted();
+      incrementalPredictor.buildClassifier(trainingSet);
     }
   }
 
   /**
-   * Transforms CSV-String to training instance, using the instance structure to the training data set.
+   * Returns a working copy of the trained predictor that learns new training instances incrementally, or null if the
+   * prediction technique can not learn incrementally.
+   *
+   * @param predictor
+   *
+   * @return Classifier
+   */
+  private Classifier makeIncrementalPredictor(Classifier predictor) {
+    if (!(predictor instanceof UpdateableClassifier)) {
+      return null;
+    }
+    try {
+      return AbstractClassifier.makeCopy(predictor);
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+    }
+    return null;
+  }
+
+  /**
+   * Adds CSV-String as monotoring data instance to training set. Values MUST be comma-seperated and numeric. Malformed
+   * strings are skipped and counted by the CSV parser.
    * @param csv
-   * @param setRuntime
-   * @return Instance
-   */
-  private Instance csvStringToInstance(String csv, boolean setRuntime) {
-    String[] values = csv.split(",");
-    int numAttributesNeeded = setRuntime ? dataset.numAttributes() : dataset.numAttributes() - 1;
-    if (values.length == numAttributesNeeded) {
-      Instance instance = new DenseInstance(dataset.numAttributes());
-      for (int i = 0; i < values.length; i++) {
-        try {
-          double value = Double.parseDouble(values[i]);
-          instance.setValue(i, value);
+   */
+  public void addTrainingInstance(CharSequence csv) {
+    synchronized (datasetLock) {
+      if (csvParser.parse(csv, ingestionRow, store.numAttributes())) {
+        addTrainingRow();
+      }
+    }
+  }
+
+  /**
+   * Adds the ASCII CSV record bytes[offset, offset + length) as monotoring data instance to training set. Values MUST
+   * be comma-seperated and numeric. Malformed records are skipped and counted by the CSV parser.
+   *
+   * @param bytes
+   * @param offset
+   * @param length
+   */
+  public void addTrainingInstance(byte[] bytes, int offset, int length) {
+    synchronized (datasetLock) {
+      if (csvParser.parse(bytes, offset, length, ingestionRow, store.numAttributes())) {
+        addTrainingRow();
+      }
+    }
+  }
+
+  /**
+   * Adds the parsed ingestion row to the training store. Must be called while holding the dataset lock.
+   */
+  private void addTrainingRow() {
+    store.add(ingestionRow);
+    untrainedInstances++;
+    if (incrementalPredictor != null) {
+      updateIncrementalPredictor(store.getInstance(store.getTotalAdded() - 1));
+    }
+  }
+
+  /**
+   * Get the parser for CSV input, which counts parsed and malformed records.
+   *
+   * @return CsvRowParser
+   */
+  public CsvRowParser getCsvParser() {
+    return csvParser;
+  }
+
+  /**
+   * Fits new prediction model for internal predictor. Uses prediction technique recommended by meta-classifier for the
+   * data set characteristics kept up to date by the training store.
+   * The model is trained on a copy of the current training set, so monitoring data can still be added meanwhile. It is
+   * published as new snapshot after a short warm-up. If the incremental predictor already uses the recommended
+   * technique, a copy of it is published instead of fitting a new model.
+   * If a predictor race is enabled, the best-ranked techniques race on a holdout slice instead and the winner is
+   * published; the holdout instances are learned by the incremental predictor (if any) and count as not yet trained.
+   * If no candidate is scored within the race budget, the current snapshot is kept.
+   * If no predictor can be fit, the current snapshot is kept and the next retraining is postponed.
+   *
+   * @return true if a new predictor was published
+   */
+  public boolean batchLearning() {
+    synchronized (learningLock) {
+      Instances trainingSet;
+      long trainingSequenceNumber;
+      Classifier currentIncrementalPredictor;
+      double[] metaFeatures;
+      synchronized (datasetLock) {
+        trainingSet = store.toInstances();
+        trainingSequenceNumber = store.getTotalAdded();
+        currentIncrementalPredictor = incrementalPredictor;
+        metaFeatures = store.getCharacteristics().getMetaFeatures();
+      }
+      PredictorRace race = predictorRace;
+      if (race != null && race.hasHoldout(trainingSet.size())) {
+        PredictorRace.Result winner = race.race(getRaceCandidates(metaFeatures), trainingSet);
+        if (winner != null) {
+          long firstUntrained = trainingSequenceNumber - (trainingSet.size() - winner.getTrainedInstances());
+          publishBatchPredictor(winner.getPredictor(), winner.getPredictorName(), trainingSet,
+              winner.getTrainedInstances(), firstUntrained);
+          return true;
         }
-        catch (NumberFormatException e) {
-          System.out.println("Failed to convert this csv string to Weka instance. Value must be numeric.");
-          return null;
+        // No candidate was scored within the budget. A full fit would add to the retrain latency, so the current
+        // snapshot is kept, unless there is none yet.
+        if (snapshot != null) {
+          postponeLearning(trainingSet.size());
+          return false;
         }
       }
-      return instance;
+      String predictorName = getBestPredictorName(metaFeatures);
+      Classifier predictor = predictorName == null ? null
+          : Predictors.getPredictorWithName(predictorName, trainingSet.size());
+      if (predictor == null) {
+        postponeLearning(trainingSet.size());
+        return false;
+      }
+      if (currentIncrementalPredictor != null && currentIncrementalPredictor.getClass() == predictor.getClass()) {
+        if (!publishIncrementalPredictor(trainingSet, predictorName)) {
+          postponeLearning(trainingSet.size());
+          return false;
+        }
+        return true;
+      }
+      try {
+        predictor.buildClassifier(trainingSet);
+      }
+      catch (Exception e) {
+        e.printStackTrace();
+        postponeLearning(trainingSet.size());
+        return false;
+      }
+      publishBatchPredictor(predictor, predictorName, trainingSet, trainingSet.size(), trainingSequenceNumber);
+      return true;
     }
-    else {
-      System.out.println(
-          "Failed to convert this csv string to Weka instance. Number of values does not match dataset structure.");
-      return null;
+  }
+
+  /**
+   * Runs batchLearning() unless another thread has already retrained (or postponed the retraining) while this one
+   * waited for the learning lock, so that predictions that all saw triggerLearning() do not fit the same data again.
+   *
+   * @return true if a new predictor was published
+   */
+  private boolean batchLearningIfStale() {
+    synchronized (learningLock) {
+      if (!triggerLearning()) {
+        return false;
+      }
+      return batchLearning();
     }
   }
 
   /**
-   * Fits new prediction model for internal predictor. Uses prediction technique recommended by meta-classifier.
+   * Postpones the next retraining after a failed one until another THRESHOLD_LEARNING of the training set size (at
+   * least one instance) has been added, so that predictions do not repeat the failing fit every time.
    *
+   * @param trainingSetSize
    */
-  public void batchLearning() {
-    predictor = getBestPredictor(dataset);
+  private void postponeLearning(int trainingSetSize) {
+    synchronized (datasetLock) {
+      retryUntrainedInstances = untrainedInstances + Math.max(1, (int) (trainingSetSize * THRESHOLD_LEARNING));
+    }
+  }
+
+  /**
+   * Publishes a predictor fit by batch learning and makes it the new incremental predictor, which catches up on all
+   * instances from sequence number firstUntrained on.
+   *
+   * @param predictor trained on numTrained instances
+   * @param predictorName
+   * @param trainingSet used for the warm-up
+   * @param numTrained
+   * @param firstUntrained
+   */
+  private void publishBatchPredictor(Classifier predictor, String predictorName, Instances trainingSet, int numTrained,
+      long firstUntrained) {
+    Classifier newIncrementalPredictor = makeIncrementalPredictor(predictor);
+    ModelSnapshot newSnapshot = new ModelSnapshot(predictor, predictorName, store.getHeader(), numTrained);
+    newSnapshot.warmUp(trainingSet, WARMUP_PREDICTIONS);
+    synchronized (datasetLock) {
+      trainedInstances = numTrained;
+      untrainedInstances = (int) (store.getTotalAdded() - firstUntrained);
+      publishSnapshot(newSnapshot);
+      incrementalPredictor = newIncrementalPredictor;
+      incrementalFirstSequenceNumber = firstUntrained - numTrained;
+      limitIncrementalPredictor();
+      // Catch up on the instances added while the new predictor was fit.
+      catchUpIncrementalPredictor(firstUntrained);
+    }
+  }
+
+  /**
+   * Returns the techniques ranked by the meta-classifier, without those that do not fit the cost budgets (if set).
+   *
+   * @param metaFeatures
+   *
+   * @return candidate names, most promising first
+   */
+  private List<String> getRaceCandidates(double[] metaFeatures) {
+    List<String> rankedPredictorNames = MetaClassifier.getInstance().rankPredictorNames(metaFeatures);
+    long maxBuildTime = maxRetrainMicros;
+    double maxLatency = maxLatencyMicros;
+    if (maxBuildTime < 0 && maxLatency < 0) {
+      return rankedPredictorNames;
+    }
+    List<String> candidates = new ArrayList<String>();
+    for (String predictorName : rankedPredictorNames) {
+      if (CostModel.getInstance().fits(predictorName, metaFeatures, maxBuildTime, maxLatency)) {
+        candidates.add(predictorName);
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * Publishes the incremental predictor, which has already learned all instances of the training set. The predictor is
+   * detached from the training store while holding the dataset lock and published as it is; the copy that continues
+   * learning is made outside the lock, so adding instances is not blocked by copying the model. The copy then catches
+   * up on the instances added meanwhile.
+   *
+   * @param trainingSet
+   * @param predictorName
+   *
+   * @return true if a new predictor was published
+   */
+  private boolean publishIncrementalPredictor(Instances trainingSet, String predictorName) {
+    Classifier predictor;
+    int numLearnedInstances;
+    long learnedSequenceNumber;
+    synchronized (datasetLock) {
+      if (incrementalPredictor == null) {
+        return false;
+      }
+      predictor = incrementalPredictor;
+      incrementalPredictor = null;
+      numLearnedInstances = store.size();
+      learnedSequenceNumber = store.getTotalAdded();
+    }
+    Classifier newIncrementalPredictor;
     try {
-      predictor.buildClassifier(dataset);
+      newIncrementalPredictor = AbstractClassifier.makeCopy(predictor);
     }
     catch (Exception e) {
       e.printStackTrace();
+      synchronized (datasetLock) {
+        incrementalPredictor = predictor;
+        catchUpIncrementalPredictor(learnedSequenceNumber);
+      }
+      return false;
+    }
+    ModelSnapshot newSnapshot = new ModelSnapshot(predictor, predictorName, store.getHeader(), numLearnedInstances);
+    newSnapshot.warmUp(trainingSet, WARMUP_PREDICTIONS);
+    synchronized (datasetLock) {
+      trainedInstances = numLearnedInstances;
+      untrainedInstances = (int) (store.getTotalAdded() - learnedSequenceNumber);
+      publishSnapshot(newSnapshot);
+      incrementalPredictor = newIncrementalPredictor;
+      limitIncrementalPredictor();
+      catchUpIncrementalPredictor(learnedSequenceNumber);
+    }
+    return true;
+  }
+
+  /**
+   * Learns all instances of the training store from sequence number firstUntrained on with the incremental predictor.
+   * Must be called while holding the dataset lock.
+   *
+   * @param firstUntrained
+   */
+  private void catchUpIncrementalPredictor(long firstUntrained) {
+    for (long i = firstUntrained; i < store.getTotalAdded() && incrementalPredictor != null; i++) {
+      Instance instance = store.getInstance(i);
+      if (instance != null) {
+        updateIncrementalPredictor(instance);
+      }
+    }
+  }
+
+  /**
+   * Publishes the new snapshot and invalidates the prediction cache. Must be called while holding the dataset lock.
+   *
+   * @param newSnapshot
+   */
+  private void publishSnapshot(ModelSnapshot newSnapshot) {
+    snapshot = newSnapshot;
+    retryUntrainedInstances = 0;
+    PredictionCache cache = predictionCache;
+    if (cache != null) {
+      cache.invalidate(newSnapshot);
     }
-    trainedInstances = dataset.size();
-    untrainedInstances = 0;
+  }
+
+  /**
+   * Requests a batch learning in the background. Requests are coalesced by the scheduler while a batch learning for
+   * this object is already queued or running.
+   */
+  private void scheduleBatchLearning() {
+    retrainingScheduler.requestRetraining(this, new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return batchLearningIfStale();
+      }
+    });
   }
 
   /**
@@ -159,31 +915,73 @@ public class RuntimePrediction {
    *
    * @return Numeric performance prediction
    */
-  public double predictInstance(String csv) {
-    Instance instance = csvStringToInstance(csv, false);
-    if (instance != null) {
-      return predictInstance(instance);
+  public double predictInstance(CharSequence csv) {
+    PredictionRow predictionRow = getPredictionRow();
+    if (csvParser.parse(csv, predictionRow.values, store.numAttributes() - 1)) {
+      return predictInstance(predictionRow.instance, predictionRow.values);
     }
     return -1;
   }
 
+  /**
+   * Returns the reusable prediction row of the calling thread.
+   *
+   * @return PredictionRow
+   */
+  private PredictionRow getPredictionRow() {
+    PredictionRow predictionRow = predictionRows.get();
+    if (predictionRow == null) {
+      predictionRow = new PredictionRow(store.getHeader());
+      predictionRows.set(predictionRow);
+    }
+    return predictionRow;
+  }
+
   /**
    * Predicts the performance behavoiur (e.g., runtime) on the learned application for the given instance in training
    * sef format. If the amount of available, yet not-learned training instances surpasses the THRESHOLD_LEARNING, a new
-   * predictor is fit to the training data prior to predicting the instance.
+   * predictor is fit to the training data prior to predicting the instance. In concurrent mode, the new predictor is
+   * fit in the background instead and the instance is predicted with the current snapshot.
    *
    * @param instance
    *
    * @return Numeric performance prediction
    */
   public double predictInstance(Instance instance) {
-    instance.setDataset(dataset);
-    if (triggerLearning()){
-      batchLearning();
-    }
+    return predictInstance(instance, null);
+  }
+
+  /**
+   * Predicts the performance behaviour for the given instance. The values array holds the attribute values of the
+   * instance for the prediction cache; if it is null, it is created from the instance when needed.
+   *
+   * @param instance
+   * @param values
+   *
+   * @return Numeric performance prediction
+   */
+  private double predictInstance(Instance instance, double[] values) {
+    ModelSnapshot currentSnapshot = getSnapshotForPrediction();
     double prediction = -1;
+    if (currentSnapshot == null) {
+      return prediction;
+    }
+    PredictionCache cache = predictionCache;
+    if (cache != null) {
+      if (values == null) {
+        values = instance.toDoubleArray();
+      }
+      double cachedPrediction = cache.get(values);
+      if (!Double.isNaN(cachedPrediction)) {
+        return cachedPrediction;
+      }
+    }
+    instance.setDataset(currentSnapshot.getHeader());
     try {
-      prediction = predictor.classifyInstance(instance);
+      prediction = currentSnapshot.classifyInstance(instance);
+      if (cache != null) {
+        cache.put(values, prediction, currentSnapshot);
+      }
     }
     catch (Exception e) {
       e.printStackTrace();
@@ -191,14 +989,159 @@ public class RuntimePrediction {
     return prediction;
   }
 
+  /**
+   * Predicts the performance behaviour for every row of input parameter values (one value per input parameter) and
+   * writes the predictions to the respective index of the predictions array. Checks only once per batch whether a new
+   * predictor has to be fit. Rows that can not be predicted get the prediction -1. If the prediction cache is enabled,
+   * only rows without cached prediction are predicted.
+   *
+   * @param inputs
+   * @param predictions
+   *
+   * @return predictions
+   */
+  public double[] predictBatch(double[][] inputs, double[] predictions) {
+    if (predictions.length < inputs.length) {
+      throw new IllegalArgumentException("Prediction array is smaller than number of input rows.");
+    }
+    ModelSnapshot currentSnapshot = getSnapshotForPrediction();
+    if (currentSnapshot == null) {
+      Arrays.fill(predictions, 0, inputs.length, -1);
+      return predictions;
+    }
+    PredictionCache cache = predictionCache;
+    if (cache == null) {
+      currentSnapshot.classifyRows(inputs, predictions);
+      return predictions;
+    }
+    // Predict only the rows that are not cached.
+    double[][] missingInputs = new double[inputs.length][];
+    int[] missingRows = new int[inputs.length];
+    int numMissing = 0;
+    for (int row = 0; row < inputs.length; row++) {
+      predictions[row] = cache.get(inputs[row]);
+      if (Double.isNaN(predictions[row])) {
+        missingInputs[numMissing] = inputs[row];
+        missingRows[numMissing++] = row;
+      }
+    }
+    predictMissingRows(currentSnapshot, cache, missingInputs, missingRows, numMissing, predictions);
+    return predictions;
+  }
+
+  /**
+   * Predicts the performance behaviour for every row of input parameter values in the buffer (row-major, one value per
+   * input parameter, read from position to limit) and writes the predictions to the respective index of the predictions
+   * array. Checks only once per batch whether a new predictor has to be fit. Rows that can not be predicted get the
+   * prediction -1. If the prediction cache is enabled, only rows without cached prediction are predicted, like in
+   * predictBatch(double[][], double[]).
+   *
+   * @param inputs
+   * @param predictions
+   *
+   * @return predictions
+   */
+  public double[] predictBatch(DoubleBuffer inputs, double[] predictions) {
+    int numInputs = store.numAttributes() - 1;
+    int numRows = inputs.remaining() / numInputs;
+    if (predictions.length < numRows) {
+      throw new IllegalArgumentException("Prediction array is smaller than number of input rows.");
+    }
+    ModelSnapshot currentSnapshot = getSnapshotForPrediction();
+    if (currentSnapshot == null) {
+      Arrays.fill(predictions, 0, numRows, -1);
+      return predictions;
+    }
+    PredictionCache cache = predictionCache;
+    if (cache == null) {
+      currentSnapshot.classifyRows(inputs, predictions);
+      return predictions;
+    }
+    if (inputs.remaining() % numInputs != 0) {
+      throw new IllegalArgumentException("Buffer size is not a multiple of the number of input parameters.");
+    }
+    // Look up every row through one reused array; only the rows that are not cached are copied.
+    double[] values = new double[numInputs];
+    double[][] missingInputs = new double[numRows][];
+    int[] missingRows = new int[numRows];
+    int numMissing = 0;
+    int position = inputs.position();
+    for (int row = 0; row < numRows; row++) {
+      for (int i = 0; i < numInputs; i++) {
+        values[i] = inputs.get(position + row * numInputs + i);
+      }
+      predictions[row] = cache.get(values);
+      if (Double.isNaN(predictions[row])) {
+        missingInputs[numMissing] = values.clone();
+        missingRows[numMissing++] = row;
+      }
+    }
+    predictMissingRows(currentSnapshot, cache, missingInputs, missingRows, numMissing, predictions);
+    return predictions;
+  }
+
+  /**
+   * Predicts the first numMissing rows of missingInputs with the snapshot, writes the predictions to the respective
+   * index missingRows[i] of the predictions array and caches them.
+   *
+   * @param currentSnapshot
+   * @param cache
+   * @param missingInputs
+   * @param missingRows
+   * @param numMissing
+   * @param predictions
+   */
+  private static void predictMissingRows(ModelSnapshot currentSnapshot, PredictionCache cache,
+      double[][] missingInputs, int[] missingRows, int numMissing, double[] predictions) {
+    double[] missingPredictions = new double[numMissing];
+    currentSnapshot.classifyRows(missingInputs, numMissing, missingPredictions);
+    for (int i = 0; i < numMissing; i++) {
+      predictions[missingRows[i]] = missingPredictions[i];
+      if (missingPredictions[i] != -1) {
+        cache.put(missingInputs[i], missingPredictions[i], currentSnapshot);
+      }
+    }
+  }
+
+  /**
+   * Returns the snapshot to be used for the next predictions. Fits a new predictor first if triggerLearning() says so,
+   * or requests it in the background in concurrent mode.
+   *
+   * @return ModelSnapshot, or null if no predictor could be fit yet
+   */
+  private ModelSnapshot getSnapshotForPrediction() {
+    if (triggerLearning()) {
+      if (concurrentMode && snapshot != null) {
+        scheduleBatchLearning();
+      }
+      else {
+        batchLearningIfStale();
+      }
+    }
+    return snapshot;
+  }
+
   /**
    * Checks if the amount of available, yet not-learned training instances surpasses the THRESHOLD_LEARNING in order to
-   * trigger the training of a new predictor..
+   * trigger the training of a new predictor. After a failed retraining, the next one is only triggered once enough new
+   * instances were added (see postponeLearning). Reads the counters without the dataset lock, so predictions never
+   * wait for a writer; the counters may be read from different publishes, which at worst triggers or skips a
+   * retraining one prediction early or late.
    *
    * @return
    */
   private boolean triggerLearning() {
-    return (untrainedInstances > trainedInstances * THRESHOLD_LEARNING);
+    int untrained = untrainedInstances;
+    return untrained > trainedInstances * THRESHOLD_LEARNING && untrained >= retryUntrainedInstances;
+  }
+
+  /**
+   * Get the currently published prediction model.
+   *
+   * @return ModelSnapshot
+   */
+  public ModelSnapshot getSnapshot() {
+    return snapshot;
   }
 
   /**
@@ -215,20 +1158,109 @@ public class RuntimePrediction {
       System.out.println("Wrong file type :(");
       return "";
     }
-    StringBuffer result = new StringBuffer();
-    File file = new File(filepath);
-
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
     try {
-      Scanner scanner = new Scanner(file);
-      while (scanner.hasNextLine()) {
-        String line = scanner.nextLine();
-        int prediction = (int) predictInstance(line);
-        result.append(prediction + "\n");
-      }
+      predictAllInFile(Paths.get(filepath), Channels.newChannel(result));
+      return result.toString("US-ASCII");
     }
     catch (Exception e) {
       e.printStackTrace();
     }
-    return result.toString();
+    return "";
+  }
+
+  /**
+   * Predicts all "input parameter values" lines in the input CSV file and writes one prediction per line to the output
+   * channel. The file is streamed via memory-mapping and all lines are predicted with the same predictor, so memory
+   * usage does not depend on the file size. Lines that can not be parsed get the prediction -1.
+   *
+   * @param input
+   * @param output
+   *
+   * @return number of predicted lines
+   *
+   * @throws IOException
+   */
+  public long predictAllInFile(Path input, WritableByteChannel output) throws IOException {
+    return BulkPrediction.predictAll(getSnapshotForPrediction(), csvParser, store.numAttributes() - 1, input, output);
+  }
+
+  /**
+   * Predicts all "input parameter values" lines in the input CSV file and writes one prediction per line to the output
+   * file, like predictAllInFile(Path, WritableByteChannel). An existing output file is overwritten.
+   *
+   * @param input
+   * @param output
+   *
+   * @return number of predicted lines
+   *
+   * @throws IOException
+   */
+  public long predictAllInFile(Path input, Path output) throws IOException {
+    try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      return predictAllInFile(input, channel);
+    }
+  }
+
+  /**
+   * Predicts all "input parameter values" lines in the input CSV file in parallel and writes one prediction per line to
+   * the output channel, in the order of the input lines. The file is split into chunks on line boundaries, which are
+   * predicted on a fork-join pool with the given parallelism against the same snapshot.
+   *
+   * @param input
+   * @param output
+   * @param parallelism
+   *
+   * @return number of predicted lines
+   *
+   * @throws IOException
+   */
+  public long predictAllInFileParallel(Path input, WritableByteChannel output, int parallelism) throws IOException {
+    ModelSnapshot currentSnapshot = getSnapshotForPrediction();
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      return BulkPrediction.predictAllParallel(currentSnapshot, csvParser, store.numAttributes() - 1, input, output,
+          pool);
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Predicts all "input parameter values" lines in the input CSV file in parallel and writes one prediction per line to
+   * the output file, like predictAllInFileParallel(Path, WritableByteChannel, int). An existing output file is
+   * overwritten.
+   *
+   * @param input
+   * @param output
+   * @param parallelism
+   *
+   * @return number of predicted lines
+   *
+   * @throws IOException
+   */
+  public long predictAllInFileParallel(Path input, Path output, int parallelism) throws IOException {
+    try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      return predictAllInFileParallel(input, channel, parallelism);
+    }
+  }
+
+  /**
+   * Reusable instance for predictions from CSV input, backed by a primitive values array.
+   */
+  private static class PredictionRow {
+
+    final double[] values;
+    final Instance instance;
+
+    PredictionRow(Instances header) {
+      values = new double[header.numAttributes()];
+      values[header.classIndex()] = Utils.missingValue();
+      instance = new DenseInstance(1.0, values);
+      instance.setDataset(header);
+    }
   }
 }
@@ -3,36 +3,13 @@ package prediction_tool;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
-import weka.classifiers.Classifier;
-import weka.classifiers.functions.LinearRegression;
-import weka.classifiers.functions.MultilayerPerceptron;
-import weka.classifiers.functions.SGD;
-import weka.classifiers.functions.SMOreg;
-import weka.classifiers.lazy.IBk;
-import weka.classifiers.meta.Bagging;
-import weka.classifiers.rules.ZeroR;
-import weka.classifiers.trees.M5P;
-import weka.classifiers.trees.REPTree;
-import weka.classifiers.trees.RandomForest;
-import weka.classifiers.trees.SimpleCart;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
-import weka.core.Utils;
-import weka.core.converters.AbstractFileLoader;
-import weka.core.converters.ArffLoader;
-import weka.core.converters.CSVLoader;
 import weka.core.converters.CSVSaver;
 
-import weka.classifiers.Evaluation;
-
-import static javafx.scene.input.KeyCode.M;
-
 /**
  * Provides methods to evaluate and compare the prediction performance of different Weka classifieres on multiple data sets.
  *
@@ -45,100 +22,102 @@ public class StepwiseEvaluation {
 
   static final int[] STEPS = new int[]{10, 100, 500, 1000, 3000, 6000, 9000};
   static final int TESTSET_SIZE = 1000;
-  static Map<Attribute, Classifier> predictors = Predictors.getPredictorsAsMap();
+  static final int PREDICTOR_INDEX = 9; //Predictor name
   static final int RATING_PARAM_INDEX = 10; //10 = MAE, 11 = MAPE, 12 = TimeForTraining
 
   /**
    * Repeats the predictor evaluation on all specified data sets numIteration times, each time with a different seed
    * value for shuffling the data set. Saves csv file with evaluation results for each run. Saves csv file with all
-   * bestPredictor data sets from the multiple runs.
+   * bestPredictor data sets from the multiple runs. The evaluation runs in parallel on all available cores.
    *
    * @param setDescriptions
    * @param numIterations
    */
   static public void evaluatePredictorsOnSetsMultipleTimes(List<SetDescription> setDescriptions, int numIterations) {
-    Instances bestPredictorDataset = evaluatePredictorsOnSets(setDescriptions, 0);
-    for (int seed = 1; seed < numIterations; seed++) {
-      Instances currentBestPredictorDataset = evaluatePredictorsOnSets(setDescriptions, seed);
-      bestPredictorDataset.addAll(currentBestPredictorDataset);
+    evaluatePredictorsOnSetsMultipleTimes(setDescriptions, numIterations, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Repeats the predictor evaluation on all specified data sets numIteration times like
+   * evaluatePredictorsOnSetsMultipleTimes(List, int), with at most parallelism evaluations at once.
+   *
+   * @param setDescriptions
+   * @param numIterations
+   * @param parallelism
+   */
+  static public void evaluatePredictorsOnSetsMultipleTimes(List<SetDescription> setDescriptions, int numIterations,
+      int parallelism) {
+    int[] seeds = new int[numIterations];
+    for (int seed = 0; seed < numIterations; seed++) {
+      seeds[seed] = seed;
+    }
+    EvaluationEngine engine = new EvaluationEngine(parallelism);
+    try {
+      Instances bestPredictorDataset = engine.evaluate(setDescriptions, seeds);
+      createCSVFileForDataset(bestPredictorDataset, "bestPredictor_total_" + numIterations);
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+    finally {
+      engine.shutdown();
+    }
+  }
+
+  /**
+   * Repeats the predictor evaluation on all specified data sets numIteration times like
+   * evaluatePredictorsOnSetsMultipleTimes(List, int, int), in racing mode: after minSeeds runs, predictors that have a
+   * significantly higher MAE than the best predictor of a (set, step) combination are not evaluated in the remaining
+   * runs (see RacingElimination).
+   *
+   * @param setDescriptions
+   * @param numIterations
+   * @param parallelism
+   * @param minSeeds
+   * @param significance
+   */
+  static public void evaluatePredictorsOnSetsWithRacing(List<SetDescription> setDescriptions, int numIterations,
+      int parallelism, int minSeeds, double significance) {
+    int[] seeds = new int[numIterations];
+    for (int seed = 0; seed < numIterations; seed++) {
+      seeds[seed] = seed;
+    }
+    EvaluationEngine engine = new EvaluationEngine(parallelism);
+    engine.enableRacing(minSeeds, significance);
+    try {
+      Instances bestPredictorDataset = engine.evaluate(setDescriptions, seeds);
+      createCSVFileForDataset(bestPredictorDataset, "bestPredictor_total_" + numIterations);
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+    finally {
+      engine.shutdown();
     }
-    createCSVFileForDataset(bestPredictorDataset, "bestPredictor_total_" + numIterations);
   }
 
   /**
    * Evaluates different predictors stepwise on the sets specified on setDescriptions. Saves evaluation results in csv file.
    * Returns data set with entries that each contain the predictor that "performs best" on a certain evaluation sample,
    * together with characteristics of the sampled training set. This can be used for training the MetaClassifier.
+   * The evaluation runs in parallel on all available cores (see EvaluationEngine).
    *
    * @param setDescriptions
    * @param seed
    * @return bestPredictor data set
    */
   static public Instances evaluatePredictorsOnSets(List<SetDescription> setDescriptions, int seed) {
-    String setName = "total";
-    Instances evaluationDataset = createEvaluationDataset(setName, setDescriptions);
-    Instances bestPredictorDataset = createBestPredictorDataset(setName);
-
-    int numSets = setDescriptions.size();
-    int indexSet = 0;
-    for (SetDescription setDescription : setDescriptions) {
-      indexSet++;
-      String name = setDescription.getName();
-      String filepath = setDescription.getFilepath();
-      int numParameter = setDescription.getNumParameter();
-      int nominal = setDescription.hasNominal ? 1 : 0;
-
-      Instances dataset = loadDatasetFromFilepath(filepath);
-      dataset.randomize(new Random(seed));
-      Instances testSet = new Instances(dataset, 0, TESTSET_SIZE);
-
-      for (Integer step : STEPS) {
-        System.out.println("Set " + indexSet + "/" + numSets + " (steps: " + step + ")");
-        if (step > dataset.size() - TESTSET_SIZE) {
-          break;
-        }
-        try {
-          Instances trainingSet = new Instances(dataset, TESTSET_SIZE, step);
-          List<Instance> evalInstancesForStep = new ArrayList<>();
-
-          //calculate training set characteristics
-          double size = DatasetCharacteristics.getSize(trainingSet);
-          double runtimeRange = DatasetCharacteristics.getRangeOfClassAttribute(trainingSet);
-          double runtimeCV = DatasetCharacteristics.getCVOfClassAttribute(trainingSet);
-          double highestCorrelation = DatasetCharacteristics.getHighestCorrelation(trainingSet);
-          double lowestCorrelation = DatasetCharacteristics.getLowestCorrelation(trainingSet);
-          double r2LinReg = DatasetCharacteristics.getR2ForLinReg(trainingSet);
-
-          for (Attribute predictorAttribute : predictors.keySet()) {
-            Evaluation evaluation = new Evaluation(trainingSet);
-            Classifier predictor = predictors.get(predictorAttribute);
-
-            long startTime = System.nanoTime() / 1000;
-            predictor.buildClassifier(trainingSet);
-            long stopTime = System.nanoTime() / 1000;
-            int buildTime = (int) (stopTime - startTime); //in microseconds
-
-            double mape = getMeanAbsolutePercentageError(predictor, testSet);
-
-            evaluation.evaluateModel(predictor, testSet);
-
-
-            Instance evalInstance =
-                createAndAddInstanceToEvaluationDataset(evaluationDataset, name, trainingSet.size(), numParameter,
-                    nominal, runtimeRange, runtimeCV, highestCorrelation, lowestCorrelation, r2LinReg,
-                    predictorAttribute.name(), evaluation.meanAbsoluteError(), mape, buildTime);
-            evalInstancesForStep.add(evalInstance);
-          }
-          addToBestPredictorDataset(bestPredictorDataset, evalInstancesForStep, trainingSet.size(), numParameter,
-              runtimeRange, runtimeCV, highestCorrelation, lowestCorrelation, r2LinReg);
-        }
-        catch (Exception e) {
-          e.printStackTrace();
-        }
-      }
+    EvaluationEngine engine = new EvaluationEngine(Runtime.getRuntime().availableProcessors());
+    try {
+      return engine.evaluate(setDescriptions, new int[] {seed});
     }
-    createCSVFileForDataset(evaluationDataset, "eval_" + seed + "_" + setName);
-    return bestPredictorDataset;
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+    finally {
+      engine.shutdown();
+    }
+    return null;
   }
 
   /**
@@ -160,38 +139,14 @@ public class StepwiseEvaluation {
   }
 
   /**
-   * Loads data set as Weka Instances object from given filepath. Must be csv or arff file.
-   * @param filepath
-   * @return
-   *
+   * Loads data set as Weka Instances object from given filepath. Must be csv or arff file. Parsed files are cached by
+   * DatasetLoader.
    *
    * @param filepath
    * @return data set in Weka's instances format
    */
   static Instances loadDatasetFromFilepath(String filepath) {
-    File file = new File(filepath);
-    AbstractFileLoader loader;
-    if (filepath.endsWith(".csv")) {
-      loader = new CSVLoader();
-    }
-    else if (filepath.endsWith(".arff")) {
-      loader = new ArffLoader();
-    }
-    else {
-      System.out.println("Wrong file type :(");
-      return null;
-    }
-    try {
-      Instances dataset;
-      loader.setFile(file);
-      dataset = loader.getDataSet();
-      dataset.setClassIndex(dataset.numAttributes() - 1);
-      return dataset;
-    }
-    catch (IOException e) {
-      e.printStackTrace();
-    }
-    return null;
+    return DatasetLoader.load(filepath);
   }
 
   /**
@@ -215,7 +170,7 @@ public class StepwiseEvaluation {
     for (Instance instance : instances) {
       double instancePenalty = getPenalty(instance.value(RATING_PARAM_INDEX));
       if (instancePenalty < currentBestValue) {
-        currentBestName = instance.stringValue(9); //Predictor name
+        currentBestName = instance.stringValue(PREDICTOR_INDEX);
         currentBestValue = instancePenalty;
       }
     }
@@ -235,7 +190,7 @@ public class StepwiseEvaluation {
    * @param lowestCorrelation
    * @param r2LinReg
    */
-  static private void addToBestPredictorDataset(Instances bestPredictorDataset, List<Instance> instances, int size,
+  static void addToBestPredictorDataset(Instances bestPredictorDataset, List<Instance> instances, int size,
       int numParameter, double runtimeRange, double runtimeCV, double highestCorrelation, double lowestCorrelation,
       double r2LinReg) {
     String bestPredictorName = getBestPredictorName(instances);
@@ -266,14 +221,40 @@ public class StepwiseEvaluation {
    * @param lowestCorrelation
    * @param r2LinReg
    * @param predictorName
-   * @param mae
-   * @param mape
+   * @param score
    * @param time
    * @return Instance
    */
-  static private Instance createAndAddInstanceToEvaluationDataset(Instances evaluationDatset, String name, int size,
+  static Instance createAndAddInstanceToEvaluationDataset(Instances evaluationDatset, String name, int size,
       int numParameter, int hasNominal, double runtimeRange, double runtimeCV, double highestCorrelation,
-      double lowestCorrelation, double r2LinReg, String predictorName, double mae, double mape, int time) {
+      double lowestCorrelation, double r2LinReg, String predictorName, TestSetScore score, int time) {
+    Instance instance = createEvaluationInstance(evaluationDatset, name, size, numParameter, hasNominal, runtimeRange,
+        runtimeCV, highestCorrelation, lowestCorrelation, r2LinReg, predictorName, score, time);
+    evaluationDatset.add(instance);
+    return instance;
+  }
+
+  /**
+   * Creates new evaluation data set instance for given evaluation sample without adding it to the evaluation data set.
+   *
+   * @param evaluationDatset
+   * @param name
+   * @param size
+   * @param numParameter
+   * @param hasNominal
+   * @param runtimeRange
+   * @param runtimeCV
+   * @param highestCorrelation
+   * @param lowestCorrelation
+   * @param r2LinReg
+   * @param predictorName
+   * @param score
+   * @param time
+   * @return Instance
+   */
+  static Instance createEvaluationInstance(Instances evaluationDatset, String name, int size, int numParameter,
+      int hasNominal, double runtimeRange, double runtimeCV, double highestCorrelation, double lowestCorrelation,
+      double r2LinReg, String predictorName, TestSetScore score, int time) {
     Instance instance = new DenseInstance(evaluationDatset.numAttributes());
     instance.setDataset(evaluationDatset);
     instance.setValue(0, name);
@@ -285,11 +266,15 @@ public class StepwiseEvaluation {
     instance.setValue(6, highestCorrelation);
     instance.setValue(7, lowestCorrelation);
     instance.setValue(8, r2LinReg);
-    instance.setValue(9, predictorName);
-    instance.setValue(10, mae);
-    instance.setValue(11, mape);
+    instance.setValue(PREDICTOR_INDEX, predictorName);
+    instance.setValue(10, score.getMAE());
+    instance.setValue(11, score.getMAPE());
     instance.setValue(12, time);
-    evaluationDatset.add(instance);
+    instance.setValue(13, score.getRMSE());
+    instance.setValue(14, score.getMaxError());
+    instance.setValue(15, score.getMeanLatency());
+    instance.setValue(16, score.getP99Latency());
+    instance.setValue(17, score.getModelSize());
     return instance;
   }
 
@@ -302,11 +287,20 @@ public class StepwiseEvaluation {
    * @param name of best predictor
    * @return empty data set in Weka's Instances format
    */
-  static private Instances createBestPredictorDataset(String name) {
-    List<String> predictorNames = new ArrayList<String>();
-    for (Attribute predictorAttribute : predictors.keySet()) {
-      predictorNames.add(predictorAttribute.name());
-    }
+  static Instances createBestPredictorDataset(String name) {
+    return createBestPredictorDataset(name, PredictorRegistry.getDefault().getNames());
+  }
+
+  /**
+   * Creates empty data set for training the MetaClassifier (see createBestPredictorDataset(String)) with the given
+   * predictor names as values of the predictor column.
+   *
+   * @param name
+   * @param predictorNames
+   *
+   * @return empty data set in Weka's Instances format
+   */
+  static Instances createBestPredictorDataset(String name, List<String> predictorNames) {
     ArrayList<Attribute> attributeList = new ArrayList<Attribute>();
 
     Attribute size = new Attribute("Size"); //Index 0
@@ -341,15 +335,26 @@ public class StepwiseEvaluation {
    * @param setDescriptions
    * @return empty data set in Weka's Instances format
    */
-  static private Instances createEvaluationDataset(String name, List<SetDescription> setDescriptions) {
+  static Instances createEvaluationDataset(String name, List<SetDescription> setDescriptions) {
+    return createEvaluationDataset(name, setDescriptions, PredictorRegistry.getDefault().getNames());
+  }
+
+  /**
+   * Creates empty data set for evaluation result entries (see createEvaluationDataset(String, List)) with the given
+   * predictor names as values of the predictor column.
+   *
+   * @param name
+   * @param setDescriptions
+   * @param predictorNames
+   *
+   * @return empty data set in Weka's Instances format
+   */
+  static Instances createEvaluationDataset(String name, List<SetDescription> setDescriptions,
+      List<String> predictorNames) {
     List<String> setNames = new ArrayList<String>();
     for (SetDescription setDescription : setDescriptions) {
       setNames.add(setDescription.getName());
     }
-    List<String> predictorNames = new ArrayList<String>();
-    for (Attribute predictorAttribute : predictors.keySet()) {
-      predictorNames.add(predictorAttribute.name());
-    }
     ArrayList<Attribute> attributeList = new ArrayList<Attribute>();
     Attribute setName = new Attribute("Name", setNames); //Index 0
     attributeList.add(setName);
@@ -377,31 +382,18 @@ public class StepwiseEvaluation {
     attributeList.add(mape);
     Attribute time = new Attribute("Time"); //Index 12
     attributeList.add(time);
+    Attribute rmse = new Attribute("RMSE"); //Index 13
+    attributeList.add(rmse);
+    Attribute maxError = new Attribute("MaxError"); //Index 14
+    attributeList.add(maxError);
+    Attribute latencyMean = new Attribute("LatencyMean"); //Index 15
+    attributeList.add(latencyMean);
+    Attribute latencyP99 = new Attribute("LatencyP99"); //Index 16
+    attributeList.add(latencyP99);
+    Attribute modelSize = new Attribute("ModelSize"); //Index 17
+    attributeList.add(modelSize);
     Instances evaluationDataset = new Instances("evaluation_" + name, attributeList, 0);
 
     return evaluationDataset;
   }
-
-  /**
-   * Returns mean absolute percentage error (MAPE) of trained predictor on the given test set.
-   * @param predictor
-   * @param testSet
-   * @return mean absolute percentage error (MAPE)
-   */
-  static double getMeanAbsolutePercentageError(Classifier predictor, Instances testSet) {
-    int setSize = testSet.size();
-    double totalRelativeError = 0;
-    for (int i = 0; i < setSize; i++) {
-      double prediction = 0;
-      try {
-        prediction = predictor.classifyInstance(testSet.get(i));
-      }
-      catch (Exception e) {
-        e.printStackTrace();
-      }
-      double observation = testSet.get(i).value(testSet.classAttribute());
-      totalRelativeError += Math.abs((prediction - observation) / observation);
-    }
-    return (totalRelativeError / setSize) * 100;
-  }
 }
@@ -0,0 +1,184 @@
+package prediction_tool;
+
+import java.util.Arrays;
+
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Utils;
+
+/**
+ * TestSetScore holds the accuracy and serving cost of a trained predictor on a test set: mean absolute error (like
+ * Weka's Evaluation), mean absolute percentage error, root mean squared error, maximum absolute error, mean and 99th
+ * percentile of the inference latency of a single prediction and the size of the serialized model. All values except
+ * the model size are calculated in one pass over the test set.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class TestSetScore {
+
+  static final double LATENCY_PERCENTILE = 0.99;
+
+  private final double mae;
+  private final double mape;
+  private final double rmse;
+  private final double maxError;
+  private final double meanLatency;
+  private final double p99Latency;
+  private final long modelSize;
+
+  TestSetScore(double mae, double mape, double rmse, double maxError, double meanLatency, double p99Latency,
+      long modelSize) {
+    this.mae = mae;
+    this.mape = mape;
+    this.rmse = rmse;
+    this.maxError = maxError;
+    this.meanLatency = meanLatency;
+    this.p99Latency = p99Latency;
+    this.modelSize = modelSize;
+  }
+
+  /**
+   * Classifies every instance of the test view once with the trained predictor and scores the predictions. Every test
+   * instance is classified as a shallow copy, so the shared instances of the view are not modified. Instances with
+   * missing target value or missing prediction are left out of MAE, RMSE and maximum error, like in Weka's Evaluation;
+   * MAPE is averaged over all instances.
+   *
+   * @param predictor
+   * @param testSet
+   *
+   * @return TestSetScore
+   *
+   * @throws Exception if an instance can not be classified
+   */
+  public static TestSetScore score(Classifier predictor, DatasetView testSet) throws Exception {
+    return score(predictor, testSet, true);
+  }
+
+  /**
+   * Scores the predictor like score(Classifier, DatasetView). Serializing the model for its size can take longer than
+   * scoring; if measureModelSize is false, the model size is -1.
+   *
+   * @param predictor
+   * @param testSet
+   * @param measureModelSize
+   *
+   * @return TestSetScore
+   *
+   * @throws Exception if an instance can not be classified
+   */
+  public static TestSetScore score(Classifier predictor, DatasetView testSet, boolean measureModelSize)
+      throws Exception {
+    int setSize = testSet.size();
+    double totalAbsoluteError = 0;
+    double totalSquaredError = 0;
+    double totalRelativeError = 0;
+    double maxError = 0;
+    int numClassified = 0;
+    long[] latencies = new long[setSize];
+    long totalLatency = 0;
+    for (int i = 0; i < setSize; i++) {
+      Instance instance = (Instance) testSet.instance(i).copy();
+      long startTime = System.nanoTime();
+      double prediction = predictor.classifyInstance(instance);
+      long stopTime = System.nanoTime();
+      latencies[i] = stopTime - startTime;
+      totalLatency += latencies[i];
+
+      double observation = instance.classValue();
+      totalRelativeError += Math.abs((prediction - observation) / observation);
+      if (!instance.classIsMissing() && !Utils.isMissingValue(prediction)) {
+        double absoluteError = Math.abs(prediction - observation);
+        totalAbsoluteError += absoluteError;
+        totalSquaredError += absoluteError * absoluteError;
+        maxError = Math.max(maxError, absoluteError);
+        numClassified++;
+      }
+    }
+    double meanLatency = setSize == 0 ? Double.NaN : totalLatency / 1000.0 / setSize;
+    return new TestSetScore(totalAbsoluteError / numClassified, (totalRelativeError / setSize) * 100,
+        Math.sqrt(totalSquaredError / numClassified), numClassified == 0 ? Double.NaN : maxError, meanLatency,
+        getPercentile(latencies, LATENCY_PERCENTILE) / 1000.0,
+        measureModelSize ? ModelSnapshot.getSerializedSize(predictor) : -1);
+  }
+
+  /**
+   * Returns the percentile (nearest rank) of the values. Sorts the array.
+   *
+   * @param values
+   * @param percentile
+   *
+   * @return percentile, or NaN if there are no values
+   */
+  static double getPercentile(long[] values, double percentile) {
+    if (values.length == 0) {
+      return Double.NaN;
+    }
+    Arrays.sort(values);
+    int rank = (int) Math.ceil(percentile * values.length);
+    return values[Math.max(0, rank - 1)];
+  }
+
+  /**
+   * Get mean absolute error.
+   *
+   * @return MAE
+   */
+  public double getMAE() {
+    return mae;
+  }
+
+  /**
+   * Get mean absolute percentage error (in percent).
+   *
+   * @return MAPE
+   */
+  public double getMAPE() {
+    return mape;
+  }
+
+  /**
+   * Get root mean squared error.
+   *
+   * @return RMSE
+   */
+  public double getRMSE() {
+    return rmse;
+  }
+
+  /**
+   * Get largest absolute error of a single prediction.
+   *
+   * @return maximum error
+   */
+  public double getMaxError() {
+    return maxError;
+  }
+
+  /**
+   * Get mean inference latency of a single prediction in microseconds.
+   *
+   * @return mean latency
+   */
+  public double getMeanLatency() {
+    return meanLatency;
+  }
+
+  /**
+   * Get 99th percentile of the inference latency of a single prediction in microseconds.
+   *
+   * @return p99 latency
+   */
+  public double getP99Latency() {
+    return p99Latency;
+  }
+
+  /**
+   * Get size of the serialized model in bytes.
+   *
+   * @return model size, or -1 if the model can not be serialized or its size was not measured
+   */
+  public long getModelSize() {
+    return modelSize;
+  }
+}
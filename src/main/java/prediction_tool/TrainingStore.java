@@ -0,0 +1,377 @@
+package prediction_tool;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * TrainingStore holds the monitoring data instances of a RuntimePrediction object in a ring buffer of primitive rows.
+ * The store can be limited by number of instances, age of instances and (estimated) heap size. If a limit is reached,
+ * the oldest instances are evicted, so that the heap usage and the time for fitting a new model stay bounded no matter
+ * how long monitoring data is recorded.
+ *
+ * Every added instance gets a sequence number (0, 1, 2, ...), which stays valid after older instances were evicted.
+ *
+ * The store keeps the data set characteristics of the stored instances up to date in a CharacteristicsAccumulator,
+ * which it recomputes from the ring buffer from time to time so that evictions do not accumulate rounding errors.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class TrainingStore {
+
+  static final int UNLIMITED = -1;
+  static final int INITIAL_CAPACITY = 1024;
+
+  // Estimated heap size of one row: array header, values, timestamp and reference to the row.
+  private static final int ROW_OVERHEAD_BYTES = 16 + 8 + 8;
+
+  private final Instances header;
+  private final int numAttributes;
+  private int maxInstances = UNLIMITED;
+  private long maxAgeMillis = UNLIMITED;
+  private long maxBytes = UNLIMITED;
+
+  private double[][] rows;
+  private long[] timestamps;
+  private int head = 0;
+  private int size = 0;
+  private long totalAdded = 0;
+  private long totalEvicted = 0;
+  private final CharacteristicsAccumulator characteristics;
+
+  /**
+   * Creates an empty, unlimited store for instances with the attribute structure of the given data set.
+   *
+   * @param dataset
+   */
+  public TrainingStore(Instances dataset) {
+    this.header = new Instances(dataset, 0);
+    this.header.setClassIndex(dataset.numAttributes() - 1);
+    this.numAttributes = dataset.numAttributes();
+    this.rows = new double[INITIAL_CAPACITY][];
+    this.timestamps = new long[INITIAL_CAPACITY];
+    this.characteristics = new CharacteristicsAccumulator(numAttributes);
+  }
+
+  /**
+   * Sets the limits of the store. Use UNLIMITED (-1) for no limit. Evicts the oldest instances if the store exceeds the
+   * new limits.
+   *
+   * @param maxInstances
+   * @param maxAgeMillis
+   * @param maxBytes
+   */
+  public void setLimits(int maxInstances, long maxAgeMillis, long maxBytes) {
+    if (maxInstances == 0 || maxAgeMillis == 0 || maxBytes == 0) {
+      throw new IllegalArgumentException("Training store limits must be positive or UNLIMITED.");
+    }
+    this.maxInstances = maxInstances;
+    this.maxAgeMillis = maxAgeMillis;
+    this.maxBytes = maxBytes;
+    int capacity = getCapacity();
+    if (capacity != UNLIMITED) {
+      while (size > capacity) {
+        evictOldest();
+      }
+      if (capacity < rows.length) {
+        resize(capacity);
+      }
+    }
+    evictExpired(System.currentTimeMillis());
+  }
+
+  /**
+   * Returns maximum number of instances allowed by the instance and the heap size limit, or UNLIMITED.
+   *
+   * @return capacity
+   */
+  int getCapacity() {
+    long capacity = maxInstances;
+    if (maxBytes != UNLIMITED) {
+      long capacityByBytes = Math.max(1, maxBytes / getBytesPerInstance());
+      capacity = capacity == UNLIMITED ? capacityByBytes : Math.min(capacity, capacityByBytes);
+    }
+    return (int) Math.min(capacity, Integer.MAX_VALUE - 8);
+  }
+
+  /**
+   * Returns estimated heap size of one stored instance in bytes.
+   *
+   * @return bytes per instance
+   */
+  long getBytesPerInstance() {
+    return ROW_OVERHEAD_BYTES + 8L * numAttributes;
+  }
+
+  /**
+   * Adds instance to the store. Evicts the oldest instance if the store is full.
+   *
+   * @param instance
+   */
+  public void add(Instance instance) {
+    double[] row = nextRow();
+    for (int i = 0; i < numAttributes; i++) {
+      row[i] = instance.value(i);
+    }
+    characteristics.add(row);
+  }
+
+  /**
+   * Adds the given attribute values as instance to the store. The values are copied.
+   *
+   * @param values
+   */
+  public void add(double[] values) {
+    double[] row = nextRow();
+    System.arraycopy(values, 0, row, 0, numAttributes);
+    characteristics.add(row);
+  }
+
+  /**
+   * Returns the (reused) row for the next instance and registers it as newest instance.
+   *
+   * @return row
+   */
+  private double[] nextRow() {
+    long now = System.currentTimeMillis();
+    evictExpired(now);
+    int capacity = getCapacity();
+    if (capacity != UNLIMITED && size >= capacity) {
+      evictOldest();
+    }
+    if (size == rows.length) {
+      resize(capacity == UNLIMITED ? rows.length * 2 : (int) Math.min(rows.length * 2L, capacity));
+    }
+    int index = (head + size) % rows.length;
+    if (rows[index] == null) {
+      rows[index] = new double[numAttributes];
+    }
+    timestamps[index] = now;
+    size++;
+    totalAdded++;
+    return rows[index];
+  }
+
+  /**
+   * Evicts all instances older than the maximum age.
+   *
+   * @param now
+   */
+  private void evictExpired(long now) {
+    if (maxAgeMillis == UNLIMITED) {
+      return;
+    }
+    while (size > 0 && now - timestamps[head] > maxAgeMillis) {
+      evictOldest();
+    }
+  }
+
+  /**
+   * Evicts the oldest instance. Its row is kept for reuse. Recomputes the characteristics from the remaining
+   * instances when the removals have accumulated too much rounding error.
+   */
+  private void evictOldest() {
+    characteristics.removeOldest(rows[head]);
+    head = (head + 1) % rows.length;
+    size--;
+    totalEvicted++;
+    if (characteristics.needsRecompute()) {
+      characteristics.recomputeMoments(rows, head);
+    }
+  }
+
+  /**
+   * Moves all instances to new arrays of the given capacity, starting at index 0.
+   *
+   * @param capacity
+   */
+  private void resize(int capacity) {
+    if (capacity == rows.length) {
+      return;
+    }
+    double[][] newRows = new double[capacity][];
+    long[] newTimestamps = new long[capacity];
+    for (int i = 0; i < size; i++) {
+      newRows[i] = rows[(head + i) % rows.length];
+      newTimestamps[i] = timestamps[(head + i) % rows.length];
+    }
+    rows = newRows;
+    timestamps = newTimestamps;
+    head = 0;
+  }
+
+  /**
+   * Returns the attribute values of the instance with the given sequence number. The returned row is reused after the
+   * instance is evicted and must not be modified.
+   *
+   * @param sequenceNumber
+   *
+   * @return row, or null if the instance was already evicted
+   */
+  double[] getRow(long sequenceNumber) {
+    if (sequenceNumber < totalEvicted || sequenceNumber >= totalAdded) {
+      return null;
+    }
+    return rows[(int) ((head + (sequenceNumber - totalEvicted)) % rows.length)];
+  }
+
+  /**
+   * Returns the instance with the given sequence number as new Weka instance.
+   *
+   * @param sequenceNumber
+   *
+   * @return instance, or null if the instance was already evicted
+   */
+  Instance getInstance(long sequenceNumber) {
+    double[] row = getRow(sequenceNumber);
+    if (row == null) {
+      return null;
+    }
+    Instance instance = new DenseInstance(1.0, row.clone());
+    instance.setDataset(header);
+    return instance;
+  }
+
+  /**
+   * Returns all stored instances (oldest first) as new data set in Weka's Instances format. Evicts expired instances
+   * first.
+   *
+   * @return data set
+   */
+  public Instances toInstances() {
+    evictExpired(System.currentTimeMillis());
+    Instances dataset = new Instances(header, size);
+    for (int i = 0; i < size; i++) {
+      dataset.add(new DenseInstance(1.0, rows[(head + i) % rows.length].clone()));
+    }
+    return dataset;
+  }
+
+  /**
+   * Writes limits, counters and all stored instances (with their timestamps) to the output. The header is not written.
+   *
+   * @param output
+   *
+   * @throws IOException
+   */
+  void writeTo(DataOutput output) throws IOException {
+    output.writeInt(maxInstances);
+    output.writeLong(maxAgeMillis);
+    output.writeLong(maxBytes);
+    output.writeLong(totalAdded);
+    output.writeLong(totalEvicted);
+    output.writeInt(size);
+    for (int i = 0; i < size; i++) {
+      int index = (head + i) % rows.length;
+      output.writeLong(timestamps[index]);
+      for (int attribute = 0; attribute < numAttributes; attribute++) {
+        output.writeDouble(rows[index][attribute]);
+      }
+    }
+  }
+
+  /**
+   * Reads a store written by writeTo(DataOutput) for instances with the attribute structure of the given header.
+   *
+   * @param input
+   * @param header
+   *
+   * @return TrainingStore
+   *
+   * @throws IOException
+   */
+  static TrainingStore readFrom(DataInput input, Instances header) throws IOException {
+    TrainingStore store = new TrainingStore(header);
+    store.maxInstances = input.readInt();
+    store.maxAgeMillis = input.readLong();
+    store.maxBytes = input.readLong();
+    long totalAdded = input.readLong();
+    long totalEvicted = input.readLong();
+    int size = input.readInt();
+    if (totalAdded - totalEvicted != size) {
+      throw new IOException("Corrupt training store: counters do not match number of instances.");
+    }
+    store.resize(Math.max(INITIAL_CAPACITY, size));
+    for (int i = 0; i < size; i++) {
+      double[] row = new double[store.numAttributes];
+      store.timestamps[i] = input.readLong();
+      for (int attribute = 0; attribute < store.numAttributes; attribute++) {
+        row[attribute] = input.readDouble();
+      }
+      store.rows[i] = row;
+      store.characteristics.add(row);
+    }
+    store.size = size;
+    store.totalAdded = totalAdded;
+    store.totalEvicted = totalEvicted;
+    return store;
+  }
+
+  /**
+   * Get the characteristics of the stored instances. Must be read under the same lock as the store is modified.
+   *
+   * @return CharacteristicsAccumulator
+   */
+  public CharacteristicsAccumulator getCharacteristics() {
+    return characteristics;
+  }
+
+  /**
+   * Get empty data set with the attribute structure of the stored instances.
+   *
+   * @return header
+   */
+  public Instances getHeader() {
+    return header;
+  }
+
+  /**
+   * Get number of attributes (input parameters and target attribute) per instance.
+   *
+   * @return number of attributes
+   */
+  public int numAttributes() {
+    return numAttributes;
+  }
+
+  /**
+   * Get number of currently stored instances.
+   *
+   * @return size
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get number of instances added since the store was created. Equals the sequence number of the next instance.
+   *
+   * @return number of added instances
+   */
+  public long getTotalAdded() {
+    return totalAdded;
+  }
+
+  /**
+   * Get number of instances evicted since the store was created.
+   *
+   * @return number of evicted instances
+   */
+  public long getTotalEvicted() {
+    return totalEvicted;
+  }
+
+  /**
+   * Get estimated heap size of the stored instances in bytes.
+   *
+   * @return bytes
+   */
+  public long getEstimatedBytes() {
+    return size * getBytesPerInstance();
+  }
+}
@@ -0,0 +1,98 @@
+package prediction_tool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Compares the fused BatchCharacteristics with the Weka-based DatasetCharacteristics, like CharacteristicsBenchmark.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class BatchCharacteristicsTest {
+
+  // Weka's linear regression adds a ridge of 1e-8, so R^2 differs in about the eighth digit.
+  private static final double MAX_RELATIVE_DIFFERENCE = 1e-6;
+
+  @Test
+  public void matchesWekaForOneBlock() {
+    assertMatchesWeka(CharacteristicsBenchmark.createDataset(1000, 1, new Random(0)));
+    assertMatchesWeka(CharacteristicsBenchmark.createDataset(100, 6, new Random(1)));
+  }
+
+  @Test
+  public void matchesWekaForMultipleBlocks() {
+    assertMatchesWeka(CharacteristicsBenchmark.createDataset(2 * BatchCharacteristics.BLOCK_ROWS + 123, 2,
+        new Random(2)));
+    assertMatchesWeka(CharacteristicsBenchmark.createDataset(2 * BatchCharacteristics.BLOCK_ROWS + 123, 4,
+        new Random(3)));
+  }
+
+  @Test
+  public void matchesWekaForMissingValues() {
+    Instances dataset = CharacteristicsBenchmark.createDataset(1000, 3, new Random(5));
+    dataset.instance(17).setValue(1, Utils.missingValue());
+    assertArrayEquals(BatchCharacteristics.computeWithWeka(dataset), BatchCharacteristics.compute(dataset), 0);
+  }
+
+  @Test
+  public void matchesWekaForNominalInputParameters() {
+    ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+    attributes.add(new Attribute("InputParam_0"));
+    attributes.add(new Attribute("InputParam_1", Arrays.asList("a", "b", "c")));
+    attributes.add(new Attribute("Runtime(ns)"));
+    Instances dataset = new Instances("Nominal", attributes, 0);
+    dataset.setClassIndex(2);
+    Random random = new Random(6);
+    for (int i = 0; i < 500; i++) {
+      double value = random.nextInt(1000);
+      int category = random.nextInt(3);
+      dataset.add(new DenseInstance(1, new double[]{value, category, 1000 + 5 * value + 300 * category
+          + random.nextGaussian()}));
+    }
+    assertArrayEquals(BatchCharacteristics.computeWithWeka(dataset), BatchCharacteristics.compute(dataset), 0);
+  }
+
+  @Test
+  public void resultDoesNotDependOnParallelism() {
+    Instances dataset = CharacteristicsBenchmark.createDataset(3 * BatchCharacteristics.BLOCK_ROWS + 7, 3,
+        new Random(7));
+    ForkJoinPool sequential = new ForkJoinPool(1);
+    ForkJoinPool parallel = new ForkJoinPool(4);
+    try {
+      assertArrayEquals(BatchCharacteristics.compute(dataset, sequential), BatchCharacteristics.compute(dataset,
+          parallel), 0);
+    }
+    finally {
+      sequential.shutdown();
+      parallel.shutdown();
+    }
+  }
+
+  /**
+   * Asserts that every meta-feature differs from DatasetCharacteristics by at most MAX_RELATIVE_DIFFERENCE.
+   *
+   * @param dataset
+   */
+  private static void assertMatchesWeka(Instances dataset) {
+    double[] expected = BatchCharacteristics.computeWithWeka(dataset);
+    double[] actual = BatchCharacteristics.compute(dataset);
+    assertEquals(CharacteristicsBenchmark.META_FEATURE_NAMES.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(CharacteristicsBenchmark.META_FEATURE_NAMES[i], expected[i], actual[i],
+          MAX_RELATIVE_DIFFERENCE * Math.max(Math.abs(expected[i]), 1e-3));
+    }
+  }
+}
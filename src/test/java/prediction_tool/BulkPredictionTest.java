@@ -0,0 +1,146 @@
+package prediction_tool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import weka.classifiers.functions.LinearRegression;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * Tests that the parallel bulk prediction writes the same output as the sequential one.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class BulkPredictionTest {
+
+  private static final int NUM_INPUTS = 3;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private RuntimePrediction prediction;
+
+  @Before
+  public void setUp() throws Exception {
+    ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+    for (int i = 0; i < NUM_INPUTS; i++) {
+      attributes.add(new Attribute("InputParam_" + i));
+    }
+    attributes.add(new Attribute("Runtime(ns)"));
+    Instances dataset = new Instances("AlgorithmRuntime", attributes, 0);
+    dataset.setClassIndex(NUM_INPUTS);
+    Random random = new Random(1);
+    for (int i = 0; i < 200; i++) {
+      double[] values = new double[NUM_INPUTS + 1];
+      for (int j = 0; j < NUM_INPUTS; j++) {
+        values[j] = random.nextDouble() * 1000;
+      }
+      values[NUM_INPUTS] = 5000 + 3 * values[0] + 70 * values[1] - 2 * values[2] + random.nextGaussian() * 10;
+      dataset.add(new DenseInstance(1, values));
+    }
+    LinearRegression predictor = new LinearRegression();
+    predictor.buildClassifier(dataset);
+    prediction = new RuntimePrediction(dataset, predictor);
+  }
+
+  @Test
+  public void parallelOutputEqualsSequentialOutput() throws IOException {
+    Path input = writeInput(50000, true);
+    byte[] sequential = predictSequential(input);
+    assertEquals(50000, countLines(sequential));
+    for (int parallelism : new int[]{1, 2, 3, 8}) {
+      assertArrayEquals("Parallelism " + parallelism, sequential, predictParallel(input, parallelism));
+    }
+  }
+
+  @Test
+  public void parallelOutputEqualsSequentialOutputWithoutFinalLineBreak() throws IOException {
+    Path input = writeInput(3001, false);
+    byte[] sequential = predictSequential(input);
+    assertEquals(3001, countLines(sequential));
+    assertArrayEquals(sequential, predictParallel(input, 4));
+  }
+
+  @Test
+  public void parallelOutputEqualsSequentialOutputForFewerLinesThanChunks() throws IOException {
+    Path input = writeInput(5, true);
+    byte[] sequential = predictSequential(input);
+    assertEquals(5, countLines(sequential));
+    assertArrayEquals(sequential, predictParallel(input, 8));
+  }
+
+  /**
+   * Writes numLines random input lines, mixed with malformed lines, empty lines and CRLF line breaks.
+   *
+   * @param numLines
+   * @param finalLineBreak
+   *
+   * @return input file
+   *
+   * @throws IOException
+   */
+  private Path writeInput(int numLines, boolean finalLineBreak) throws IOException {
+    Random random = new Random(numLines);
+    StringBuilder input = new StringBuilder();
+    for (int line = 0; line < numLines; line++) {
+      int kind = random.nextInt(50);
+      if (kind == 0) {
+        input.append("not,a,number");
+      }
+      else if (kind == 1) {
+        input.append("1,2");
+      }
+      else if (kind > 2) {
+        for (int j = 0; j < NUM_INPUTS; j++) {
+          if (j > 0) {
+            input.append(',');
+          }
+          input.append(random.nextInt(3) == 0 ? random.nextInt(1000) : random.nextDouble() * 1000);
+        }
+      }
+      if (line < numLines - 1 || finalLineBreak) {
+        input.append(random.nextInt(10) == 0 ? "\r\n" : "\n");
+      }
+    }
+    Path file = folder.newFile().toPath();
+    Files.write(file, input.toString().getBytes(StandardCharsets.US_ASCII));
+    return file;
+  }
+
+  private byte[] predictSequential(Path input) throws IOException {
+    Path output = folder.newFile().toPath();
+    prediction.predictAllInFile(input, output);
+    return Files.readAllBytes(output);
+  }
+
+  private byte[] predictParallel(Path input, int parallelism) throws IOException {
+    Path output = folder.newFile().toPath();
+    prediction.predictAllInFileParallel(input, output, parallelism);
+    return Files.readAllBytes(output);
+  }
+
+  private static int countLines(byte[] output) {
+    int numLines = 0;
+    for (byte b : output) {
+      if (b == '\n') {
+        numLines++;
+      }
+    }
+    return numLines;
+  }
+}
@@ -0,0 +1,127 @@
+package prediction_tool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * Tests that the incrementally updated meta-features of the CharacteristicsAccumulator match DatasetCharacteristics,
+ * also after long sequences of additions and removals.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class CharacteristicsAccumulatorTest {
+
+  private static final int NUM_INPUTS = 3;
+  // Weka's linear regression adds a ridge of 1e-8, so R^2 differs in about the eighth digit.
+  private static final double MAX_RELATIVE_DIFFERENCE = 1e-6;
+
+  @Test
+  public void matchesWekaAfterAdditions() {
+    Instances dataset = CharacteristicsBenchmark.createDataset(5000, NUM_INPUTS, new Random(0));
+    CharacteristicsAccumulator accumulator = new CharacteristicsAccumulator(NUM_INPUTS + 1);
+    for (int i = 0; i < dataset.size(); i++) {
+      accumulator.add(dataset.instance(i).toDoubleArray());
+    }
+    assertMatchesWeka(dataset, accumulator);
+  }
+
+  @Test
+  public void matchesWekaAfterLongAddRemoveSequence() {
+    int windowSize = 500;
+    double[][] rows = new double[windowSize][];
+    int head = 0;
+    int size = 0;
+    CharacteristicsAccumulator accumulator = new CharacteristicsAccumulator(NUM_INPUTS + 1);
+    Random random = new Random(1);
+    int numRecomputes = 0;
+    for (int i = 0; i < 2000000; i++) {
+      if (size == windowSize) {
+        accumulator.removeOldest(rows[head]);
+        head = (head + 1) % windowSize;
+        size--;
+        if (accumulator.needsRecompute()) {
+          accumulator.recomputeMoments(rows, head);
+          numRecomputes++;
+        }
+      }
+      // The values change their scale by six orders of magnitude every 200000 instances.
+      double scale = (i / 200000) % 2 == 0 ? 1e6 : 1;
+      double[] row = new double[NUM_INPUTS + 1];
+      for (int j = 0; j < NUM_INPUTS; j++) {
+        row[j] = scale * (1000 + random.nextInt(100));
+      }
+      row[NUM_INPUTS] = scale * (1e6 + 300 * row[0] / scale + 0.05 * row[1] * row[1] / scale / scale)
+          + random.nextGaussian();
+      rows[(head + size) % windowSize] = row;
+      size++;
+      accumulator.add(row);
+    }
+    // With fewer instances than RECOMPUTE_REMOVALS, the moments are recomputed once the removals reach the count.
+    assertEquals((2000000 - windowSize) / (windowSize - 1), numRecomputes);
+
+    Instances window = CharacteristicsBenchmark.createDataset(0, NUM_INPUTS, new Random(0));
+    for (int i = 0; i < size; i++) {
+      window.add(new DenseInstance(1.0, rows[(head + i) % windowSize]));
+    }
+    assertMatchesWeka(window, accumulator);
+  }
+
+  @Test
+  public void needsRecomputeAfterManyRemovalsOrWhenFewInstancesRemain() {
+    CharacteristicsAccumulator accumulator = new CharacteristicsAccumulator(2);
+    double[][] rows = new double[10][];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = new double[]{i, 2 * i};
+      accumulator.add(rows[i]);
+    }
+    assertFalse(accumulator.needsRecompute());
+    for (int i = 0; i < 4; i++) {
+      accumulator.removeOldest(rows[i]);
+      assertFalse(accumulator.needsRecompute());
+    }
+    // 5 removals, 5 remaining instances
+    accumulator.removeOldest(rows[4]);
+    assertTrue(accumulator.needsRecompute());
+    accumulator.recomputeMoments(rows, 5);
+    assertFalse(accumulator.needsRecompute());
+    assertEquals(7, accumulator.getMeanOfClassAttribute() / 2, 0);
+    assertEquals(1, accumulator.getHighestCorrelation(), 1e-12);
+
+    int count = CharacteristicsAccumulator.RECOMPUTE_REMOVALS * 2;
+    CharacteristicsAccumulator large = new CharacteristicsAccumulator(2);
+    double[] row = {1, 1};
+    for (int i = 0; i < count; i++) {
+      large.add(row);
+    }
+    for (int i = 1; i < CharacteristicsAccumulator.RECOMPUTE_REMOVALS; i++) {
+      large.removeOldest(row);
+    }
+    assertFalse(large.needsRecompute());
+    large.removeOldest(row);
+    assertTrue(large.needsRecompute());
+  }
+
+  /**
+   * Asserts that every meta-feature differs from DatasetCharacteristics by at most MAX_RELATIVE_DIFFERENCE.
+   *
+   * @param dataset
+   * @param accumulator
+   */
+  private static void assertMatchesWeka(Instances dataset, CharacteristicsAccumulator accumulator) {
+    double[] expected = BatchCharacteristics.computeWithWeka(dataset);
+    double[] actual = accumulator.getMetaFeatures();
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(CharacteristicsBenchmark.META_FEATURE_NAMES[i], expected[i], actual[i],
+          MAX_RELATIVE_DIFFERENCE * Math.max(Math.abs(expected[i]), 1e-3));
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package prediction_tool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares CsvRowParser to String.split(",") with Double.parseDouble, the parsing it replaces.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class CsvRowParserTest {
+
+  private static final String[] VALUES = {"0", "-0", "+0", "1", "-1", "+1", "0.5", ".5", "5.", "-.5", "123.456",
+      "0.1", "0.2", "0.3", "1e3", "1E3", "1e+3", "1e-3", "-1.5e-7", "2.5E10", "1e22", "1e23", "1e-22", "1e-23",
+      "1e308", "1e309", "-1e309", "4.9e-324", "1e-400", "1.7976931348623157e308", "9007199254740991",
+      "9007199254740992", "9007199254740993", "123456789012345678", "1234567890123456789",
+      "12345678901234567890123", "0.12345678901234567890123", "3.14159265358979323846264338327950288",
+      "0.000000000000000000000000000001", "100000000000000000000000000000", "2.2250738585072014E-308", "NaN",
+      "-NaN", "Infinity", "-Infinity", "+Infinity", " 1.5", "2.5 ", " 3 ", "0x1p3", "1d", "1f", "007", "1e0007"};
+
+  private static final String[] NON_NUMERIC = {"", " ", "abc", "1e", "1e+", "e5", ".", "-", "1.2.3", "--1",
+      "1 2", "nan", "inf", "0x"};
+
+  @Test
+  public void parsesSingleValuesLikeParseDouble() {
+    for (String value : VALUES) {
+      assertParsedLikeParseDouble(value);
+    }
+  }
+
+  @Test
+  public void rejectsNonNumericValuesLikeParseDouble() {
+    for (String value : NON_NUMERIC) {
+      CsvRowParser parser = new CsvRowParser();
+      double[] row = new double[2];
+      assertFalse(value, parser.parse(value + ",1", row, 2));
+      assertEquals(value, 1, parser.getNonNumericRecords());
+      assertEquals(value, 0, parser.getParsedRecords());
+    }
+  }
+
+  @Test
+  public void parsesRandomRecordsLikeParseDouble() {
+    Random random = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      String[] fields = new String[1 + random.nextInt(8)];
+      StringBuilder record = new StringBuilder();
+      for (int j = 0; j < fields.length; j++) {
+        fields[j] = randomValue(random);
+        if (j > 0) {
+          record.append(',');
+        }
+        record.append(fields[j]);
+      }
+      assertRecordParsedLikeSplit(record.toString(), fields.length);
+    }
+  }
+
+  @Test
+  public void ignoresTrailingCommasLikeSplit() {
+    assertRecordParsedLikeSplit("1,2,3,", 3);
+    assertRecordParsedLikeSplit("1,2,3,,,", 3);
+    assertRecordParsedLikeSplit("1.5e3,NaN,", 2);
+
+    CsvRowParser parser = new CsvRowParser();
+    double[] row = new double[3];
+    assertFalse(parser.parse("1,,3", row, 3));
+    assertFalse(parser.parse(",1,2", row, 3));
+    assertEquals(2, parser.getNonNumericRecords());
+  }
+
+  @Test
+  public void countsRecordsWithWrongLength() {
+    CsvRowParser parser = new CsvRowParser();
+    double[] row = new double[4];
+    assertFalse(parser.parse("1,2", row, 3));
+    assertFalse(parser.parse("1,2,3,4", row, 3));
+    assertFalse(parser.parse("1", row, 3));
+    assertTrue(parser.parse("1,2,3", row, 3));
+    assertEquals(3, parser.getWrongLengthRecords());
+    assertEquals(0, parser.getNonNumericRecords());
+    assertEquals(3, parser.getMalformedRecords());
+    assertEquals(1, parser.getParsedRecords());
+  }
+
+  @Test
+  public void parsesBytesAndBuffersLikeCharSequences() {
+    Random random = new Random(7);
+    CsvRowParser parser = new CsvRowParser();
+    for (int i = 0; i < 1000; i++) {
+      String[] fields = new String[1 + random.nextInt(5)];
+      StringBuilder record = new StringBuilder();
+      for (int j = 0; j < fields.length; j++) {
+        fields[j] = randomValue(random);
+        if (j > 0) {
+          record.append(',');
+        }
+        record.append(fields[j]);
+      }
+      String prefix = "9,9\n";
+      byte[] bytes = (prefix + record + "\n8,8").getBytes(StandardCharsets.US_ASCII);
+      int length = record.length();
+      double[] expected = new double[fields.length];
+      double[] fromBytes = new double[fields.length];
+      double[] fromBuffer = new double[fields.length];
+      assertTrue(record.toString(), parser.parse(record, expected, fields.length));
+      assertTrue(record.toString(), parser.parse(bytes, prefix.length(), length, fromBytes, fields.length));
+      ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+      buffer.put(bytes);
+      buffer.position(1);
+      assertTrue(record.toString(), parser.parse(buffer, prefix.length(), length, fromBuffer, fields.length));
+      assertEquals(1, buffer.position());
+      for (int j = 0; j < fields.length; j++) {
+        assertSameValue(fields[j], expected[j], fromBytes[j]);
+        assertSameValue(fields[j], expected[j], fromBuffer[j]);
+      }
+    }
+  }
+
+  /**
+   * Asserts that the value is parsed to the same double as by Double.parseDouble.
+   *
+   * @param value
+   */
+  private static void assertParsedLikeParseDouble(String value) {
+    CsvRowParser parser = new CsvRowParser();
+    double[] row = new double[1];
+    assertTrue(value, parser.parse(value, row, 1));
+    assertSameValue(value, Double.parseDouble(value), row[0]);
+  }
+
+  /**
+   * Asserts that the record is parsed to the same values as by String.split(",") with Double.parseDouble.
+   *
+   * @param record
+   * @param numValues
+   */
+  private static void assertRecordParsedLikeSplit(String record, int numValues) {
+    String[] fields = record.split(",");
+    assertEquals(record, numValues, fields.length);
+    CsvRowParser parser = new CsvRowParser();
+    double[] row = new double[numValues];
+    assertTrue(record, parser.parse(record, row, numValues));
+    for (int i = 0; i < numValues; i++) {
+      assertSameValue(record, Double.parseDouble(fields[i]), row[i]);
+    }
+  }
+
+  /**
+   * Asserts bitwise equality, so that 0.0 and -0.0 or values one ulp apart are told apart.
+   *
+   * @param message
+   * @param expected
+   * @param actual
+   */
+  private static void assertSameValue(String message, double expected, double actual) {
+    assertEquals(message, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+  }
+
+  /**
+   * Returns a random number string: plain decimals, long mantissas, exponents or one of the fixed values.
+   *
+   * @param random
+   *
+   * @return number string
+   */
+  private static String randomValue(Random random) {
+    switch (random.nextInt(6)) {
+      case 0:
+        return VALUES[random.nextInt(VALUES.length)];
+      case 1:
+        return Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20));
+      case 2:
+        return String.valueOf(random.nextInt(100000) - 50000);
+      case 3:
+        StringBuilder digits = new StringBuilder(random.nextBoolean() ? "-" : "");
+        int numDigits = 1 + random.nextInt(30);
+        int point = random.nextInt(numDigits + 1);
+        for (int i = 0; i < numDigits; i++) {
+          if (i == point) {
+            digits.append('.');
+          }
+          digits.append((char) ('0' + random.nextInt(10)));
+        }
+        return digits.toString();
+      case 4:
+        return (random.nextInt(2000) - 1000) / 100.0 + (random.nextBoolean() ? "e" : "E")
+            + (random.nextInt(700) - 350);
+      default:
+        return String.format(Locale.ROOT, "%.6f", random.nextGaussian() * 1000);
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package prediction_tool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests eviction order, invalidation and quantization of the PredictionCache.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class PredictionCacheTest {
+
+  private static final double DELTA = 0;
+
+  @Test
+  public void evictsLeastRecentlyUsedEntry() {
+    PredictionCache cache = new PredictionCache(3, new double[]{0}, 1);
+    cache.put(new double[]{1}, 10, null);
+    cache.put(new double[]{2}, 20, null);
+    cache.put(new double[]{3}, 30, null);
+    assertEquals(10, cache.get(new double[]{1}), DELTA);
+    cache.put(new double[]{4}, 40, null);
+
+    assertTrue(Double.isNaN(cache.get(new double[]{2})));
+    assertEquals(10, cache.get(new double[]{1}), DELTA);
+    assertEquals(30, cache.get(new double[]{3}), DELTA);
+    assertEquals(40, cache.get(new double[]{4}), DELTA);
+    assertEquals(3, cache.size());
+    assertEquals(1, cache.getEvictions());
+
+    // Updating an entry makes it the most recently used one.
+    cache.put(new double[]{1}, 11, null);
+    cache.put(new double[]{5}, 50, null);
+    cache.put(new double[]{6}, 60, null);
+    assertEquals(11, cache.get(new double[]{1}), DELTA);
+    assertTrue(Double.isNaN(cache.get(new double[]{3})));
+    assertTrue(Double.isNaN(cache.get(new double[]{4})));
+    assertEquals(3, cache.getEvictions());
+  }
+
+  @Test
+  public void evictsLikeLinkedHashMap() {
+    int capacity = 16;
+    PredictionCache cache = new PredictionCache(capacity, new double[]{1, 0}, 1);
+    Map<List<Long>, Double> expected = new LinkedHashMap<List<Long>, Double>(capacity, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<List<Long>, Double> eldest) {
+        return size() > capacity;
+      }
+    };
+    Random random = new Random(42);
+    for (int i = 0; i < 100000; i++) {
+      double[] inputs = {random.nextInt(40) + random.nextDouble() - 0.5, random.nextInt(2)};
+      List<Long> key = new ArrayList<Long>();
+      key.add(Math.round(inputs[0]));
+      key.add(Double.doubleToLongBits(inputs[1]));
+      if (random.nextBoolean()) {
+        double prediction = random.nextDouble();
+        cache.put(inputs, prediction, null);
+        expected.put(key, prediction);
+      }
+      else {
+        Double expectedPrediction = expected.get(key);
+        double prediction = cache.get(inputs);
+        if (expectedPrediction == null) {
+          assertTrue(Double.isNaN(prediction));
+        }
+        else {
+          assertEquals(expectedPrediction, prediction, DELTA);
+        }
+      }
+      assertEquals(expected.size(), cache.size());
+    }
+  }
+
+  @Test
+  public void invalidationRemovesEntriesAndRejectsOlderSnapshots() {
+    Object oldSnapshot = new Object();
+    Object newSnapshot = new Object();
+    PredictionCache cache = new PredictionCache(8, new double[]{0, 0});
+    cache.invalidate(oldSnapshot);
+    cache.put(new double[]{1, 2}, 3, oldSnapshot);
+    assertEquals(3, cache.get(new double[]{1, 2}), DELTA);
+
+    // RuntimePrediction invalidates the cache with every snapshot it publishes.
+    cache.invalidate(newSnapshot);
+    assertEquals(0, cache.size());
+    assertTrue(Double.isNaN(cache.get(new double[]{1, 2})));
+
+    // A prediction of the old snapshot that finishes after the publish must not be cached.
+    cache.put(new double[]{1, 2}, 3, oldSnapshot);
+    assertTrue(Double.isNaN(cache.get(new double[]{1, 2})));
+    cache.put(new double[]{1, 2}, 4, newSnapshot);
+    assertEquals(4, cache.get(new double[]{1, 2}), DELTA);
+    assertEquals(2, cache.getInvalidations());
+    assertEquals(0, cache.getEvictions());
+  }
+
+  @Test
+  public void quantizedConfigurationsShareOneEntry() {
+    PredictionCache cache = new PredictionCache(8, new double[]{10, 0.5, 0}, 1);
+    cache.put(new double[]{101, 1.1, 7}, 1, null);
+
+    assertEquals(1, cache.get(new double[]{104.9, 0.8, 7}), DELTA);
+    assertEquals(1, cache.get(new double[]{95, 1.2, 7}), DELTA);
+    assertTrue(Double.isNaN(cache.get(new double[]{105, 1.1, 7})));
+    assertTrue(Double.isNaN(cache.get(new double[]{101, 1.3, 7})));
+    assertTrue(Double.isNaN(cache.get(new double[]{101, 1.1, 7.000000001})));
+
+    // A colliding configuration replaces the prediction instead of adding an entry.
+    cache.put(new double[]{99, 1, 7}, 2, null);
+    assertEquals(1, cache.size());
+    assertEquals(2, cache.get(new double[]{101, 1.1, 7}), DELTA);
+    assertEquals(3, cache.getHits());
+    assertEquals(3, cache.getMisses());
+  }
+
+  @Test
+  public void doesNotCacheNaN() {
+    PredictionCache cache = new PredictionCache(8, new double[]{0});
+    cache.put(new double[]{1}, Double.NaN, null);
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void shardsShareTheCapacity() {
+    PredictionCache cache = new PredictionCache(100, new double[]{0}, 8);
+    assertEquals(8, cache.getNumShards());
+    for (int i = 0; i < 1000; i++) {
+      cache.put(new double[]{i}, i, null);
+      assertTrue(cache.size() <= 100);
+    }
+    assertEquals(1000 - cache.size(), cache.getEvictions());
+    assertEquals(1, new PredictionCache(1, new double[]{0}, 8).getNumShards());
+  }
+}
@@ -0,0 +1,114 @@
+package prediction_tool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Tests the eviction of the TrainingStore and that its characteristics do not drift over long add/evict sequences.
+ *
+ * @author Vanessa Ackermann
+ * @version 1.0
+ */
+public class TrainingStoreTest {
+
+  private static final int NUM_INPUTS = 2;
+  private static final double MAX_RELATIVE_DIFFERENCE = 1e-9;
+
+  @Test
+  public void evictsOldestInstances() {
+    TrainingStore store = createStore();
+    store.setLimits(3, TrainingStore.UNLIMITED, TrainingStore.UNLIMITED);
+    for (int i = 0; i < 10; i++) {
+      store.add(new double[]{i, 2 * i, 3 * i});
+    }
+    assertEquals(3, store.size());
+    assertEquals(10, store.getTotalAdded());
+    assertEquals(7, store.getTotalEvicted());
+    assertNull(store.getRow(6));
+    assertEquals(7, store.getRow(7)[0], 0);
+    assertEquals(9, store.getRow(9)[0], 0);
+    assertEquals(3, store.getCharacteristics().getSize(), 0);
+    assertEquals(27 - 21, store.getCharacteristics().getRangeOfClassAttribute(), 0);
+  }
+
+  @Test
+  public void slidingWindowDoesNotDrift() {
+    TrainingStore store = createStore();
+    store.setLimits(100, TrainingStore.UNLIMITED, TrainingStore.UNLIMITED);
+    Random random = new Random(1);
+    for (int i = 0; i < 1000000; i++) {
+      store.add(createRow(random, i));
+    }
+    assertSameCharacteristics(store);
+  }
+
+  @Test
+  public void shrinkingStoreDoesNotDrift() {
+    TrainingStore store = createStore();
+    Random random = new Random(2);
+    for (int i = 0; i < 300000; i++) {
+      store.add(createRow(random, i));
+    }
+    for (int maxInstances : new int[]{50000, 1000, 10, 3}) {
+      store.setLimits(maxInstances, TrainingStore.UNLIMITED, TrainingStore.UNLIMITED);
+      assertSameCharacteristics(store);
+    }
+  }
+
+  private static TrainingStore createStore() {
+    ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+    for (int i = 0; i < NUM_INPUTS; i++) {
+      attributes.add(new Attribute("InputParam_" + i));
+    }
+    attributes.add(new Attribute("Runtime(ns)"));
+    Instances dataset = new Instances("AlgorithmRuntime", attributes, 0);
+    dataset.setClassIndex(NUM_INPUTS);
+    return new TrainingStore(dataset);
+  }
+
+  /**
+   * Returns a row whose scale alternates every 100000 rows between about 1e9 and 1e3, which makes the reversed Welford
+   * updates cancel large terms.
+   *
+   * @param random
+   * @param i
+   *
+   * @return row
+   */
+  private static double[] createRow(Random random, int i) {
+    double scale = (i / 100000) % 2 == 0 ? 1e9 : 1e3;
+    double input = 1e6 + random.nextInt(1000);
+    double noise = random.nextDouble();
+    return new double[]{input * scale / 1e6, noise, scale + 3 * input + 1e3 * noise + random.nextGaussian()};
+  }
+
+  /**
+   * Asserts that the incrementally updated characteristics equal those of a new accumulator of the stored instances.
+   *
+   * @param store
+   */
+  private static void assertSameCharacteristics(TrainingStore store) {
+    CharacteristicsAccumulator expected = new CharacteristicsAccumulator(NUM_INPUTS + 1);
+    for (Instance instance : store.toInstances()) {
+      expected.add(instance.toDoubleArray());
+    }
+    double[] expectedMetaFeatures = expected.getMetaFeatures();
+    double[] actualMetaFeatures = store.getCharacteristics().getMetaFeatures();
+    for (int i = 0; i < expectedMetaFeatures.length; i++) {
+      assertEquals(CharacteristicsBenchmark.META_FEATURE_NAMES[i] + " of " + store.size() + " instances",
+          expectedMetaFeatures[i], actualMetaFeatures[i],
+          MAX_RELATIVE_DIFFERENCE * Math.max(Math.abs(expectedMetaFeatures[i]), 1e-3));
+    }
+    assertEquals(expected.getMeanOfClassAttribute(), store.getCharacteristics().getMeanOfClassAttribute(),
+        MAX_RELATIVE_DIFFERENCE * Math.abs(expected.getMeanOfClassAttribute()));
+  }
+}